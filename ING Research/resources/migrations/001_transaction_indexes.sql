@@ -0,0 +1,8 @@
+-- Transfer limit check: sum of amounts per source account within a time window
+CREATE INDEX IF NOT EXISTS idx_transactions_source_time ON transactions (source_IBAN, date_time_milis, amount);
+
+-- Daily PIN limit check: sum of PIN amounts per source account on one day
+CREATE INDEX IF NOT EXISTS idx_transactions_source_pin ON transactions (source_IBAN, pin_transaction, date_time, amount);
+
+-- Transactions overview: transactions to an account (the source side uses the indexes above)
+CREATE INDEX IF NOT EXISTS idx_transactions_destination_time ON transactions (destination_IBAN, date_time_milis);
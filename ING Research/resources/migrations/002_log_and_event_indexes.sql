@@ -0,0 +1,8 @@
+-- Event log overview: all columns of the logs in a time range, in timestamp order
+CREATE INDEX IF NOT EXISTS idx_logs_timestamp_covering ON logs (timestamp, type, message);
+
+-- Daily time event poll: pending events in a time range
+CREATE INDEX IF NOT EXISTS idx_timeevents_executed_time ON timeevents (executed, timestamp);
+
+-- Bank system value initialization: executed events with a given name, in timestamp order
+CREATE INDEX IF NOT EXISTS idx_timeevents_executed_name_time ON timeevents (executed, name, timestamp);
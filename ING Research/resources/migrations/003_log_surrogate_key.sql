@@ -0,0 +1,10 @@
+-- Logs used their timestamp as primary key, so events logged in the same millisecond
+-- overwrote each other. Rebuild the table with a generated ID and index the timestamp.
+-- Recreating the table also drops idx_logs_timestamp_covering of migration 002.
+CREATE TABLE logs_new (ID INTEGER PRIMARY KEY, timestamp BIGINT NOT NULL, message VARCHAR, type VARCHAR);
+INSERT INTO logs_new (timestamp, message, type) SELECT timestamp, message, type FROM logs ORDER BY timestamp;
+DROP TABLE logs;
+ALTER TABLE logs_new RENAME TO logs;
+
+-- Paging through a time range: ordered by (timestamp, ID), the ID being the rowid
+CREATE INDEX IF NOT EXISTS idx_logs_timestamp ON logs (timestamp);
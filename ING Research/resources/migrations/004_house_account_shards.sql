@@ -0,0 +1,5 @@
+-- Money for and from the ING bank account is posted to one of several shards instead of
+-- its row in bankaccounts, so postings do not all rewrite the same row. The balance of
+-- the account is its row plus the sum of the shards; shards are folded into the row
+-- periodically (see HouseAccount). Shard rows are created on first use.
+CREATE TABLE IF NOT EXISTS houseshards (shard INTEGER PRIMARY KEY, balance NUMERIC NOT NULL DEFAULT 0);
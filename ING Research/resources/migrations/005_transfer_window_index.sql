@@ -0,0 +1,5 @@
+-- Transfer limits are checked in memory (see TransferLimitTracker), so the PIN index of
+-- migration 001 is no longer used. The tracker rebuilds its windows from the outgoing
+-- transfers of the last days, which needs the transactions in a time range.
+DROP INDEX IF EXISTS idx_transactions_source_pin;
+CREATE INDEX IF NOT EXISTS idx_transactions_time ON transactions (date_time_milis);
@@ -0,0 +1,291 @@
+package accounts;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import database.DBObject;
+import database.DataManager;
+import database.NamedStatement;
+import database.SQLiteDB;
+
+/**
+ * Keeps the <code>customerbankaccounts</code> table in memory, as the IBANs per BSN and the BSNs
+ * per IBAN, so checking whether a customer has access to a bank account is one hash lookup
+ * instead of loading the owners of the account (and everything they own) through Hibernate.
+ * The index is read from the database on first use and updated by <code>DataManager</code>
+ * whenever a <code>CustomerAccount</code> has been saved or an account has been removed, and by
+ * whoever deletes access directly (see <code>revoked()</code>). Changes take effect once they are
+ * committed (see <code>DataManager.afterCommit()</code>); a transaction that is still running
+ * reads its access from the database instead, so it sees its own changes. The strings are
+ * interned, so an IBAN or BSN is stored once however many entries it occurs in.
+ */
+public class AccessIndex {
+
+	private static final ConcurrentHashMap<String, Set<String>> IBANsByBSN = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, Set<String>> BSNsByIBAN = new ConcurrentHashMap<>();
+	private static volatile boolean loaded = false;
+
+	/**
+	 * Guards changes of the index, so both directions always change together. Never held while
+	 * taking <code>SQLiteDB.connectionLock</code>.
+	 */
+	private static final Object lock = new Object();
+
+	/**
+	 * @param BSN The BSN of a customer
+	 * @param IBAN The IBAN of a bank account
+	 * @return True if the customer is the main holder of the account or has been given access to it
+	 */
+	public static boolean hasAccess(String BSN, String IBAN) {
+		if (DataManager.isInTransaction()) {
+			return read(NamedStatement.BANK_ACCOUNTS_OF_HOLDER, BSN, "IBAN").contains(IBAN);
+		}
+		loadIfRequired();
+		Set<String> IBANs = IBANsByBSN.get(BSN);
+		return IBANs != null && IBANs.contains(IBAN);
+	}
+
+	/**
+	 * @param BSN The BSN of a customer
+	 * @return The IBANs of the bank accounts the customer has access to
+	 */
+	public static Set<String> getIBANs(String BSN) {
+		if (DataManager.isInTransaction()) {
+			return read(NamedStatement.BANK_ACCOUNTS_OF_HOLDER, BSN, "IBAN");
+		}
+		loadIfRequired();
+		Set<String> IBANs = IBANsByBSN.get(BSN);
+		return IBANs == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(IBANs);
+	}
+
+	/**
+	 * @param IBAN The IBAN of a bank account
+	 * @return The BSNs of the customers that have access to the account
+	 */
+	public static Set<String> getBSNs(String IBAN) {
+		if (DataManager.isInTransaction()) {
+			return read(NamedStatement.HOLDERS_OF_BANK_ACCOUNT, IBAN, "customer_BSN");
+		}
+		loadIfRequired();
+		Set<String> BSNs = BSNsByIBAN.get(IBAN);
+		return BSNs == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(BSNs);
+	}
+
+	/**
+	 * Updates the index once a saved object has been committed. Only a saved
+	 * <code>CustomerAccount</code> changes access: its bank accounts are what Hibernate wrote
+	 * to <code>customerbankaccounts</code> for it.
+	 * @param o The saved object
+	 */
+	public static void saved(final DBObject o) {
+		if (!(o instanceof CustomerAccount)) {
+			return;
+		}
+		DataManager.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				customerSaved((CustomerAccount) o);
+			}
+		});
+	}
+
+	private static void customerSaved(CustomerAccount customerAccount) {
+		if (!loaded) {
+			return;
+		}
+		Set<String> IBANs = new HashSet<>();
+		for (BankAccount bankAccount : customerAccount.getBankAccounts()) {
+			IBANs.add(bankAccount.getIBAN());
+		}
+		synchronized (lock) {
+			String BSN = customerAccount.getBSN();
+			for (String IBAN : entries(IBANsByBSN, BSN)) {
+				if (!IBANs.contains(IBAN)) {
+					remove(BSN, IBAN);
+				}
+			}
+			for (String IBAN : IBANs) {
+				add(BSN, IBAN);
+			}
+		}
+	}
+
+	/**
+	 * Updates the index once the removal of an object from the database has been committed.
+	 * @param o The removed object
+	 */
+	public static void removed(DBObject o) {
+		if (o instanceof CustomerAccount) {
+			customerRemoved(((CustomerAccount) o).getBSN());
+		} else if (o instanceof BankAccount) {
+			final String IBAN = ((BankAccount) o).getIBAN();
+			DataManager.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (lock) {
+						for (String BSN : entries(BSNsByIBAN, IBAN)) {
+							remove(BSN, IBAN);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Updates the index once the deletion of all access of a customer has been committed.
+	 * @param BSN The BSN of the customer
+	 */
+	public static void customerRemoved(final String BSN) {
+		DataManager.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (lock) {
+					for (String IBAN : entries(IBANsByBSN, BSN)) {
+						remove(BSN, IBAN);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Updates the index once the deletion of the access of a customer to a bank account
+	 * has been committed.
+	 * @param BSN The BSN of the customer
+	 * @param IBAN The IBAN of the bank account
+	 */
+	public static void revoked(final String BSN, final String IBAN) {
+		DataManager.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (lock) {
+					remove(BSN, IBAN);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Forgets the index; it is read from the database again on next use.
+	 * Call whenever the <code>customerbankaccounts</code> table is dropped.
+	 */
+	public static void clear() {
+		synchronized (lock) {
+			IBANsByBSN.clear();
+			BSNsByIBAN.clear();
+			loaded = false;
+		}
+	}
+
+	/**
+	 * @return A copy of the entries of a key, so they can be removed while iterating
+	 */
+	private static String[] entries(ConcurrentHashMap<String, Set<String>> index, String key) {
+		Set<String> entries = index.get(key);
+		return entries == null ? new String[0] : entries.toArray(new String[entries.size()]);
+	}
+
+	private static void add(String BSN, String IBAN) {
+		BSN = BSN.intern();
+		IBAN = IBAN.intern();
+		Set<String> IBANs = IBANsByBSN.get(BSN);
+		if (IBANs == null) {
+			IBANs = ConcurrentHashMap.newKeySet();
+			IBANsByBSN.put(BSN, IBANs);
+		}
+		IBANs.add(IBAN);
+		Set<String> BSNs = BSNsByIBAN.get(IBAN);
+		if (BSNs == null) {
+			BSNs = ConcurrentHashMap.newKeySet();
+			BSNsByIBAN.put(IBAN, BSNs);
+		}
+		BSNs.add(BSN);
+	}
+
+	private static void remove(String BSN, String IBAN) {
+		Set<String> IBANs = IBANsByBSN.get(BSN);
+		if (IBANs != null) {
+			IBANs.remove(IBAN);
+			if (IBANs.isEmpty()) {
+				IBANsByBSN.remove(BSN);
+			}
+		}
+		Set<String> BSNs = BSNsByIBAN.get(IBAN);
+		if (BSNs != null) {
+			BSNs.remove(BSN);
+			if (BSNs.isEmpty()) {
+				BSNsByIBAN.remove(IBAN);
+			}
+		}
+	}
+
+	/**
+	 * Reads the access of one customer or bank account from the database, through the
+	 * connection of the transaction of the current thread if there is one.
+	 * @param statement <code>BANK_ACCOUNTS_OF_HOLDER</code> or <code>HOLDERS_OF_BANK_ACCOUNT</code>
+	 * @param key The BSN or IBAN to look up
+	 * @param column The column to collect
+	 */
+	private static Set<String> read(NamedStatement statement, String key, String column) {
+		Set<String> result = new HashSet<>();
+		Connection c = SQLiteDB.openConnection();
+		try {
+			PreparedStatement s = SQLiteDB.prepare(c, statement);
+			s.setString(1, key);
+			ResultSet rs = s.executeQuery();
+			while (rs.next()) {
+				result.add(rs.getString(column));
+			}
+			rs.close();
+			s.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			SQLiteDB.closeConnection(c);
+		}
+		return Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * Reads the whole access table, as committed. Holds the write lock, so no access can
+	 * change (and be missed) meanwhile.
+	 */
+	private static void loadIfRequired() {
+		if (loaded) {
+			return;
+		}
+		SQLiteDB.connectionLock.lock();
+		Connection c = null;
+		try {
+			if (loaded) {
+				return;
+			}
+			c = SQLiteDB.openCommittedConnection();
+			ResultSet rs = SQLiteDB.prepare(c, NamedStatement.ALL_ACCESS).executeQuery();
+			int count = 0;
+			synchronized (lock) {
+				IBANsByBSN.clear();
+				BSNsByIBAN.clear();
+				while (rs.next()) {
+					add(rs.getString("customer_BSN"), rs.getString("IBAN"));
+					count++;
+				}
+				loaded = true;
+			}
+			rs.close();
+			System.out.println("[INFO] Indexed " + count + " bank account access entries");
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			SQLiteDB.closeConnection(c);
+			SQLiteDB.connectionLock.unlock();
+		}
+	}
+}
@@ -9,6 +9,7 @@ import database.DataManager;
 
 @MappedSuperclass
 public abstract class Account implements database.DBObject {
+	private static final long serialVersionUID = 1L;
 
 	private String IBAN;
 	private float balance; 
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
 
 import javax.persistence.CascadeType;
@@ -24,6 +23,7 @@ import cards.CreditCard;
 import cards.DebitCard;
 import client.Client;
 import database.DataManager;
+import database.NamedStatement;
 import database.SQLiteDB;
 
 import java.math.BigInteger;
@@ -54,6 +54,7 @@ import server.rest.ServerModel;
 @Entity
 @Table(name = "bankaccounts")
 public class BankAccount extends Account {	
+	private static final long serialVersionUID = 1L;
 
 	public static final String CLASSNAME = "accounts.BankAccount";
 	public static final String PRIMARYKEYNAME = "IBAN";
@@ -289,8 +290,7 @@ public class BankAccount extends Account {
 		t.setPinTransaction(true);
 		t.setAmount(amount);
 		t.setDescription("Deposit from card " + cardNum);
-		t.saveToDB();
-		this.saveToDB();
+		DataManager.saveAll(t, this);
 	}
 
 	/**
@@ -326,9 +326,7 @@ public class BankAccount extends Account {
 		t.setPinTransaction(false);
 		t.setAmount(amount);
 		t.setDescription("Transfer from main account to savings account.");
-		t.saveToDB();
-		this.saveToDB();
-		savingsAccount.saveToDB();
+		DataManager.saveAll(t, this, savingsAccount);
 
 	}
 
@@ -338,23 +336,52 @@ public class BankAccount extends Account {
 	 * @param amount
 	 */
 	public void transfer(String IBAN, double amount) {
-		BankAccount destination = null;
-		if (!DataManager.isPrimaryKeyUnique(BankAccount.CLASSNAME, BankAccount.PRIMARYKEYNAME, IBAN)) {
-			try {
-				destination = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
-				boolean isChild = destination.getAccountType().equals("child");
-				if (isChild) {
-					destination.debit(amount);
-				} else {
-					destination.getSavingsAccount().debit(amount);
-				}				
-				destination.saveToDB();
-			} catch (ObjectDoesNotExistException | IllegalAmountException e) {
-				System.err.println(e.toString());
-				return;
+		BankAccount destination = (BankAccount) DataManager.find(BankAccount.CLASSNAME, IBAN).orElse(null);
+		Transaction t;
+		try {
+			t = payInterest(IBAN, destination, amount);
+		} catch (IllegalAmountException e) {
+			System.err.println(e.toString());
+			return;
+		}
+		
+		if (destination != null) {
+			DataManager.saveAll(t, destination);
+		} else {
+			t.saveToDB();
+		}
+	}
+	
+	/**
+	 * Pays interest from this (ING) account to the savings account of a bank account, or to 
+	 * the bank account itself if it is a child account, without saving anything.
+	 * @param IBAN The IBAN of the bank account
+	 * @param destination The bank account, or null if it does not exist
+	 * @param amount The interest
+	 * @return The <code>Transaction</code> to save together with the destination
+	 * @throws IllegalAmountException
+	 */
+	public Transaction payInterest(String IBAN, BankAccount destination, double amount) throws IllegalAmountException {
+		if (destination != null) {
+			boolean isChild = destination.getAccountType().equals("child");
+			if (isChild) {
+				destination.debit(amount);
+			} else {
+				destination.getSavingsAccount().debit(amount);
 			}
 		}
+		return interestTransaction(IBAN, amount);
+	}
 
+	/**
+	 * Creates the <code>Transaction</code> of an interest payment from this (ING) account to
+	 * the savings account of a bank account, without changing any balance. Like the transfer
+	 * it was split from, it does not check the amount; callers skip days without interest.
+	 * @param IBAN The IBAN of the bank account
+	 * @param amount The interest
+	 * @return The <code>Transaction</code>
+	 */
+	public Transaction interestTransaction(String IBAN, double amount) {
 		Calendar c = Calendar.getInstance();
 		// Add simulated days
 		c.add(Calendar.DATE, Client.getSimulatedDays());
@@ -368,7 +395,7 @@ public class BankAccount extends Account {
 		t.setPinTransaction(false);
 		t.setAmount(amount);
 		t.setDescription("Interest on savings account.");
-		t.saveToDB();
+		return t;
 	}
 
 	/**
@@ -407,9 +434,7 @@ public class BankAccount extends Account {
 		t.setPinTransaction(false);
 		t.setAmount(amount);
 		t.setDescription("Transfer to " + destination.getIBAN() + ".");
-		t.saveToDB();
-		this.saveToDB();
-		destination.saveToDB();
+		DataManager.saveAll(t, this, destination);
 		InterestHandler.setLowestNegativeDailyReachMapEntry(super.getIBAN(), super.getBalance());
 	}
 
@@ -440,9 +465,7 @@ public class BankAccount extends Account {
 		t.setPinTransaction(false);
 		t.setAmount(amount);
 		t.setDescription("Transfer to " + creditAccount.getIBAN() + "C for it to be able to be closed.");
-		t.saveToDB();
-		this.saveToDB();
-		creditAccount.saveToDB();
+		DataManager.saveAll(t, this, creditAccount);
 	}
 
 	/**
@@ -472,18 +495,8 @@ public class BankAccount extends Account {
 			throw new ClosedAccountTransferException();
 		}
 
-		boolean knownAccount = false;
-		BankAccount destination = null;
-
-		if (!DataManager.isPrimaryKeyUnique(BankAccount.CLASSNAME, BankAccount.PRIMARYKEYNAME, destinationIBAN)) {
-			knownAccount = true;
-			try {
-				destination = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, destinationIBAN);
-			} catch (ObjectDoesNotExistException e) {
-				System.err.println(e.toString());
-				return;
-			}
-		}
+		BankAccount destination = (BankAccount) DataManager.find(BankAccount.CLASSNAME, destinationIBAN).orElse(null);
+		boolean knownAccount = destination != null;
 
 		if (knownAccount) {
 			if (destination.isClosed()) {
@@ -508,15 +521,56 @@ public class BankAccount extends Account {
 		t.setPinTransaction(true);
 		t.setAmount(amount);
 		t.setDescription(description);
-		t.saveToDB();
-		this.saveToDB();
 		if (knownAccount) {
 			destination.debit(amount);
-			destination.saveToDB();
+			DataManager.saveAll(t, this, destination);
+		} else {
+			DataManager.saveAll(t, this);
 		}
 		InterestHandler.setLowestNegativeDailyReachMapEntry(super.getIBAN(), super.getBalance());
 	}
 
+	/**
+	 * Creates the <code>Transaction</code> of negative interest taken from this <code>BankAccount</code>
+	 * for the ING account, with the same checks as 
+	 * <code>transfer(ING_BANK_ACCOUNT_IBAN, amount, "Negative interest credit")</code>, but without
+	 * changing any balance or saving anything. The balances are changed by a <code>BulkPosting</code>
+	 * for all accounts at once.
+	 * @param amount The interest
+	 * @return The <code>Transaction</code>
+	 * @throws IllegalAmountException
+	 * @throws ExceedLimitException
+	 * @throws ClosedAccountTransferException
+	 */
+	public Transaction negativeInterestTransaction(double amount)
+			throws IllegalAmountException, ExceedLimitException, ClosedAccountTransferException {
+		if (amount <= 0) {
+			throw new IllegalAmountException(amount);
+		} else if (exceedsLimit(amount, LimitType.DEBIT_CARD_LIMIT)) {
+			throw new ExceedLimitException(amount, this, LimitType.DEBIT_CARD_LIMIT);
+		} else if (exceedsLimit(amount, LimitType.TRANSFER_LIMIT)) {
+			throw new ExceedLimitException(amount, this, LimitType.TRANSFER_LIMIT);
+		} else if (super.isClosed()) {
+			throw new ClosedAccountTransferException();
+		}
+
+		Calendar c = Calendar.getInstance();
+
+		// Add simulated days
+		c.add(Calendar.DATE, Client.getSimulatedDays());
+
+		String date = c.getTime().toString();
+		Transaction t = new Transaction();
+		t.setDateTime(date);
+		t.setDateTimeMilis(c.getTimeInMillis());
+		t.setSourceIBAN(this.getIBAN());
+		t.setDestinationIBAN(ING_BANK_ACCOUNT_IBAN);
+		t.setPinTransaction(true);
+		t.setAmount(amount);
+		t.setDescription("Negative interest credit");
+		return t;
+	}
+
 	/**
 	 * Transfers, with a PIN transaction, a specific amount of money from this
 	 * <code>BankAccount</code> to another.
@@ -557,9 +611,7 @@ public class BankAccount extends Account {
 		t.setPinTransaction(true);
 		t.setAmount(amount);
 		t.setDescription(description);
-		t.saveToDB();
-		this.saveToDB();
-		destination.saveToDB();
+		DataManager.saveAll(t, this, destination);
 		InterestHandler.setLowestNegativeDailyReachMapEntry(super.getIBAN(), super.getBalance());
 	}
 
@@ -606,9 +658,7 @@ public class BankAccount extends Account {
 		t.setPinTransaction(false);
 		t.setAmount(amount);
 		t.setDescription(description);
-		t.saveToDB();
-		this.saveToDB();
-		destination.saveToDB();
+		DataManager.saveAll(t, this, destination);
 		InterestHandler.setLowestNegativeDailyReachMapEntry(super.getIBAN(), super.getBalance());
 	}
 
@@ -638,46 +688,8 @@ public class BankAccount extends Account {
 	 * @return true if the amount exceeds the limit, false otherwise
 	 */
 	public boolean exceedsTransferLimit(double amount) {
-		double currentSum;
-		Calendar today = ServerModel.getServerCalendar();
-		Calendar firstDay = ServerModel.getServerCalendar();
-		firstDay.add(Calendar.DATE, -6);
-		firstDay.set(Calendar.HOUR_OF_DAY, 0);
-		firstDay.set(Calendar.MINUTE, 0);
-		firstDay.set(Calendar.SECOND, 0);
-		firstDay.set(Calendar.MILLISECOND, 0);
-		Connection con;
-		ResultSet result;
-		PreparedStatement statement;
-		try {
-			SQLiteDB.connectionLock.lock();
-			con = SQLiteDB.openConnection();
-			statement = con.prepareStatement("SELECT sum(amount) FROM transactions WHERE source_IBAN = '" + super.getIBAN() + 
-					"' AND date_time_milis >= " + firstDay.getTimeInMillis() + " AND date_time_milis < " + today.getTimeInMillis());
-			result = statement.executeQuery();
-			result.next();
-			if (result.getString(1) == null) {
-				currentSum = 0;
-			} else {
-				currentSum = Double.parseDouble(result.getString(1));
-			}				
-			double totalSum = currentSum + amount;
-			
-			statement.close();
-			result.close();
-			con.close();
-			
-			if (totalSum > transferLimit) {
-				return true;
-			} else {
-				return false;
-			}
-		} catch (SQLException e) {
-			e.printStackTrace();
-		} finally {
-			SQLiteDB.connectionLock.unlock();
-		}
-		return false;
+		double totalSum = TransferLimitTracker.getWeeklyTransferSum(super.getIBAN()) + amount;
+		return totalSum > transferLimit;
 	}
 
 	/**
@@ -686,41 +698,8 @@ public class BankAccount extends Account {
 	 * @return true if the amount exceeds the limit, false otherwise
 	 */
 	public boolean exceedsDebitCardLimit(double amount) {
-		double currentSum;
-		Calendar today = ServerModel.getServerCalendar();
-		String thisMonthDisplayName = today.getDisplayName(Calendar.MONTH, Calendar.SHORT_STANDALONE, Locale.UK);
-		Connection con;
-		ResultSet result;
-		PreparedStatement statement;
-		try {
-			SQLiteDB.connectionLock.lock();
-			con = SQLiteDB.openConnection();
-			statement = con.prepareStatement("SELECT sum(amount) FROM transactions WHERE source_IBAN = '" + super.getIBAN() + 
-					"' AND date_time LIKE '% " + thisMonthDisplayName + " " + today.get(Calendar.DAY_OF_MONTH) + " % " + today.get(Calendar.YEAR) + "'  AND pin_transaction = 1");
-			result = statement.executeQuery();
-			result.next();
-			if (result.getString(1) == null) {
-				currentSum = 0;
-			} else {
-				currentSum = Double.parseDouble(result.getString(1));
-			}				
-			double totalSum = currentSum + amount;
-			
-			statement.close();
-			result.close();
-			con.close();
-			
-			if (totalSum > BankSystemValue.DAILY_WITHDRAW_LIMIT.getAmount()) {
-				return true;
-			} else {
-				return false;
-			}
-		} catch (SQLException e) {
-			e.printStackTrace();
-		} finally {
-			SQLiteDB.connectionLock.unlock();
-		}
-		return false;
+		double totalSum = TransferLimitTracker.getDailyPinSum(super.getIBAN()) + amount;
+		return totalSum > BankSystemValue.DAILY_WITHDRAW_LIMIT.getAmount();
 	}
 
 	/**
@@ -854,6 +833,57 @@ public class BankAccount extends Account {
 		return result;
 	}
 
+	/**
+	 * Fetches one page of the transactions from and to this account and its savings
+	 * account, newest first. Pages are cut with a cursor instead of an offset, so a page
+	 * costs the same however far back in the history it lies.
+	 * @param beforeMillis Only transactions older than the cursor are returned; 
+	 * 		  <code>Long.MAX_VALUE</code> for the newest page
+	 * @param beforeId Breaks ties between transactions of the same moment; the ID of the
+	 * 		  last transaction of the previous page, or <code>Long.MAX_VALUE</code>
+	 * @param limit The maximum number of transactions to return
+	 * @return The transactions, newest first
+	 */
+	public List<Transaction> findTransactions(long beforeMillis, long beforeId, int limit) {
+		List<Transaction> result = new ArrayList<>();
+		String[] IBANs = {getIBAN(), getIBAN(), getIBAN() + "S", getIBAN() + "S"};
+		Connection con = null;
+		try {
+			con = SQLiteDB.openConnection();
+			PreparedStatement statement = SQLiteDB.prepare(con, NamedStatement.TRANSACTIONS_PAGE);
+			int parameter = 1;
+			for (String IBAN : IBANs) {
+				statement.setString(parameter++, IBAN);
+				statement.setLong(parameter++, beforeMillis);
+				statement.setLong(parameter++, beforeMillis);
+				statement.setLong(parameter++, beforeId);
+				statement.setInt(parameter++, limit);
+			}
+			statement.setInt(parameter, limit);
+			ResultSet rs = statement.executeQuery();
+			while (rs.next()) {
+				Transaction t = new Transaction();
+				t.setId(rs.getInt("ID"));
+				t.setSourceIBAN(rs.getString("source_IBAN"));
+				t.setDestinationIBAN(rs.getString("destination_IBAN"));
+				t.setDateTime(rs.getString("date_time"));
+				t.setDateTimeMilis(rs.getLong("date_time_milis"));
+				t.setAmount(rs.getDouble("amount"));
+				t.setDescription(rs.getString("description"));
+				t.setTargetName(rs.getString("target_name"));
+				t.setPinTransaction(rs.getBoolean("pin_transaction"));
+				result.add(t);
+			}
+			rs.close();
+			statement.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			SQLiteDB.closeConnection(con);
+		}
+		return result;
+	}
+
 	public void setOwners(Set<CustomerAccount> owners) {
 		this.owners = owners;
 	}
@@ -0,0 +1,203 @@
+package accounts;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import database.EntityCache;
+import database.NamedStatement;
+import database.SQLiteDB;
+
+/**
+ * A batch of balance changes and <code>Transactions</code> that is written to the database
+ * in one commit, bypassing Hibernate. The changes are summed per account, so an account that
+ * occurs many times in a batch is still updated once, and applied with one set-based update
+ * per account table; the <code>Transactions</code> are inserted as one JDBC batch. Changes to
+ * the ING bank account are kept apart and written once as an aggregate counter-entry, to one
+ * of its shards (see <code>HouseAccount</code>).
+ * Nothing in a batch is checked against limits or closed accounts; that is up to whoever
+ * fills it. Building a batch needs no lock, so it can be done per partition of the interest run.
+ */
+public class BulkPosting {
+
+	/**
+	 * The account tables a balance change can be posted to. The ordinal is stored in the
+	 * temporary postings table and used by the update statement of the table.
+	 */
+	public enum Ledger {
+		BANK(NamedStatement.POST_BANK_ACCOUNTS),
+		SAVINGS(NamedStatement.POST_SAVINGS_ACCOUNTS),
+		CREDIT(NamedStatement.POST_CREDIT_ACCOUNTS);
+
+		private final NamedStatement update;
+
+		Ledger(NamedStatement update) {
+			this.update = update;
+		}
+	}
+
+	private final EnumMap<Ledger, HashMap<String, Double>> changes = new EnumMap<>(Ledger.class);
+	private final List<Transaction> transactions = new ArrayList<>();
+	private double ingChange = 0;
+
+	public BulkPosting() {
+		for (Ledger ledger : Ledger.values()) {
+			changes.put(ledger, new HashMap<String, Double>());
+		}
+	}
+
+	/**
+	 * Changes the balance of an account.
+	 * @param ledger The table of the account
+	 * @param IBAN The IBAN of the account
+	 * @param amount The amount to add to the balance; negative to subtract
+	 */
+	public void change(Ledger ledger, String IBAN, double amount) {
+		if (ledger == Ledger.BANK && IBAN.equals(BankAccount.ING_BANK_ACCOUNT_IBAN)) {
+			ingChange += amount;
+			return;
+		}
+		HashMap<String, Double> ledgerChanges = changes.get(ledger);
+		Double current = ledgerChanges.get(IBAN);
+		ledgerChanges.put(IBAN, current == null ? amount : current + amount);
+	}
+
+	/**
+	 * Changes the balance of the ING bank account.
+	 * @param amount The amount to add to the balance; negative to subtract
+	 */
+	public void changeIngBalance(double amount) {
+		ingChange += amount;
+	}
+
+	/**
+	 * @param t A <code>Transaction</code> to insert with the batch
+	 */
+	public void record(Transaction t) {
+		transactions.add(t);
+	}
+
+	/**
+	 * Adds all changes and <code>Transactions</code> of another batch to this one.
+	 * @param other The batch to add
+	 */
+	public void addAll(BulkPosting other) {
+		for (Ledger ledger : Ledger.values()) {
+			for (Entry<String, Double> entry : other.changes.get(ledger).entrySet()) {
+				change(ledger, entry.getKey(), entry.getValue());
+			}
+		}
+		transactions.addAll(other.transactions);
+		ingChange += other.ingChange;
+	}
+
+	/**
+	 * @return The change of the balance of the ING bank account
+	 */
+	public double getIngChange() {
+		return ingChange;
+	}
+
+	/**
+	 * @return The number of <code>Transactions</code> in this batch
+	 */
+	public int getTransactionCount() {
+		return transactions.size();
+	}
+
+	public boolean isEmpty() {
+		if (!transactions.isEmpty() || ingChange != 0) {
+			return false;
+		}
+		for (HashMap<String, Double> ledgerChanges : changes.values()) {
+			if (!ledgerChanges.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the batch in one commit while holding the write lock. Afterwards the
+	 * <code>EntityCache</code> is cleared, since the accounts were changed behind Hibernate's
+	 * back, and the <code>TransferLimitTracker</code> is told about the new <code>Transactions</code>.
+	 * @return True if the batch was committed, false if nothing was written
+	 */
+	public boolean post() {
+		if (isEmpty()) {
+			return true;
+		}
+		boolean committed = false;
+		SQLiteDB.connectionLock.lock();
+		Connection c = SQLiteDB.openConnection();
+		try {
+			if (c == null) {
+				return false;
+			}
+			c.setAutoCommit(false);
+			// The temporary table belongs to the connection, so it has to exist before the updates are prepared
+			SQLiteDB.prepare(c, NamedStatement.CREATE_POSTINGS).executeUpdate();
+			SQLiteDB.prepare(c, NamedStatement.CLEAR_POSTINGS).executeUpdate();
+
+			PreparedStatement s = SQLiteDB.prepare(c, NamedStatement.INSERT_POSTING);
+			for (Ledger ledger : Ledger.values()) {
+				for (Entry<String, Double> entry : changes.get(ledger).entrySet()) {
+					addPosting(s, ledger, entry.getKey(), entry.getValue());
+				}
+			}
+			s.executeBatch();
+
+			for (Ledger ledger : Ledger.values()) {
+				if (!changes.get(ledger).isEmpty()) {
+					SQLiteDB.prepare(c, ledger.update).executeUpdate();
+				}
+			}
+			HouseAccount.post(c, ingChange);
+
+			if (!transactions.isEmpty()) {
+				s = SQLiteDB.prepare(c, NamedStatement.INSERT_TRANSACTION);
+				for (Transaction t : transactions) {
+					s.setString(1, t.getSourceIBAN());
+					s.setString(2, t.getDestinationIBAN());
+					s.setString(3, t.getDateTime());
+					s.setDouble(4, t.getAmount());
+					s.setString(5, t.getDescription());
+					s.setString(6, t.getTargetName());
+					s.setLong(7, t.getDateTimeMilis());
+					s.setBoolean(8, t.getPinTransaction());
+					s.addBatch();
+				}
+				s.executeBatch();
+			}
+
+			c.commit();
+			committed = true;
+			return true;
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			// Closing the connection rolls back whatever was not committed
+			SQLiteDB.closeConnection(c);
+			EntityCache.clearAfterCommit();
+			if (committed) {
+				for (Transaction t : transactions) {
+					TransferLimitTracker.saved(t);
+				}
+			}
+			SQLiteDB.connectionLock.unlock();
+		}
+	}
+
+	private static void addPosting(PreparedStatement s, Ledger ledger, String IBAN, double amount) throws SQLException {
+		s.setInt(1, ledger.ordinal());
+		s.setString(2, IBAN);
+		s.setDouble(3, amount);
+		s.addBatch();
+	}
+}
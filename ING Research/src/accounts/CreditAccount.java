@@ -29,6 +29,7 @@ import exceptions.SameAccountTransferException;
 @Entity
 @Table(name = "creditaccounts")
 public class CreditAccount extends Account {
+	private static final long serialVersionUID = 1L;
 
 	private String customerBSN;
 	private BankAccount bankAccount;
@@ -60,18 +61,8 @@ public class CreditAccount extends Account {
 			throw new ClosedAccountTransferException();
 		}
 		
-		boolean knownAccount = false;
-		BankAccount destination = null;
-		
-		if (!DataManager.isPrimaryKeyUnique(BankAccount.CLASSNAME, BankAccount.PRIMARYKEYNAME, destinationIBAN)) {
-			knownAccount = true;
-			try {
-				destination = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, destinationIBAN);
-			} catch (ObjectDoesNotExistException e) {
-				System.err.println(e.toString());
-				return;
-			}
-		}
+		BankAccount destination = (BankAccount) DataManager.find(BankAccount.CLASSNAME, destinationIBAN).orElse(null);
+		boolean knownAccount = destination != null;
 
 		if (knownAccount) {
 			if (destination.isClosed()) {
@@ -80,11 +71,9 @@ public class CreditAccount extends Account {
 				throw new SameAccountTransferException();
 			}
 			destination.debit(amount);
-			destination.saveToDB();
 		}
 		
 		this.credit(amount);
-		this.saveToDB();
 		
 		Calendar c = ServerModel.getServerCalendar();
 		String date = c.getTime().toString();
@@ -96,8 +85,11 @@ public class CreditAccount extends Account {
 		t.setPinTransaction(true);
 		t.setAmount(amount);
 		t.setDescription(description);
-		t.saveToDB();
-		this.saveToDB();
+		if (knownAccount) {
+			DataManager.saveAll(t, this, destination);
+		} else {
+			DataManager.saveAll(t, this);
+		}
 	}
 
 	public void credit(double amount) throws IllegalAmountException {
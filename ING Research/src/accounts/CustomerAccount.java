@@ -1,8 +1,8 @@
 package accounts;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -27,6 +27,8 @@ import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Restrictions;
 
 import database.DataManager;
+import database.EntityCache;
+import database.NamedStatement;
 import database.SQLiteDB;
 import server.rest.ServerModel;
 
@@ -37,6 +39,8 @@ import server.rest.ServerModel;
 @Entity
 @Table(name = "customeraccounts")
 public class CustomerAccount implements database.DBObject {
+	private static final long serialVersionUID = 1L;
+
 	private String name;
 	private String surname;
 	private String BSN;
@@ -233,13 +237,21 @@ public class CustomerAccount implements database.DBObject {
 	public void SQLdeleteFromDB() throws SQLException {
 		SQLiteDB.connectionLock.lock();
 		Connection c = SQLiteDB.openConnection();
-		Statement s = c.createStatement();
-		s.executeUpdate("DELETE FROM customeraccounts WHERE customer_BSN='" + BSN + "';");
-		s.executeUpdate("DELETE FROM customerbankaccounts WHERE customer_BSN='" + BSN + "';");
-		s.executeUpdate("DELETE FROM bankaccounts WHERE customer_BSN='" + BSN +"';" );
-		s.executeUpdate("DELETE FROM debitcards WHERE customer_BSN='" + BSN + "';");
-		c.close();
-		SQLiteDB.connectionLock.unlock();
+		try {
+			NamedStatement[] deletes = {NamedStatement.DELETE_CUSTOMER_ACCOUNT, NamedStatement.DELETE_CUSTOMER_ACCESS,
+					NamedStatement.DELETE_CUSTOMER_BANK_ACCOUNTS, NamedStatement.DELETE_CUSTOMER_DEBIT_CARDS};
+			for (NamedStatement delete : deletes) {
+				PreparedStatement s = SQLiteDB.prepare(c, delete);
+				s.setString(1, BSN);
+				s.executeUpdate();
+				s.close();
+			}
+		} finally {
+			SQLiteDB.closeConnection(c);
+			EntityCache.clearAfterCommit();
+			AccessIndex.customerRemoved(BSN);
+			SQLiteDB.connectionLock.unlock();
+		}
 	}
 
 	@Column (name = "username")
@@ -316,4 +328,4 @@ public class CustomerAccount implements database.DBObject {
 		ArrayList<CustomerAccount> target = (ArrayList<CustomerAccount>) DataManager.getObjectsFromDB(CustomerAccount.CLASSNAME, cr);
 		return target.size() != 0 ? target.get(0) : null;
 	}
-}
+}
@@ -0,0 +1,144 @@
+package accounts;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import database.DataManager;
+import database.EntityCache;
+import database.NamedStatement;
+import database.SQLiteDB;
+
+/**
+ * The balance of the ING bank account, split over its row in <code>bankaccounts</code> and a
+ * number of shards in <code>houseshards</code>. Fees, interest and other money for or from the
+ * ING account is added to a shard, picked round-robin, instead of to the row, so postings never
+ * load and rewrite the ING account itself. The balance of the account is its row plus the sum
+ * of the shards; <code>consolidate()</code> folds the shards into the row now and then, and
+ * before a loaded copy of the ING account is written, so the stale balance of the copy can never
+ * overwrite the row (see <code>DataManager.save()</code>).
+ * The number of shards can be set with the <code>house.shards</code> system property.
+ */
+public class HouseAccount {
+
+	public static final int SHARDS = Math.max(1, Integer.getInteger("house.shards", 8));
+
+	private static final AtomicInteger nextShard = new AtomicInteger();
+
+	/**
+	 * Adds an amount to one of the shards. Meant to be part of a larger unit of work, so it
+	 * does not commit and must be called while holding <code>SQLiteDB.connectionLock</code>.
+	 * @param c The connection of the unit of work; pooled or not
+	 * @param amount The amount to add; negative to subtract
+	 * @throws SQLException If the shard could not be changed
+	 */
+	public static void post(Connection c, double amount) throws SQLException {
+		if (amount == 0) {
+			return;
+		}
+		int shard = Math.floorMod(nextShard.getAndIncrement(), SHARDS);
+		PreparedStatement s = SQLiteDB.prepare(c, NamedStatement.POST_HOUSE_SHARD);
+		int rows;
+		try {
+			s.setDouble(1, amount);
+			s.setInt(2, shard);
+			rows = s.executeUpdate();
+		} finally {
+			s.close();
+		}
+		if (rows == 0) {
+			s = SQLiteDB.prepare(c, NamedStatement.INSERT_HOUSE_SHARD);
+			try {
+				s.setInt(1, shard);
+				s.setDouble(2, amount);
+				s.executeUpdate();
+			} finally {
+				s.close();
+			}
+		}
+	}
+
+	/**
+	 * @return The balance of the ING bank account: its row plus everything that is still in the shards
+	 */
+	public static double getBalance() {
+		Connection c = SQLiteDB.openConnection();
+		try {
+			PreparedStatement s = SQLiteDB.prepare(c, NamedStatement.HOUSE_BALANCE);
+			s.setString(1, BankAccount.ING_BANK_ACCOUNT_IBAN);
+			ResultSet rs = s.executeQuery();
+			return rs.next() ? rs.getDouble(1) : 0;
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return 0;
+		} finally {
+			SQLiteDB.closeConnection(c);
+		}
+	}
+
+	/**
+	 * Moves the sum of the shards to the row of the ING bank account, in one commit.
+	 */
+	public static void consolidate() {
+		SQLiteDB.connectionLock.lock();
+		Connection c = SQLiteDB.openConnection();
+		try {
+			if (c == null) {
+				return;
+			}
+			c.setAutoCommit(false);
+			consolidate(c);
+			c.commit();
+			DataManager.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					EntityCache.invalidatePrimaryKey(BankAccount.ING_BANK_ACCOUNT_IBAN);
+				}
+			});
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			// Closing the connection rolls back whatever was not committed
+			SQLiteDB.closeConnection(c);
+			SQLiteDB.connectionLock.unlock();
+		}
+	}
+
+	/**
+	 * Moves the sum of the shards to the row of the ING bank account. Meant to be part of a
+	 * larger unit of work, like <code>post()</code>.
+	 * @param c The connection of the unit of work; pooled or not
+	 * @return The balance of the row afterwards, which is then the whole balance of the ING
+	 * account, or <code>null</code> if the ING account has not been saved yet
+	 * @throws SQLException If the shards could not be moved
+	 */
+	public static Double consolidate(Connection c) throws SQLException {
+		PreparedStatement s = SQLiteDB.prepare(c, NamedStatement.CONSOLIDATE_HOUSE_SHARDS);
+		try {
+			s.setString(1, BankAccount.ING_BANK_ACCOUNT_IBAN);
+			s.executeUpdate();
+		} finally {
+			s.close();
+		}
+		s = SQLiteDB.prepare(c, NamedStatement.CLEAR_HOUSE_SHARDS);
+		int shards;
+		try {
+			shards = s.executeUpdate();
+		} finally {
+			s.close();
+		}
+		if (shards > 0) {
+			System.out.println("[INFO] Consolidated " + shards + " shard(s) of the ING account");
+		}
+		s = SQLiteDB.prepare(c, NamedStatement.HOUSE_ROW_BALANCE);
+		try {
+			s.setString(1, BankAccount.ING_BANK_ACCOUNT_IBAN);
+			ResultSet rs = s.executeQuery();
+			return rs.next() ? rs.getDouble(1) : null;
+		} finally {
+			s.close();
+		}
+	}
+}
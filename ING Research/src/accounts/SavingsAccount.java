@@ -19,6 +19,7 @@ import server.rest.ServerModel;
 @Entity
 @Table(name = "savingsaccounts")
 public class SavingsAccount extends Account {
+	private static final long serialVersionUID = 1L;
 	
 	private BankAccount bankAccount;	
 	
@@ -60,9 +61,7 @@ public class SavingsAccount extends Account {
 		t.setDestinationIBAN(bankAccount.getIBAN());
 		t.setAmount(amount);
 		t.setDescription("Transfer from savings account to main account.");
-		t.saveToDB();
-		this.saveToDB();
-		bankAccount.saveToDB();
+		DataManager.saveAll(t, this, bankAccount);
 		InterestHandler.setLowestPositiveDailyReachMapEntry(super.getIBAN(), super.getBalance());
 	}
 	
@@ -18,6 +18,8 @@ import database.DataManager;
 @Entity
 @Table(name = "transactions")
 public class Transaction implements DBObject, Comparable<Object> {
+	private static final long serialVersionUID = 1L;
+
 	private String sourceIBAN;
 	private String destinationIBAN;
 	private boolean pinTransaction;
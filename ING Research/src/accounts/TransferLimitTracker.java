@@ -0,0 +1,261 @@
+package accounts;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import database.DBObject;
+import database.DataManager;
+import database.NamedStatement;
+import database.SQLiteDB;
+import server.rest.ServerModel;
+
+/**
+ * Keeps, per source IBAN, the amounts transferred during the last seven days in memory,
+ * so the weekly transfer limit and the daily debit card limit can be checked without
+ * querying the <code>transactions</code> table. Every IBAN has a ring of seven daily
+ * buckets of cents; a bucket belongs to one (simulated) day and is emptied when the
+ * ring wraps around to a newer day.
+ * The buckets are built from the database on first use and updated by
+ * <code>DataManager</code> whenever a <code>Transaction</code> has been committed.
+ * Transactions saved in a transaction that is still running (see
+ * <code>DataManager.beginTransaction()</code>) are kept aside for its thread and only
+ * added to the buckets when it is committed; until then they count for that thread only.
+ */
+public class TransferLimitTracker {
+
+	/**
+	 * The number of days covered by the weekly transfer limit, today included.
+	 */
+	public static final int DAYS = 7;
+
+	private static final long DAY_MILLIS = 24L * 3600 * 1000;
+
+	private static final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+	private static volatile boolean loaded = false;
+
+	/**
+	 * The transactions saved in the running transaction of the current thread.
+	 */
+	private static final ThreadLocal<List<Transaction>> uncommitted = new ThreadLocal<List<Transaction>>() {
+		@Override
+		protected List<Transaction> initialValue() {
+			return new ArrayList<>();
+		}
+	};
+
+	/**
+	 * The daily buckets of one IBAN. Guarded by its own monitor.
+	 */
+	private static class Window {
+		private final long[] days = new long[DAYS];
+		private final long[] transferCents = new long[DAYS];
+		private final long[] pinCents = new long[DAYS];
+
+		private Window() {
+			for (int i = 0; i < DAYS; i++) {
+				days[i] = Long.MIN_VALUE;
+			}
+		}
+
+		private synchronized void add(long day, long cents, boolean pinTransaction) {
+			int slot = slot(day);
+			if (days[slot] != day) {
+				if (days[slot] > day) {
+					// Older than anything the ring still holds
+					return;
+				}
+				days[slot] = day;
+				transferCents[slot] = 0;
+				pinCents[slot] = 0;
+			}
+			transferCents[slot] += cents;
+			if (pinTransaction) {
+				pinCents[slot] += cents;
+			}
+		}
+
+		private synchronized long getTransferCents(long today) {
+			long sum = 0;
+			for (int i = 0; i < DAYS; i++) {
+				if (days[i] > today - DAYS && days[i] <= today) {
+					sum += transferCents[i];
+				}
+			}
+			return sum;
+		}
+
+		private synchronized long getPinCents(long today) {
+			int slot = slot(today);
+			return days[slot] == today ? pinCents[slot] : 0;
+		}
+
+		private static int slot(long day) {
+			return (int) Math.floorMod(day, (long) DAYS);
+		}
+	}
+
+	/**
+	 * @param IBAN The IBAN money is transferred from
+	 * @return The amount transferred from the IBAN today and during the previous six days
+	 */
+	public static double getWeeklyTransferSum(String IBAN) {
+		loadIfRequired();
+		long today = today();
+		Window window = windows.get(IBAN);
+		long cents = window == null ? 0 : window.getTransferCents(today);
+		for (Transaction t : uncommitted.get()) {
+			long day = day(t.getDateTimeMilis());
+			if (IBAN.equals(t.getSourceIBAN()) && day > today - DAYS && day <= today) {
+				cents += Math.round(t.getAmount() * 100);
+			}
+		}
+		return cents / 100.0;
+	}
+
+	/**
+	 * @param IBAN The IBAN money is transferred from
+	 * @return The amount transferred from the IBAN today by PIN transactions
+	 */
+	public static double getDailyPinSum(String IBAN) {
+		loadIfRequired();
+		long today = today();
+		Window window = windows.get(IBAN);
+		long cents = window == null ? 0 : window.getPinCents(today);
+		for (Transaction t : uncommitted.get()) {
+			if (IBAN.equals(t.getSourceIBAN()) && t.getPinTransaction() && day(t.getDateTimeMilis()) == today) {
+				cents += Math.round(t.getAmount() * 100);
+			}
+		}
+		return cents / 100.0;
+	}
+
+	/**
+	 * Adds a saved transaction to the buckets of its source IBAN, or, if the current thread is
+	 * in a transaction, once that is committed. Objects that are not a <code>Transaction</code>
+	 * are ignored. Must be called while holding <code>SQLiteDB.connectionLock</code>, after the
+	 * (deferred) commit.
+	 * @param o The object that was saved
+	 */
+	public static void saved(DBObject o) {
+		if (!(o instanceof Transaction)) {
+			return;
+		}
+		Transaction t = (Transaction) o;
+		if (!DataManager.isInTransaction()) {
+			committed(t);
+			return;
+		}
+		List<Transaction> transactions = uncommitted.get();
+		if (transactions.isEmpty()) {
+			DataManager.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					for (Transaction committed : uncommitted.get()) {
+						committed(committed);
+					}
+					uncommitted.remove();
+				}
+			});
+			DataManager.afterRollback(new Runnable() {
+				@Override
+				public void run() {
+					uncommitted.remove();
+				}
+			});
+		}
+		transactions.add(t);
+	}
+
+	private static void committed(Transaction t) {
+		if (!loaded) {
+			// Not loaded yet: the transaction will be read from the database instead
+			return;
+		}
+		record(t.getSourceIBAN(), t.getDateTimeMilis(), t.getAmount(), t.getPinTransaction());
+	}
+
+	/**
+	 * Forgets all buckets; they are rebuilt from the database on next use.
+	 * Call whenever transactions are removed from the database.
+	 */
+	public static void clear() {
+		SQLiteDB.connectionLock.lock();
+		try {
+			windows.clear();
+			loaded = false;
+		} finally {
+			SQLiteDB.connectionLock.unlock();
+		}
+	}
+
+	private static void record(String IBAN, long millis, double amount, boolean pinTransaction) {
+		if (IBAN == null) {
+			return;
+		}
+		Window window = windows.get(IBAN);
+		if (window == null) {
+			window = new Window();
+			Window existing = windows.putIfAbsent(IBAN, window);
+			if (existing != null) {
+				window = existing;
+			}
+		}
+		window.add(day(millis), Math.round(amount * 100), pinTransaction);
+	}
+
+	/**
+	 * Reads the committed transactions of the last seven days from the database. Holds the write
+	 * lock, so no transaction can be committed (and counted twice or not at all) meanwhile.
+	 * Call before checking limits from threads that can not take the write lock.
+	 */
+	public static void loadIfRequired() {
+		if (loaded) {
+			return;
+		}
+		SQLiteDB.connectionLock.lock();
+		Connection con = null;
+		try {
+			if (loaded) {
+				return;
+			}
+			windows.clear();
+			con = SQLiteDB.openCommittedConnection();
+			PreparedStatement statement = SQLiteDB.prepare(con, NamedStatement.OUTGOING_TRANSFERS_SINCE);
+			// A day more than needed, whatever the time zone; older days are never counted
+			statement.setLong(1, (today() - DAYS) * DAY_MILLIS);
+			ResultSet result = statement.executeQuery();
+			while (result.next()) {
+				record(result.getString(1), result.getLong(2), result.getDouble(3), result.getBoolean(4));
+			}
+			result.close();
+			statement.close();
+			loaded = true;
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			SQLiteDB.closeConnection(con);
+			SQLiteDB.connectionLock.unlock();
+		}
+	}
+
+	/**
+	 * @return The current day of the simulated server clock
+	 */
+	private static long today() {
+		return day(ServerModel.getServerCalendar().getTimeInMillis());
+	}
+
+	/**
+	 * @param millis A point in time
+	 * @return The number of the local day the point in time falls on
+	 */
+	static long day(long millis) {
+		return Math.floorDiv(millis + TimeZone.getDefault().getOffset(millis), DAY_MILLIS);
+	}
+}
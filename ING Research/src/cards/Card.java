@@ -18,6 +18,7 @@ import exceptions.SameAccountTransferException;
 
 @MappedSuperclass
 public abstract class Card implements database.DBObject {
+	private static final long serialVersionUID = 1L;
 
 	private String PIN;
 	private String cardNumber;
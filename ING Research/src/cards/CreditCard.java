@@ -18,6 +18,7 @@ import exceptions.IllegalAmountException;
 @Entity
 @Table(name = "creditcards")
 public class CreditCard extends Card implements database.DBObject {
+	private static final long serialVersionUID = 1L;
 	
 	private boolean active;
 	
@@ -29,6 +29,7 @@ import java.text.SimpleDateFormat;
 @Entity
 @Table(name = "debitcards")
 public class DebitCard extends Card {
+	private static final long serialVersionUID = 1L;
 	
 	private String expirationDate;
 	public static final String CLASSNAME = "cards.DebitCard";
@@ -19,6 +19,6 @@ public class Client {
 	}
 
 	public static int getSimulatedDays() {
-		return ServerModel.getSimulatedDaysFromFile();
+		return ServerModel.getSimulatedDays();
 	}
 }
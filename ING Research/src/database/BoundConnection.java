@@ -0,0 +1,79 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+/**
+ * A borrowed connection that is bound to a thread for a transaction that spans many operations
+ * (see <code>ConnectionPool.bindToThread()</code>). Every borrow by that thread receives a proxy
+ * of it on which transaction control is deferred: closing it, committing and switching auto-commit
+ * do nothing, and a rollback only marks the transaction, which is then rolled back as a whole
+ * when it ends. This way code that manages its own transactions, like Hibernate sessions, can
+ * take part in the bigger one without changes.
+ */
+class BoundConnection implements InvocationHandler {
+
+	private final Connection target;
+	private final Connection proxy;
+	private volatile boolean rollbackOnly = false;
+
+	BoundConnection(Connection target) {
+		this.target = target;
+		this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] {Connection.class}, this);
+	}
+
+	/**
+	 * @return The connection that is handed to the borrowers
+	 */
+	Connection getProxy() {
+		return proxy;
+	}
+
+	/**
+	 * @return The borrowed connection itself, on which the transaction is ended
+	 */
+	Connection getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return True if a borrower has rolled back, so the transaction can not be committed
+	 */
+	boolean isRollbackOnly() {
+		return rollbackOnly;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		switch (method.getName()) {
+		case "close":
+		case "commit":
+		case "setAutoCommit":
+			return null;
+		case "getAutoCommit":
+			return false;
+		case "rollback":
+			if (args == null) {
+				rollbackOnly = true;
+				return null;
+			}
+			break;
+		case "equals":
+			return proxy == args[0];
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "toString":
+			return "BoundConnection[" + target + "]";
+		}
+
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A <code>NamedStatement</code> that has been prepared on a pooled connection. Borrowers
+ * receive a proxy of the statement; closing the proxy only resets it (closes its result
+ * set and clears its parameters) so the next borrower of the connection can reuse it.
+ * Executions are timed and recorded on the <code>NamedStatement</code>.
+ */
+class CachedStatement implements InvocationHandler {
+
+	private final NamedStatement name;
+	private final PreparedStatement physical;
+	private final PreparedStatement proxy;
+	private ResultSet resultSet;
+
+	CachedStatement(NamedStatement name, PreparedStatement physical) {
+		this.name = name;
+		this.physical = physical;
+		this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+				new Class<?>[] {PreparedStatement.class}, this);
+	}
+
+	PreparedStatement getProxy() {
+		return proxy;
+	}
+
+	/**
+	 * Brings the statement back to a clean state. Closing the result set matters: an open
+	 * result set keeps a read transaction (and with it an old WAL snapshot) alive.
+	 */
+	void reset() {
+		try {
+			if (resultSet != null) {
+				resultSet.close();
+				resultSet = null;
+			}
+			physical.clearParameters();
+			physical.clearBatch();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	void closePhysical() {
+		try {
+			physical.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String methodName = method.getName();
+		switch (methodName) {
+		case "close":
+			reset();
+			return null;
+		case "equals":
+			return proxy == args[0];
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "toString":
+			return name + ": " + name.getSQL();
+		}
+
+		boolean execution = methodName.startsWith("execute");
+		if (execution && resultSet != null) {
+			resultSet.close();
+			resultSet = null;
+		}
+
+		long start = System.nanoTime();
+		Object result;
+		try {
+			result = method.invoke(physical, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		} finally {
+			if (execution) {
+				name.recordExecution(System.nanoTime() - start);
+			}
+		}
+
+		if (result instanceof ResultSet) {
+			resultSet = (ResultSet) result;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,326 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of JDBC connections to a single SQLite database. Connections are
+ * created lazily up to <code>maxSize</code>, configured once with the given pragmas
+ * and handed out as proxies that return themselves to the pool when closed.
+ * Connections that are held longer than the leak threshold are reported together
+ * with the stack trace of the code that borrowed them.
+ */
+public class ConnectionPool {
+
+	private final String url;
+	private final int maxSize;
+	private final long maxWaitMillis;
+	private final long leakThresholdMillis;
+	private final String[] pragmas;
+
+	private final LinkedBlockingQueue<PooledConnection> idle = new LinkedBlockingQueue<>();
+	private final Set<PooledConnection> active = Collections.newSetFromMap(new ConcurrentHashMap<PooledConnection, Boolean>());
+	private final AtomicInteger size = new AtomicInteger();
+	private final Timer leakDetector;
+	private volatile boolean shutdown = false;
+
+	/**
+	 * The connection of the transaction the current thread is in, if any.
+	 */
+	private final ThreadLocal<BoundConnection> bound = new ThreadLocal<>();
+
+	/*
+	 * Pool metrics.
+	 */
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicLong leakCount = new AtomicLong();
+
+	/**
+	 * Creates a new pool. No connections are opened until they are first requested.
+	 * @param url The JDBC url of the database
+	 * @param maxSize The maximum number of physical connections
+	 * @param maxWaitMillis How long a caller may wait for a free connection before failing
+	 * @param leakThresholdMillis How long a connection may be held before it is reported as leaked, 0 to disable
+	 * @param pragmas The PRAGMA statements that are executed on every new physical connection
+	 */
+	public ConnectionPool(String url, int maxSize, long maxWaitMillis, long leakThresholdMillis, String... pragmas) {
+		this.url = url;
+		this.maxSize = maxSize;
+		this.maxWaitMillis = maxWaitMillis;
+		this.leakThresholdMillis = leakThresholdMillis;
+		this.pragmas = pragmas;
+
+		if (leakThresholdMillis > 0) {
+			leakDetector = new Timer("connection-leak-detector", true);
+			long period = Math.max(1000, leakThresholdMillis / 2);
+			leakDetector.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					detectLeaks();
+				}
+			}, period, period);
+		} else {
+			leakDetector = null;
+		}
+	}
+
+	/**
+	 * Borrows a connection from the pool, opening a new one if none is idle and the pool
+	 * is not yet full. Closing the returned connection hands it back to the pool.
+	 * A thread that is in a transaction (see <code>bindToThread()</code>) gets the connection
+	 * of the transaction instead.
+	 * @return A connection to the database
+	 * @throws SQLException If no connection became available within the maximum wait time
+	 */
+	public Connection borrow() throws SQLException {
+		BoundConnection transaction = bound.get();
+		if (transaction != null) {
+			return transaction.getProxy();
+		}
+		return borrowUnbound();
+	}
+
+	/**
+	 * Borrows a connection from the pool like <code>borrow()</code>, but never the connection of
+	 * the transaction of the current thread. Reading on it shows only committed data; writing on
+	 * it while the thread is in a transaction waits for that transaction, so it must not be done.
+	 * @return A connection to the database
+	 * @throws SQLException If no connection became available within the maximum wait time
+	 */
+	public Connection borrowUnbound() throws SQLException {
+		if (shutdown) {
+			throw new SQLException("The connection pool has been shut down.");
+		}
+
+		long start = System.nanoTime();
+		PooledConnection pooled = idle.poll();
+		if (pooled == null) {
+			pooled = createIfPossible();
+		}
+		if (pooled == null) {
+			try {
+				pooled = idle.poll(maxWaitMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a database connection.");
+			}
+			if (pooled == null) {
+				timeoutCount.incrementAndGet();
+				throw new SQLException("Timed out after " + maxWaitMillis + " ms waiting for a database connection (" + this + ").");
+			}
+		}
+
+		long waited = System.nanoTime() - start;
+		borrowCount.incrementAndGet();
+		totalWaitNanos.addAndGet(waited);
+		long currentMax = maxWaitNanos.get();
+		while (waited > currentMax && !maxWaitNanos.compareAndSet(currentMax, waited)) {
+			currentMax = maxWaitNanos.get();
+		}
+
+		active.add(pooled);
+		return pooled.lease(leakThresholdMillis > 0);
+	}
+
+	/**
+	 * Starts a transaction on the current thread: until <code>unbindFromThread()</code>, every
+	 * connection the thread borrows is the same one, and commits on it are deferred until the
+	 * transaction ends. See <code>BoundConnection</code>.
+	 * @throws SQLException If the thread is in a transaction already, or no connection could be borrowed
+	 */
+	public void bindToThread() throws SQLException {
+		if (bound.get() != null) {
+			throw new SQLException("The current thread is in a transaction already.");
+		}
+		Connection c = borrow();
+		try {
+			c.setAutoCommit(false);
+		} catch (SQLException e) {
+			c.close();
+			throw e;
+		}
+		bound.set(new BoundConnection(c));
+	}
+
+	/**
+	 * @return True if the current thread is in a transaction, see <code>bindToThread()</code>
+	 */
+	public boolean isBound() {
+		return bound.get() != null;
+	}
+
+	/**
+	 * Ends the transaction of the current thread and returns its connection to the pool.
+	 * @param commit Whether to commit the transaction; it is rolled back otherwise, and also
+	 * if one of the borrowers has rolled back
+	 * @return True if the transaction was committed
+	 * @throws SQLException If the thread is not in a transaction, or the commit failed; the
+	 * transaction is rolled back then
+	 */
+	public boolean unbindFromThread(boolean commit) throws SQLException {
+		BoundConnection transaction = bound.get();
+		if (transaction == null) {
+			throw new SQLException("The current thread is not in a transaction.");
+		}
+		bound.remove();
+		Connection c = transaction.getTarget();
+		try {
+			if (commit && !transaction.isRollbackOnly()) {
+				c.commit();
+				return true;
+			}
+			c.rollback();
+			return false;
+		} finally {
+			// Returning the connection rolls back whatever was not committed
+			c.close();
+		}
+	}
+
+	/**
+	 * Opens a new physical connection if the pool has not reached its maximum size.
+	 * @return The new connection, or null if the pool is full
+	 */
+	private PooledConnection createIfPossible() throws SQLException {
+		while (true) {
+			int current = size.get();
+			if (current >= maxSize) {
+				return null;
+			}
+			if (size.compareAndSet(current, current + 1)) {
+				break;
+			}
+		}
+
+		try {
+			Connection physical = DriverManager.getConnection(url);
+			Statement s = physical.createStatement();
+			for (String pragma : pragmas) {
+				s.execute(pragma);
+			}
+			s.close();
+			return new PooledConnection(this, physical);
+		} catch (SQLException e) {
+			size.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool. Called by <code>PooledConnection</code> when the
+	 * borrower closes it. Connections that can not be reset are discarded.
+	 * @param pooled The connection being returned
+	 */
+	void release(PooledConnection pooled) {
+		if (!active.remove(pooled)) {
+			return;
+		}
+
+		if (shutdown || !pooled.reset()) {
+			discard(pooled);
+		} else {
+			idle.offer(pooled);
+		}
+	}
+
+	private void discard(PooledConnection pooled) {
+		size.decrementAndGet();
+		pooled.closePhysical();
+	}
+
+	/**
+	 * Reports every connection that has been borrowed for longer than the leak threshold.
+	 * Each lease is reported only once.
+	 */
+	private void detectLeaks() {
+		long now = System.currentTimeMillis();
+		for (PooledConnection pooled : active) {
+			if (pooled.isLeaked(now, leakThresholdMillis) && pooled.markLeakReported()) {
+				leakCount.incrementAndGet();
+				System.err.println("[WARNING] Possible connection leak: connection held for "
+						+ (now - pooled.getLeasedAt()) + " ms (" + this + ")");
+				if (pooled.getLeaseSite() != null) {
+					pooled.getLeaseSite().printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes all idle connections and stops handing out new ones. Borrowed connections
+	 * are closed as soon as they are returned.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		if (leakDetector != null) {
+			leakDetector.cancel();
+		}
+		PooledConnection pooled;
+		while ((pooled = idle.poll()) != null) {
+			discard(pooled);
+		}
+	}
+
+	public int getActiveCount() {
+		return active.size();
+	}
+
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	public int getSize() {
+		return size.get();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getBorrowCount() {
+		return borrowCount.get();
+	}
+
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	public long getLeakCount() {
+		return leakCount.get();
+	}
+
+	/**
+	 * @return The average time a borrower had to wait for a connection, in milliseconds
+	 */
+	public double getAverageWaitMillis() {
+		long borrows = borrowCount.get();
+		return borrows == 0 ? 0 : totalWaitNanos.get() / (borrows * 1000000.0);
+	}
+
+	/**
+	 * @return The longest time a borrower had to wait for a connection, in milliseconds
+	 */
+	public double getMaxWaitMillis() {
+		return maxWaitNanos.get() / 1000000.0;
+	}
+
+	public String toString() {
+		return String.format("active=%d, idle=%d, size=%d/%d, borrows=%d, avgWait=%.3fms, maxWait=%.3fms, timeouts=%d, leaks=%d",
+				getActiveCount(), getIdleCount(), getSize(), maxSize, getBorrowCount(), getAverageWaitMillis(),
+				getMaxWaitMillis(), getTimeoutCount(), getLeakCount());
+	}
+}
@@ -1,10 +1,11 @@
 package database;
 
 /**
- * A common interface for all persistent objects.
+ * A common interface for all persistent objects. They are serializable so that
+ * <code>EntityCache</code> can keep snapshots of them.
  * @author Andrei Cojocaru
  */
-public interface DBObject {
+public interface DBObject extends java.io.Serializable {
 	public String getPrimaryKeyName();
 	public Object getPrimaryKeyVal();
 	public String getClassName();
@@ -1,40 +1,60 @@
 package database;
 
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Optional;
 
 import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
 import org.hibernate.query.Query;
 
+import accounts.AccessIndex;
 import accounts.BankAccount;
 import accounts.CreditAccount;
 import accounts.CustomerAccount;
+import accounts.HouseAccount;
 import accounts.SavingsAccount;
+import accounts.TransferLimitTracker;
 import cards.Card;
 import cards.CreditCard;
 import cards.DebitCard;
 import exceptions.ObjectDoesNotExistException;
 import logging.Logger;
+import server.rest.EventScheduler;
 import server.rest.TimeEvent;
 
 /**
  * Provides utility methods to store/retrieve objects from DB
- * easily via the Hibernate ORM.
+ * easily via the Hibernate ORM. Reads run concurrently on their own sessions
+ * (SQLite in WAL mode allows readers next to a writer); writes are serialized
+ * through <code>SQLiteDB.connectionLock</code>.
  * @author Andrei Cojocaru
  */
 public class DataManager {
 	public static final String CFGPATH = "hibernate.cfg.xml";
 	private static Configuration cfg;
-	private static SessionFactory factory;
-	private static boolean initialized = false;
+	private static volatile SessionFactory factory;
+	private static volatile boolean initialized = false;
+
+	/**
+	 * The side effects of the transaction of the current thread, see <code>afterCommit()</code>.
+	 * Null while the thread is not in a transaction.
+	 */
+	private static final ThreadLocal<List<Runnable>> commitEffects = new ThreadLocal<>();
+	private static final ThreadLocal<List<Runnable>> rollbackEffects = new ThreadLocal<>();
 
 	/**
 	 * Initializes hibernate configuration and database connection.
@@ -43,6 +63,8 @@ public class DataManager {
     	SQLiteDB.initializeDB();
     	cfg = new Configuration();
     	cfg.configure(CFGPATH);
+    	// Share the pooled, WAL-configured connections of SQLiteDB with Hibernate
+    	cfg.setProperty(AvailableSettings.CONNECTION_PROVIDER, SQLiteConnectionProvider.class.getName());
     	cfg.addAnnotatedClass(DebitCard.class);
     	cfg.addAnnotatedClass(CreditCard.class);
     	cfg.addAnnotatedClass(Card.class);
@@ -54,34 +76,58 @@ public class DataManager {
     	cfg.addAnnotatedClass(logging.Log.class);
     	cfg.addAnnotatedClass(server.rest.TimeEvent.class);
     	factory = cfg.buildSessionFactory();
+    	// Indexes and other schema changes, applied once Hibernate has created its tables
+    	SQLiteDB.migrateSchema();
     }
     
     /**
      * Initializes hibernate configuration and DB connection if
      * they are not already initialized. Sets up ING bank account in the database
      * for further use by the program. Resets the account on every server startup.
+     * Code that writes to the Hibernate-created tables without going through this class
+     * must call this first.
      */
-	private static synchronized void initIfRequired() {
-		if (!initialized) {
-    		init();
-    		initialized = true;
-    	}	
+	public static void initIfRequired() {
+		if (initialized) {
+			return;
+		}
+		synchronized (DataManager.class) {
+			if (!initialized) {
+	    		init();
+	    		initialized = true;
+	    	}
+		}
 	}
     
     /**
-     * Remove a persistent object from the database.
+     * Remove a persistent object from the database. The in-memory copies are only updated
+     * once the delete has been committed; a delete that fails leaves them as they are.
      * @param o The object to be removed
      */
-    public static synchronized void removeEntryFromDB(DBObject o) {
+    public static void removeEntryFromDB(final DBObject o) {
     	initIfRequired();
     	
+    	SQLiteDB.connectionLock.lock();
     	Session session = factory.openSession();
-    	Transaction t = session.beginTransaction();
-    	String HQL = "delete " + o.getClassName() + " where " + o.getPrimaryKeyName() + " = '" + o.getPrimaryKeyVal() + "'";
-    	Query<?> query = session.createQuery(HQL);
-    	query.executeUpdate();
-    	t.commit();
-    	session.close();
+    	try {
+	    	Transaction t = session.beginTransaction();
+	    	String HQL = "delete " + o.getClassName() + " where " + o.getPrimaryKeyName() + " = '" + o.getPrimaryKeyVal() + "'";
+	    	Query<?> query = session.createQuery(HQL);
+	    	query.executeUpdate();
+	    	t.commit();
+	    	afterCommit(new Runnable() {
+	    		@Override
+	    		public void run() {
+	    			// The delete is polymorphic for accounts, so drop every type sharing the key
+	    			EntityCache.invalidate(o);
+	    			EntityCache.invalidatePrimaryKey(o.getPrimaryKeyVal());
+	    		}
+	    	});
+	    	AccessIndex.removed(o);
+    	} finally {
+    		session.close();
+    		SQLiteDB.connectionLock.unlock();
+    	}
     }
     
     /**
@@ -90,33 +136,176 @@ public class DataManager {
      * @return True or false, depending on whether or not the object is found
      */
     @SuppressWarnings("deprecation")
-	public static synchronized boolean objectExists(DBObject o) {
+	public static boolean objectExists(DBObject o) {
     	initIfRequired();
     	
     	Session session = factory.openSession();
-    	Criteria cr = session.createCriteria(o.getClassName());
-    	cr.add(Restrictions.eq(o.getPrimaryKeyName(), o.getPrimaryKeyVal()));
-    	if (cr.list().size() != 0) {
+    	try {
+	    	Criteria cr = session.createCriteria(o.getClassName());
+	    	cr.add(Restrictions.eq(o.getPrimaryKeyName(), o.getPrimaryKeyVal()));
+	    	return cr.list().size() != 0;
+    	} finally {
     		session.close();
-    		return true;
     	}
-    	session.close();
-    	return false;
     }
     
     /**
      * Saves a given object to database. If the object exists in the DB, its entry
-     * is updated. If the object does not exist in the DB, it is added.
+     * is updated. If the object does not exist in the DB, it is added. A copy of the ING bank
+     * account is brought up to date first, see <code>syncHouseAccount()</code>.
      * @param o The object to save
      */
-	public static synchronized void save(DBObject o) {
+	public static void save(DBObject o) {
+		initIfRequired();
+		
+		SQLiteDB.connectionLock.lock();
+		Session session = factory.openSession();
+		try {
+			Transaction t = session.beginTransaction();
+			syncHouseAccount(session, o);
+			session.saveOrUpdate(o);
+			t.commit();
+			saved(o, false);
+		} catch (RuntimeException e) {
+			EntityCache.invalidate(o);
+			throw e;
+		} finally {
+			session.close();
+			SQLiteDB.connectionLock.unlock();
+		}
+	}
+    
+	/**
+	 * Saves several objects as one unit of work: all of them are written in a single
+	 * session and committed together, or none of them is written at all. Used for
+	 * transfers, where the <code>Transaction</code> and the balances of both accounts
+	 * must change together.
+	 * The ING bank account is never written here: the amounts of <code>Transactions</code> to
+	 * and from it are posted to one of its shards in the same unit of work instead (see 
+	 * <code>HouseAccount</code>), and its cached copy is dropped.
+	 * @param objects The objects to save, in the order in which they should be written
+	 */
+	public static void saveAll(DBObject... objects) {
 		initIfRequired();
 		
+		final double houseChange = getHouseChange(objects);
+		SQLiteDB.connectionLock.lock();
 		Session session = factory.openSession();
-		Transaction t = session.beginTransaction();
-		session.saveOrUpdate(o);
-		t.commit();
-		session.close();
+		Transaction t = null;
+		try {
+			t = session.beginTransaction();
+			for (DBObject o : objects) {
+				if (!isHouseAccount(o)) {
+					// The ING customer writes the ING account along with it
+					syncHouseAccount(session, o);
+					session.saveOrUpdate(o);
+				}
+			}
+			if (houseChange != 0) {
+				session.doWork(new Work() {
+					@Override
+					public void execute(Connection connection) throws SQLException {
+						HouseAccount.post(connection, houseChange);
+					}
+				});
+			}
+			t.commit();
+			for (DBObject o : objects) {
+				saved(o, isHouseAccount(o));
+			}
+		} catch (RuntimeException e) {
+			if (t != null && t.isActive()) {
+				t.rollback();
+			}
+			for (DBObject o : objects) {
+				EntityCache.invalidate(o);
+			}
+			throw e;
+		} finally {
+			session.close();
+			SQLiteDB.connectionLock.unlock();
+		}
+	}
+    
+	/**
+	 * Updates the in-memory copies of the database after an object has been written. In a
+	 * transaction, the cached copy is dropped once the transaction has been committed rather
+	 * than replaced, since the object may still change before then.
+	 * @param o The written object
+	 * @param invalidate Whether to drop the cached copy instead of replacing it
+	 */
+	private static void saved(final DBObject o, boolean invalidate) {
+		if (isInTransaction()) {
+			afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					EntityCache.invalidate(o);
+				}
+			});
+		} else if (invalidate) {
+			EntityCache.invalidate(o);
+		} else {
+			EntityCache.saved(o);
+		}
+		// These defer changes of a transaction themselves
+		TransferLimitTracker.saved(o);
+		AccessIndex.saved(o);
+	}
+    
+	/**
+	 * @return The amount the given objects move to (positive) or from (negative) the ING bank account
+	 */
+	private static double getHouseChange(DBObject... objects) {
+		double change = 0;
+		for (DBObject o : objects) {
+			if (o instanceof accounts.Transaction) {
+				accounts.Transaction transaction = (accounts.Transaction) o;
+				if (BankAccount.ING_BANK_ACCOUNT_IBAN.equals(transaction.getDestinationIBAN())) {
+					change += transaction.getAmount();
+				} else if (BankAccount.ING_BANK_ACCOUNT_IBAN.equals(transaction.getSourceIBAN())) {
+					change -= transaction.getAmount();
+				}
+			}
+		}
+		return change;
+	}
+	
+	private static boolean isHouseAccount(DBObject o) {
+		return o instanceof BankAccount && BankAccount.ING_BANK_ACCOUNT_IBAN.equals(((BankAccount) o).getIBAN());
+	}
+	
+	/**
+	 * The balance of a loaded copy of the ING bank account misses what was posted to its shards
+	 * since (see <code>HouseAccount</code>). Before such a copy is written, directly or along with
+	 * a customer that holds it, the shards are folded into the row in the same unit of work and
+	 * the copy takes the balance of the row, so writing it changes nothing.
+	 * @param session The session that is about to write the object
+	 * @param o The object to write
+	 */
+	private static void syncHouseAccount(Session session, DBObject o) {
+		BankAccount found = null;
+		if (isHouseAccount(o)) {
+			found = (BankAccount) o;
+		} else if (o instanceof CustomerAccount) {
+			for (BankAccount bankAccount : ((CustomerAccount) o).getBankAccounts()) {
+				if (isHouseAccount(bankAccount)) {
+					found = bankAccount;
+				}
+			}
+		}
+		if (found == null) {
+			return;
+		}
+		final BankAccount house = found;
+		session.doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				Double balance = HouseAccount.consolidate(connection);
+				if (balance != null) {
+					house.setBalance(balance.floatValue());
+				}
+			}
+		});
 	}
     
 	/**
@@ -126,17 +315,19 @@ public class DataManager {
 	 * @return A List of all objects meeting the given criteria
 	 */
     @SuppressWarnings("deprecation")
-	public static synchronized List<?> getObjectsFromDB(String className, ArrayList<Criterion> criteria) {
+	public static List<?> getObjectsFromDB(String className, ArrayList<Criterion> criteria) {
     	initIfRequired();
     	
     	Session session = factory.openSession();
-    	Criteria cr = session.createCriteria(className);
-    	for (Criterion c : criteria) {
-    		cr.add(c);
+    	try {
+	    	Criteria cr = session.createCriteria(className);
+	    	for (Criterion c : criteria) {
+	    		cr.add(c);
+	    	}
+	    	return cr.list();
+    	} finally {
+    		session.close();
     	}
-    	List<?> results = cr.list();
-    	session.close();
-    	return results;
     }
     
     /**
@@ -145,37 +336,116 @@ public class DataManager {
      * @return A List of all objects of the given type
      */
     @SuppressWarnings("deprecation")
-	public static synchronized List<?> getObjectsFromDB(String className) {
+	public static List<?> getObjectsFromDB(String className) {
     	initIfRequired();
     	
     	Session session = factory.openSession();
-    	Criteria cr = session.createCriteria(className);
-    	List<?> results = cr.list();
-    	session.close();
-    	return results;
+    	try {
+	    	Criteria cr = session.createCriteria(className);
+	    	return cr.list();
+    	} finally {
+    		session.close();
+    	}
     }
     
     /**
-     * Finds a persistent object in the database by primary key.
+     * Finds a persistent object by primary key. Accounts and cards are served from the
+     * <code>EntityCache</code> when possible.
      * @param className The name of the type of object being queried
      * @param primaryKey The primary key of the desired object
      * @return The object with the given primary key, if found
      * @throws ObjectDoesNotExistException 
      */
-    @SuppressWarnings("deprecation")
-	public static synchronized Object getObjectByPrimaryKey(String className, Object primaryKey) throws ObjectDoesNotExistException {
+	public static Object getObjectByPrimaryKey(String className, Object primaryKey) throws ObjectDoesNotExistException {
+    	Optional<Object> result = find(className, primaryKey);
+    	if (!result.isPresent()) {
+    		throw new ObjectDoesNotExistException(className, primaryKey.toString());
+    	}
+    	return result.get();
+    }
+    
+    /**
+     * Finds a persistent object by primary key in a single lookup. Accounts and cards are 
+     * served from the <code>EntityCache</code> when possible, except in a transaction, which
+     * must see its own uncommitted writes. Use this instead of checking 
+     * <code>isPrimaryKeyUnique</code> before calling <code>getObjectByPrimaryKey</code>.
+     * @param className The name of the type of object being queried
+     * @param primaryKey The primary key of the desired object
+     * @return The object with the given primary key, or an empty <code>Optional</code> if it does not exist
+     */
+    @SuppressWarnings("unchecked")
+	public static <T> Optional<T> find(String className, Object primaryKey) {
     	initIfRequired();
     	
+    	boolean cacheable = EntityCache.isCacheable(className) && !isInTransaction();
+    	if (cacheable) {
+    		Object cached = EntityCache.get(className, primaryKey);
+    		if (cached != null) {
+    			return Optional.of((T) cached);
+    		}
+    	}
+    	
+    	long stamp = EntityCache.stamp();
+    	Object result;
     	Session session = factory.openSession();
-    	Criteria cr = session.createCriteria(className);
-    	Criterion c = Restrictions.idEq(primaryKey);
-    	cr.add(c);
-    	List<?> results = cr.list();
-    	session.close();
-    	if (results.size() == 0) {
-    		throw new ObjectDoesNotExistException(className, primaryKey.toString());
+    	try {
+    		result = session.get(className, (Serializable) primaryKey);
+    	} finally {
+    		session.close();
     	}
-    	return results.get(0);
+    	if (result != null && cacheable) {
+    		EntityCache.putIfUnchanged(className, primaryKey, result, stamp);
+    	}
+    	return Optional.ofNullable((T) result);
+    }
+    
+    /**
+     * Finds several persistent objects of the same type by primary key. Objects that are 
+     * not cached are loaded together in one session and one query.
+     * @param className The name of the type of object being queried
+     * @param primaryKeys The primary keys of the desired objects
+     * @return The objects in the same order as <code>primaryKeys</code>, with null for every
+     * 		   primary key that does not exist
+     */
+    @SuppressWarnings("unchecked")
+	public static <T> List<T> findAll(String className, List<? extends Serializable> primaryKeys) {
+    	initIfRequired();
+    	
+    	boolean cacheable = EntityCache.isCacheable(className) && !isInTransaction();
+    	List<T> results = new ArrayList<>(primaryKeys.size());
+    	// The position of every missing key in the list to load, so large lists stay linear
+    	HashMap<Serializable, Integer> missingIndex = new HashMap<>();
+    	List<Serializable> missing = new ArrayList<>();
+    	for (Serializable primaryKey : primaryKeys) {
+    		Object cached = cacheable ? EntityCache.get(className, primaryKey) : null;
+    		results.add((T) cached);
+    		if (cached == null && !missingIndex.containsKey(primaryKey)) {
+    			missingIndex.put(primaryKey, missing.size());
+    			missing.add(primaryKey);
+    		}
+    	}
+    	if (missing.isEmpty()) {
+    		return results;
+    	}
+    	
+    	long stamp = EntityCache.stamp();
+    	List<?> loaded;
+    	Session session = factory.openSession();
+    	try {
+    		loaded = session.byMultipleIds(className).multiLoad(missing);
+    	} finally {
+    		session.close();
+    	}
+    	for (int i = 0; i < primaryKeys.size(); i++) {
+    		if (results.get(i) == null) {
+    			Object o = loaded.get(missingIndex.get(primaryKeys.get(i)));
+    			results.set(i, (T) o);
+    			if (o != null && cacheable) {
+    				EntityCache.putIfUnchanged(className, primaryKeys.get(i), o, stamp);
+    			}
+    		}
+    	}
+    	return results;
     }
     
     /**
@@ -187,37 +457,146 @@ public class DataManager {
      * @return True or false, depending on whether or not the primary key is in use
      */
     @SuppressWarnings("deprecation")
-	public static synchronized boolean isPrimaryKeyUnique(String className, String primaryKeyName, String primaryKey) {
+	public static boolean isPrimaryKeyUnique(String className, String primaryKeyName, String primaryKey) {
     	initIfRequired();
     	
     	Session session = factory.openSession();
-    	Criteria cr = session.createCriteria(className);
-    	cr.add(Restrictions.eq(primaryKeyName, primaryKey));
-    	List<?> results = cr.list();
-    	if (results.size() != 0) {
+    	try {
+	    	Criteria cr = session.createCriteria(className);
+	    	cr.add(Restrictions.eq(primaryKeyName, primaryKey));
+	    	return cr.list().size() == 0;
+    	} finally {
     		session.close();
-    		return false;
     	}
-    	session.close();
-    	return true;
     }
 
-	public static synchronized void wipeAllData() {
+	/**
+	 * Starts a unit of work on the current thread. Until <code>endTransaction()</code>, everything
+	 * the thread reads and writes, through Hibernate or with plain SQL, is done on one connection
+	 * in one database transaction, so it sees its own writes and they are committed together, or
+	 * not at all. The write lock is held throughout, so a unit of work should be short; it must
+	 * be ended in a finally block.
+	 * Changes of the in-memory copies of the database, like the <code>EntityCache</code>, are
+	 * queued with <code>afterCommit()</code> meanwhile, so other threads never see changes that
+	 * may still be rolled back. Reads of the transaction bypass the <code>EntityCache</code>.
+	 */
+	public static void beginTransaction() {
 		initIfRequired();
+		SQLiteDB.connectionLock.lock();
+		try {
+			SQLiteDB.getConnectionPool().bindToThread();
+		} catch (SQLException e) {
+			SQLiteDB.connectionLock.unlock();
+			throw new IllegalStateException("Could not start a transaction", e);
+		}
+		commitEffects.set(new ArrayList<Runnable>());
+		rollbackEffects.set(new ArrayList<Runnable>());
+	}
+
+	/**
+	 * @return True if the current thread is in a transaction, see <code>beginTransaction()</code>
+	 */
+	public static boolean isInTransaction() {
+		return commitEffects.get() != null;
+	}
+
+	/**
+	 * Runs a side effect of a write once the write is committed: right away, or, if the current
+	 * thread is in a transaction, when that transaction is committed. The effect is dropped if
+	 * the transaction is rolled back. Effects run in the order in which they were queued, while
+	 * the write lock is held.
+	 * @param effect The side effect, e.g. an update of an in-memory index
+	 */
+	public static void afterCommit(Runnable effect) {
+		List<Runnable> effects = commitEffects.get();
+		if (effects == null) {
+			effect.run();
+		} else {
+			effects.add(effect);
+		}
+	}
+
+	/**
+	 * Undoes a side effect of the transaction of the current thread if the transaction is
+	 * rolled back, like a session that was started in it. Does nothing outside a transaction.
+	 * @param undo Undoes the side effect
+	 */
+	public static void afterRollback(Runnable undo) {
+		List<Runnable> undos = rollbackEffects.get();
+		if (undos != null) {
+			undos.add(undo);
+		}
+	}
+	
+	/**
+	 * Ends the unit of work of the current thread, see <code>beginTransaction()</code>.
+	 * @param commit Whether to commit the work; false rolls it back
+	 * @return True if the work was committed, false if it was rolled back
+	 */
+	public static boolean endTransaction(boolean commit) {
+		List<Runnable> onCommit = commitEffects.get();
+		List<Runnable> onRollback = rollbackEffects.get();
+		// Effects that are queued from here on run right away
+		commitEffects.remove();
+		rollbackEffects.remove();
+		boolean committed = false;
+		try {
+			committed = SQLiteDB.getConnectionPool().unbindFromThread(commit);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				runEffects(committed ? onCommit : onRollback);
+			} finally {
+				SQLiteDB.connectionLock.unlock();
+			}
+		}
+		return committed;
+	}
+
+	/**
+	 * Runs the side effects of a transaction; one that fails does not keep the others from running.
+	 */
+	private static void runEffects(List<Runnable> effects) {
+		if (effects == null) {
+			return;
+		}
+		for (Runnable effect : effects) {
+			try {
+				effect.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public static void wipeAllData() {
+		initIfRequired();
+		SQLiteDB.connectionLock.lock();
 		Session session = factory.openSession();
-		Transaction t = session.beginTransaction();
-		session.createNativeQuery("DROP TABLE customeraccounts").executeUpdate();
-		session.createNativeQuery("DROP TABLE bankaccounts").executeUpdate();
-		session.createNativeQuery("DROP TABLE customerbankaccounts").executeUpdate();
-		session.createNativeQuery("DROP TABLE debitcards").executeUpdate();
-		session.createNativeQuery("DROP TABLE creditcards").executeUpdate();
-		session.createNativeQuery("DROP TABLE transactions").executeUpdate();
-		session.createNativeQuery("DROP TABLE savingsaccounts").executeUpdate();
-		session.createNativeQuery("DROP TABLE creditaccounts").executeUpdate();
-		session.createNativeQuery("DROP TABLE logs").executeUpdate();
-		session.createNativeQuery("DROP TABLE timeevents").executeUpdate();
-		t.commit();
-		session.close();
+		try {
+			Transaction t = session.beginTransaction();
+			session.createNativeQuery("DROP TABLE customeraccounts").executeUpdate();
+			session.createNativeQuery("DROP TABLE bankaccounts").executeUpdate();
+			session.createNativeQuery("DROP TABLE customerbankaccounts").executeUpdate();
+			session.createNativeQuery("DROP TABLE debitcards").executeUpdate();
+			session.createNativeQuery("DROP TABLE creditcards").executeUpdate();
+			session.createNativeQuery("DROP TABLE transactions").executeUpdate();
+			session.createNativeQuery("DROP TABLE savingsaccounts").executeUpdate();
+			session.createNativeQuery("DROP TABLE creditaccounts").executeUpdate();
+			session.createNativeQuery("DROP TABLE logs").executeUpdate();
+			session.createNativeQuery("DROP TABLE timeevents").executeUpdate();
+			session.createNativeQuery("DROP TABLE schema_version").executeUpdate();
+			session.createNativeQuery("DROP TABLE IF EXISTS houseshards").executeUpdate();
+			t.commit();
+		} finally {
+			session.close();
+			EntityCache.clear();
+			TransferLimitTracker.clear();
+			AccessIndex.clear();
+			EventScheduler.clear();
+			SQLiteDB.connectionLock.unlock();
+		}
 		init();
 		
 		BankAccount.setUpINGaccount();
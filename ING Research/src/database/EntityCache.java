@@ -0,0 +1,414 @@
+package database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.proxy.HibernateProxy;
+
+import accounts.BankAccount;
+import accounts.CreditAccount;
+import accounts.CustomerAccount;
+import accounts.SavingsAccount;
+import cards.CreditCard;
+import cards.DebitCard;
+
+/**
+ * A bounded, least-recently-used cache of the account and card entities, keyed by
+ * entity name and primary key. <code>DataManager</code> reads through it on primary
+ * key lookups and writes through it after saves have been committed, so the cache never
+ * holds an entity that differs from what was last written through <code>DataManager</code>.
+ * Writes that bypass <code>DataManager</code> (raw SQL) must call <code>clear()</code>.
+ * An entity is kept as a serialized snapshot, together with the entities it embeds, and every
+ * <code>get()</code> returns a detached copy of its own. Callers may change what they get, e.g.
+ * the balances of a transfer that is not committed yet, without other threads seeing it, and
+ * may save it again, so a shared immutable copy would not do. Reading a copy takes about a
+ * tenth of a millisecond, against several milliseconds to load the entity from the database.
+ * The cache remembers which cached entities each snapshot embeds, at any depth, so that a
+ * change of an entity also drops every snapshot holding a copy of it.
+ */
+public class EntityCache {
+
+	/**
+	 * The maximum number of cached entities. The least recently used entity is evicted first.
+	 */
+	public static final int MAX_SIZE = 10000;
+
+	/**
+	 * The entity types that are cached. Other types always go to the database.
+	 */
+	private static final String[] CACHEABLE = {
+			BankAccount.CLASSNAME,
+			CustomerAccount.CLASSNAME,
+			SavingsAccount.CLASSNAME,
+			CreditAccount.CLASSNAME,
+			DebitCard.CLASSNAME,
+			CreditCard.CLASSNAME
+	};
+
+	private static final LinkedHashMap<String, Snapshot> entries = new LinkedHashMap<String, Snapshot>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+			if (size() > MAX_SIZE) {
+				evictions.incrementAndGet();
+				unlink(eldest.getKey(), eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * For every cached entity, the keys of the cached snapshots that embed a copy of it.
+	 */
+	private static final HashMap<String, Set<String>> embeddedIn = new HashMap<>();
+
+	/**
+	 * Incremented on every change to the cache, so that a read-through load that raced
+	 * with a write does not put the stale entity it loaded into the cache.
+	 */
+	private static long generation = 0;
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param className The entity name, e.g. <code>BankAccount.CLASSNAME</code>
+	 * @return True if entities of the given type are cached
+	 */
+	public static boolean isCacheable(String className) {
+		for (String cacheable : CACHEABLE) {
+			if (cacheable.equals(className)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Looks up a cached entity and records the hit or miss.
+	 * @param className The entity name
+	 * @param primaryKey The primary key of the entity
+	 * @return A new copy of the cached entity, or null if it is not cached
+	 */
+	public static Object get(String className, Object primaryKey) {
+		Snapshot snapshot;
+		synchronized (EntityCache.class) {
+			snapshot = entries.get(key(className, primaryKey));
+		}
+		Object o = snapshot == null ? null : copyOf(snapshot.bytes);
+		if (o == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return o;
+	}
+
+	/**
+	 * @return A stamp to pass to <code>putIfUnchanged()</code> after loading an entity
+	 */
+	public static synchronized long stamp() {
+		return generation;
+	}
+
+	/**
+	 * Caches an entity that was loaded from the database, unless the cache was changed
+	 * since the given stamp was taken (in which case the loaded entity may be stale).
+	 * @param className The entity name
+	 * @param primaryKey The primary key of the entity
+	 * @param o The loaded entity
+	 * @param stamp The result of <code>stamp()</code> taken before the entity was loaded
+	 */
+	public static void putIfUnchanged(String className, Object primaryKey, Object o, long stamp) {
+		if (!isCacheable(className)) {
+			return;
+		}
+		String key = key(className, primaryKey);
+		Snapshot snapshot = snapshotOf(key, o);
+		synchronized (EntityCache.class) {
+			if (stamp == generation && snapshot != null) {
+				put(key, snapshot);
+			}
+		}
+	}
+
+	/**
+	 * Updates the cache after an entity has been written to the database. A snapshot of the
+	 * entity is cached; the entities it is related to and the snapshots that embed a copy of
+	 * any of them are invalidated.
+	 * @param o The entity that was saved
+	 */
+	public static void saved(Object o) {
+		String className = entityName(o);
+		String key = key(className, ((DBObject) o).getPrimaryKeyVal());
+		Snapshot snapshot = null;
+		if (isCacheable(className) && !(o instanceof HibernateProxy)) {
+			snapshot = snapshotOf(key, o);
+		}
+		synchronized (EntityCache.class) {
+			generation++;
+			invalidateRelated(o);
+			remove(key);
+			if (snapshot != null) {
+				put(key, snapshot);
+			}
+		}
+	}
+
+	/**
+	 * Removes an entity, the entities it is related to and the snapshots that embed a copy of
+	 * any of them from the cache.
+	 * @param o The entity that was changed or removed
+	 */
+	public static synchronized void invalidate(Object o) {
+		generation++;
+		invalidateRelated(o);
+		remove(key(entityName(o), ((DBObject) o).getPrimaryKeyVal()));
+	}
+
+	/**
+	 * Removes every entity with the given primary key, regardless of its type. Used when
+	 * a delete may have matched several entity types (e.g. an IBAN shared by a bank
+	 * account and its savings account).
+	 * @param primaryKey The primary key
+	 */
+	public static synchronized void invalidatePrimaryKey(Object primaryKey) {
+		generation++;
+		String suffix = "#" + primaryKey;
+		List<String> keys = new ArrayList<>();
+		for (String key : entries.keySet()) {
+			if (key.endsWith(suffix)) {
+				keys.add(key);
+			}
+		}
+		for (String key : keys) {
+			remove(key);
+		}
+	}
+
+	/**
+	 * Empties the cache. Must be called after writes that bypass <code>DataManager</code>,
+	 * through <code>clearAfterCommit()</code> if the write may be part of a transaction.
+	 */
+	public static synchronized void clear() {
+		generation++;
+		entries.clear();
+		embeddedIn.clear();
+	}
+
+	/**
+	 * Empties the cache once the current write is committed, see <code>DataManager.afterCommit()</code>.
+	 */
+	public static void clearAfterCommit() {
+		DataManager.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				clear();
+			}
+		});
+	}
+
+	/**
+	 * Removes the entities that a change of the given entity changes as well (owners of a bank
+	 * account, bank accounts of a customer, the bank account of a savings or credit account), as
+	 * they may not be embedded in its cached snapshot yet.
+	 */
+	private static void invalidateRelated(Object o) {
+		if (o instanceof HibernateProxy) {
+			return;
+		}
+		if (o instanceof BankAccount) {
+			BankAccount bAcc = (BankAccount) o;
+			for (CustomerAccount owner : bAcc.getOwners()) {
+				remove(key(CustomerAccount.CLASSNAME, owner.getBSN()));
+			}
+			remove(key(SavingsAccount.CLASSNAME, bAcc.getIBAN()));
+			remove(key(CreditAccount.CLASSNAME, bAcc.getIBAN()));
+		} else if (o instanceof CustomerAccount) {
+			for (BankAccount bAcc : ((CustomerAccount) o).getBankAccounts()) {
+				remove(key(BankAccount.CLASSNAME, bAcc.getIBAN()));
+			}
+		} else if (o instanceof SavingsAccount || o instanceof CreditAccount) {
+			remove(key(BankAccount.CLASSNAME, ((DBObject) o).getPrimaryKeyVal()));
+		}
+	}
+
+	/**
+	 * Removes an entity and every snapshot that embeds a copy of it. As a snapshot records the
+	 * entities it embeds at any depth, this also covers the snapshots that embed it indirectly.
+	 */
+	private static void remove(String key) {
+		Snapshot snapshot = entries.remove(key);
+		if (snapshot != null) {
+			unlink(key, snapshot);
+		}
+		Set<String> embedding = embeddedIn.remove(key);
+		if (embedding != null) {
+			for (String other : embedding) {
+				Snapshot removed = entries.remove(other);
+				if (removed != null) {
+					unlink(other, removed);
+				}
+			}
+		}
+	}
+
+	private static void put(String key, Snapshot snapshot) {
+		Snapshot old = entries.put(key, snapshot);
+		if (old != null) {
+			unlink(key, old);
+		}
+		for (String embedded : snapshot.embeds) {
+			Set<String> embedding = embeddedIn.get(embedded);
+			if (embedding == null) {
+				embedding = new HashSet<>();
+				embeddedIn.put(embedded, embedding);
+			}
+			embedding.add(key);
+		}
+	}
+
+	/**
+	 * Forgets which entities a removed snapshot embedded.
+	 */
+	private static void unlink(String key, Snapshot snapshot) {
+		for (String embedded : snapshot.embeds) {
+			Set<String> embedding = embeddedIn.get(embedded);
+			if (embedding != null) {
+				embedding.remove(key);
+				if (embedding.isEmpty()) {
+					embeddedIn.remove(embedded);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param key The key under which the entity is cached
+	 * @return The serialized entity and the cached entities it embeds, or null if it can not be serialized
+	 */
+	private static Snapshot snapshotOf(String key, Object o) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			RecordingOutputStream out = new RecordingOutputStream(bytes);
+			out.writeObject((Serializable) o);
+			out.close();
+			out.keys.remove(key);
+			return new Snapshot(bytes.toByteArray(), out.keys.toArray(new String[out.keys.size()]));
+		} catch (IOException | ClassCastException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * @return A new entity read from a snapshot, or null if it can not be read
+	 */
+	private static Object copyOf(byte[] snapshot) {
+		try {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(snapshot));
+			try {
+				return in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Determines the entity name of an object without initializing it if it is a lazy proxy.
+	 */
+	private static String entityName(Object o) {
+		if (o instanceof HibernateProxy) {
+			return ((HibernateProxy) o).getHibernateLazyInitializer().getPersistentClass().getName();
+		}
+		return o.getClass().getName();
+	}
+
+	private static String key(String className, Object primaryKey) {
+		return className + "#" + primaryKey;
+	}
+
+	public static synchronized int getSize() {
+		return entries.size();
+	}
+
+	public static long getHitCount() {
+		return hits.get();
+	}
+
+	public static long getMissCount() {
+		return misses.get();
+	}
+
+	public static long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return The fraction of lookups that were served from the cache
+	 */
+	public static double getHitRatio() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	public static String getStatistics() {
+		return String.format("size=%d/%d, hits=%d, misses=%d, hitRatio=%.2f, evictions=%d",
+				getSize(), MAX_SIZE, getHitCount(), getMissCount(), getHitRatio(), getEvictionCount());
+	}
+
+	/**
+	 * A cached snapshot and the keys of the other cached entities it embeds.
+	 */
+	private static final class Snapshot {
+		private final byte[] bytes;
+		private final String[] embeds;
+
+		private Snapshot(byte[] bytes, String[] embeds) {
+			this.bytes = bytes;
+			this.embeds = embeds;
+		}
+	}
+
+	/**
+	 * Serializes an entity and records the keys of the cacheable entities written along with it.
+	 * Lazy proxies are written without the state of their entity, so they need not be recorded.
+	 */
+	private static final class RecordingOutputStream extends ObjectOutputStream {
+		private final Set<String> keys = new HashSet<>();
+
+		private RecordingOutputStream(OutputStream out) throws IOException {
+			super(out);
+			enableReplaceObject(true);
+		}
+
+		@Override
+		protected Object replaceObject(Object obj) {
+			if (obj instanceof DBObject && isCacheable(obj.getClass().getName())) {
+				keys.add(key(obj.getClass().getName(), ((DBObject) obj).getPrimaryKeyVal()));
+			}
+			return obj;
+		}
+	}
+}
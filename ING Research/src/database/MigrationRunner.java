@@ -0,0 +1,145 @@
+package database;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies numbered DDL scripts to the database. The scripts live on the classpath under
+ * <code>migrations/</code> and are listed in <code>MIGRATIONS</code>; the number in front of
+ * a script's name is its version. Every script is applied exactly once, in its own
+ * transaction, and recorded in the <code>schema_version</code> table.
+ * New scripts must be appended to <code>MIGRATIONS</code> with a higher number; applied
+ * scripts must never be changed.
+ */
+public class MigrationRunner {
+	public static final String MIGRATIONS_PATH = "migrations/";
+
+	/**
+	 * All migration scripts, in the order in which they are applied.
+	 */
+	public static final String[] MIGRATIONS = {
+			"001_transaction_indexes.sql",
+			"002_log_and_event_indexes.sql",
+			"003_log_surrogate_key.sql",
+			"004_house_account_shards.sql",
+			"005_transfer_window_index.sql"
+	};
+
+	private static final String CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS schema_version ("
+			+ "version INTEGER PRIMARY KEY, script VARCHAR NOT NULL, applied_at BIGINT NOT NULL)";
+
+	/**
+	 * Applies all scripts that are newer than the current schema version of the database.
+	 * Stops at the first script that fails; that script is rolled back completely.
+	 * @param c An open connection to the database, in auto-commit mode
+	 * @return The number of scripts that were applied
+	 * @throws SQLException If the schema version could not be determined or a script failed
+	 */
+	public static int migrate(Connection c) throws SQLException {
+		Statement s = c.createStatement();
+		s.executeUpdate(CREATE_VERSION_TABLE);
+		int current = getVersion(c);
+
+		int applied = 0;
+		for (String script : MIGRATIONS) {
+			int version = getVersion(script);
+			if (version <= current) {
+				continue;
+			}
+
+			List<String> statements;
+			try {
+				statements = readStatements(MIGRATIONS_PATH + script);
+			} catch (IOException e) {
+				throw new SQLException("Could not read migration " + script + ".", e);
+			}
+
+			c.setAutoCommit(false);
+			try {
+				for (String statement : statements) {
+					s.executeUpdate(statement);
+				}
+				PreparedStatement record = c.prepareStatement("INSERT INTO schema_version (version, script, applied_at) VALUES (?, ?, ?)");
+				record.setInt(1, version);
+				record.setString(2, script);
+				record.setLong(3, System.currentTimeMillis());
+				record.executeUpdate();
+				record.close();
+				c.commit();
+			} catch (SQLException e) {
+				c.rollback();
+				throw new SQLException("Migration " + script + " failed and was rolled back.", e);
+			} finally {
+				c.setAutoCommit(true);
+			}
+			System.out.println("[INFO] Applied database migration " + script);
+			applied++;
+		}
+		s.close();
+		return applied;
+	}
+
+	/**
+	 * @param c An open connection to the database
+	 * @return The version of the newest applied script, or 0 if none was applied
+	 */
+	public static int getVersion(Connection c) throws SQLException {
+		Statement s = c.createStatement();
+		try {
+			ResultSet rs = s.executeQuery("SELECT max(version) FROM schema_version");
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			s.close();
+		}
+	}
+
+	/**
+	 * @param script The file name of a script, e.g. <code>001_transaction_indexes.sql</code>
+	 * @return The version number the name starts with
+	 */
+	private static int getVersion(String script) {
+		return Integer.parseInt(script.substring(0, script.indexOf('_')));
+	}
+
+	/**
+	 * Reads a script from the classpath and splits it into statements. Lines starting
+	 * with <code>--</code> are comments.
+	 */
+	private static List<String> readStatements(String path) throws IOException {
+		InputStream in = MigrationRunner.class.getClassLoader().getResourceAsStream(path);
+		if (in == null) {
+			throw new IOException("Resource " + path + " not found.");
+		}
+
+		StringBuilder script = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.trim().startsWith("--")) {
+					script.append(line).append('\n');
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		List<String> statements = new ArrayList<>();
+		for (String statement : script.toString().split(";")) {
+			if (!statement.trim().isEmpty()) {
+				statements.add(statement.trim());
+			}
+		}
+		return statements;
+	}
+}
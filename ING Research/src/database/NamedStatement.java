@@ -0,0 +1,129 @@
+package database;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The hand-written SQL statements of the application. Each statement is prepared once
+ * per pooled connection (see <code>SQLiteDB.prepare()</code>) and reused afterwards, so
+ * SQLite parses and plans it only once. Values are always bound as parameters.
+ * Every statement keeps track of how often it was executed and how long that took.
+ */
+public enum NamedStatement {
+	OUTGOING_TRANSFERS_SINCE("SELECT source_IBAN, date_time_milis, amount, pin_transaction FROM transactions WHERE date_time_milis >= ? AND source_IBAN IS NOT NULL"),
+	// A page of the transactions of an account and its savings account, newest first, before a
+	// (date_time_milis, ID) cursor. Every branch is an ordered index scan that stops after one page.
+	TRANSACTIONS_PAGE("SELECT * FROM (SELECT * FROM transactions WHERE source_IBAN = ? AND date_time_milis <= ? AND (date_time_milis < ? OR ID < ?) "
+			+ "ORDER BY date_time_milis DESC, ID DESC LIMIT ?) UNION "
+			+ "SELECT * FROM (SELECT * FROM transactions WHERE destination_IBAN = ? AND date_time_milis <= ? AND (date_time_milis < ? OR ID < ?) "
+			+ "ORDER BY date_time_milis DESC, ID DESC LIMIT ?) UNION "
+			+ "SELECT * FROM (SELECT * FROM transactions WHERE source_IBAN = ? AND date_time_milis <= ? AND (date_time_milis < ? OR ID < ?) "
+			+ "ORDER BY date_time_milis DESC, ID DESC LIMIT ?) UNION "
+			+ "SELECT * FROM (SELECT * FROM transactions WHERE destination_IBAN = ? AND date_time_milis <= ? AND (date_time_milis < ? OR ID < ?) "
+			+ "ORDER BY date_time_milis DESC, ID DESC LIMIT ?) "
+			+ "ORDER BY date_time_milis DESC, ID DESC LIMIT ?"),
+	HOLDERS_OF_BANK_ACCOUNT("SELECT * FROM customerbankaccounts WHERE IBAN = ?"),
+	BANK_ACCOUNTS_OF_HOLDER("SELECT * FROM customerbankaccounts WHERE customer_BSN = ?"),
+	DELETE_ACCESS("DELETE FROM customerbankaccounts WHERE customer_BSN = ? AND IBAN = ?"),
+	ALL_ACCESS("SELECT customer_BSN, IBAN FROM customerbankaccounts"),
+	DELETE_CUSTOMER_ACCOUNT("DELETE FROM customeraccounts WHERE customer_BSN = ?"),
+	DELETE_CUSTOMER_ACCESS("DELETE FROM customerbankaccounts WHERE customer_BSN = ?"),
+	DELETE_CUSTOMER_BANK_ACCOUNTS("DELETE FROM bankaccounts WHERE customer_BSN = ?"),
+	DELETE_CUSTOMER_DEBIT_CARDS("DELETE FROM debitcards WHERE customer_BSN = ?"),
+	NEGATIVE_BALANCES("SELECT IBAN, balance FROM bankaccounts WHERE balance < 0"),
+	POSITIVE_SAVINGS_BALANCES("SELECT IBAN, balance FROM savingsaccounts WHERE balance > 0"),
+	POSITIVE_CHILD_BALANCES("SELECT IBAN, balance FROM bankaccounts WHERE accounttype = 'child' AND balance > 0"),
+	CHILD_IBANS("SELECT IBAN FROM bankaccounts WHERE accounttype = 'child'"),
+	INSERT_LOG("INSERT INTO logs (timestamp, message, type) VALUES (?, ?, ?)"),
+	LOGS_BETWEEN("SELECT * FROM logs WHERE timestamp >= ? AND timestamp <= ? ORDER BY timestamp ASC, ID ASC"),
+	// A page of logs in [from, to) after a (timestamp, ID) cursor, of up to four types
+	LOGS_PAGE("SELECT ID, timestamp, message, type FROM logs WHERE timestamp >= ? AND timestamp < ? AND (timestamp > ? OR ID > ?) "
+			+ "AND type IN (?, ?, ?, ?) ORDER BY timestamp ASC, ID ASC LIMIT ?"),
+	// Bulk posting: the balance changes of a batch are collected in a temporary table per
+	// connection and applied with one update per account table (see BulkPosting)
+	CREATE_POSTINGS("CREATE TEMP TABLE IF NOT EXISTS postings (ledger INTEGER NOT NULL, IBAN VARCHAR NOT NULL, "
+			+ "amount NUMERIC NOT NULL, PRIMARY KEY (ledger, IBAN))"),
+	CLEAR_POSTINGS("DELETE FROM temp.postings"),
+	INSERT_POSTING("INSERT INTO temp.postings (ledger, IBAN, amount) VALUES (?, ?, ?)"),
+	POST_BANK_ACCOUNTS("UPDATE bankaccounts SET balance = balance + (SELECT p.amount FROM temp.postings p WHERE p.ledger = 0 AND p.IBAN = bankaccounts.IBAN) "
+			+ "WHERE IBAN IN (SELECT IBAN FROM temp.postings WHERE ledger = 0)"),
+	POST_SAVINGS_ACCOUNTS("UPDATE savingsaccounts SET balance = balance + (SELECT p.amount FROM temp.postings p WHERE p.ledger = 1 AND p.IBAN = savingsaccounts.IBAN) "
+			+ "WHERE IBAN IN (SELECT IBAN FROM temp.postings WHERE ledger = 1)"),
+	POST_CREDIT_ACCOUNTS("UPDATE creditaccounts SET balance = balance + (SELECT p.amount FROM temp.postings p WHERE p.ledger = 2 AND p.IBAN = creditaccounts.IBAN) "
+			+ "WHERE IBAN IN (SELECT IBAN FROM temp.postings WHERE ledger = 2)"),
+	INSERT_TRANSACTION("INSERT INTO transactions (source_IBAN, destination_IBAN, date_time, amount, description, target_name, "
+			+ "date_time_milis, pin_transaction) VALUES (?, ?, ?, ?, ?, ?, ?, ?)"),
+	UPDATE_TRANSFER_LIMIT("UPDATE bankaccounts SET transferlimit = ? WHERE IBAN = ?"),
+	OPEN_CREDIT_ACCOUNTS("SELECT c.IBAN, c.balance FROM creditaccounts c JOIN bankaccounts b ON b.IBAN = c.IBAN WHERE c.closed = 0"),
+	// The shards of the ING bank account (see HouseAccount)
+	POST_HOUSE_SHARD("UPDATE houseshards SET balance = balance + ? WHERE shard = ?"),
+	INSERT_HOUSE_SHARD("INSERT INTO houseshards (shard, balance) VALUES (?, ?)"),
+	HOUSE_BALANCE("SELECT (SELECT balance FROM bankaccounts WHERE IBAN = ?) + (SELECT coalesce(sum(balance), 0) FROM houseshards)"),
+	CONSOLIDATE_HOUSE_SHARDS("UPDATE bankaccounts SET balance = balance + (SELECT coalesce(sum(balance), 0) FROM houseshards) WHERE IBAN = ?"),
+	CLEAR_HOUSE_SHARDS("UPDATE houseshards SET balance = 0 WHERE balance <> 0"),
+	HOUSE_ROW_BALANCE("SELECT balance FROM bankaccounts WHERE IBAN = ?"),
+	UNEXECUTED_EVENTS("SELECT * FROM timeevents WHERE executed = 0"),
+	EXECUTED_EVENTS_BY_NAME("SELECT * FROM timeevents WHERE executed = 1 AND name = ? ORDER BY timestamp ASC");
+
+	private final String sql;
+	private final AtomicLong executions = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong prepares = new AtomicLong();
+
+	NamedStatement(String sql) {
+		this.sql = sql;
+	}
+
+	public String getSQL() {
+		return sql;
+	}
+
+	void recordExecution(long nanos) {
+		executions.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+	}
+
+	void recordPrepare() {
+		prepares.incrementAndGet();
+	}
+
+	public long getExecutionCount() {
+		return executions.get();
+	}
+
+	/**
+	 * @return How often the statement had to be prepared, i.e. how many times it was not reused
+	 */
+	public long getPrepareCount() {
+		return prepares.get();
+	}
+
+	/**
+	 * @return The total time spent executing this statement, in milliseconds
+	 */
+	public double getTotalMillis() {
+		return totalNanos.get() / 1000000.0;
+	}
+
+	/**
+	 * @return The average time of one execution, in milliseconds
+	 */
+	public double getAverageMillis() {
+		long count = executions.get();
+		return count == 0 ? 0 : totalNanos.get() / (count * 1000000.0);
+	}
+
+	/**
+	 * @return One line per executed statement with its execution count and latency
+	 */
+	public static String getStatistics() {
+		StringBuilder result = new StringBuilder();
+		for (NamedStatement statement : values()) {
+			if (statement.getExecutionCount() > 0) {
+				result.append(String.format("%-30s executions=%d, prepares=%d, avg=%.3fms, total=%.1fms%n",
+						statement.name(), statement.getExecutionCount(), statement.getPrepareCount(),
+						statement.getAverageMillis(), statement.getTotalMillis()));
+			}
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,203 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A physical connection owned by a <code>ConnectionPool</code>. Every borrower receives a
+ * proxy of its own (see <code>Lease</code>); closing the proxy returns the connection to the
+ * pool and closes any statements the borrower left open. <code>NamedStatements</code> are
+ * prepared once per physical connection and kept for as long as the connection lives.
+ */
+class PooledConnection {
+
+	private final ConnectionPool pool;
+	private final Connection physical;
+
+	private volatile boolean leased = false;
+	private volatile long leasedAt;
+	private volatile Throwable leaseSite;
+	private volatile boolean leakReported;
+	private final List<Statement> leaseStatements = new ArrayList<>();
+	private final EnumMap<NamedStatement, CachedStatement> statementCache = new EnumMap<>(NamedStatement.class);
+
+	PooledConnection(ConnectionPool pool, Connection physical) {
+		this.pool = pool;
+		this.physical = physical;
+	}
+
+	/**
+	 * Marks this connection as borrowed.
+	 * @param recordSite Whether to remember the stack trace of the borrower for leak reports
+	 * @return The proxy that is handed to the borrower
+	 */
+	Connection lease(boolean recordSite) {
+		leasedAt = System.currentTimeMillis();
+		leaseSite = recordSite ? new Throwable("Connection borrowed here") : null;
+		leakReported = false;
+		leased = true;
+		return new Lease().proxy;
+	}
+
+	/**
+	 * Brings the physical connection back to a clean state before it is reused.
+	 * @return True if the connection can be reused, false if it should be discarded
+	 */
+	boolean reset() {
+		for (CachedStatement cached : statementCache.values()) {
+			cached.reset();
+		}
+		synchronized (leaseStatements) {
+			for (Statement s : leaseStatements) {
+				try {
+					s.close();
+				} catch (SQLException e) {
+					// The statement is abandoned either way
+				}
+			}
+			leaseStatements.clear();
+		}
+
+		try {
+			if (physical.isClosed()) {
+				return false;
+			}
+			if (!physical.getAutoCommit()) {
+				physical.rollback();
+				physical.setAutoCommit(true);
+			}
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	void closePhysical() {
+		for (CachedStatement cached : statementCache.values()) {
+			cached.closePhysical();
+		}
+		statementCache.clear();
+		try {
+			physical.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	boolean isLeaked(long now, long thresholdMillis) {
+		return leased && now - leasedAt > thresholdMillis;
+	}
+
+	/**
+	 * @return True if the current lease had not been reported as leaked yet
+	 */
+	boolean markLeakReported() {
+		if (leakReported) {
+			return false;
+		}
+		leakReported = true;
+		return true;
+	}
+
+	long getLeasedAt() {
+		return leasedAt;
+	}
+
+	Throwable getLeaseSite() {
+		return leaseSite;
+	}
+
+	/**
+	 * Returns the prepared statement for the given <code>NamedStatement</code>, preparing
+	 * it on the physical connection if this connection has not done so before.
+	 * @param name The statement
+	 * @return A statement that is reset, not closed, when the borrower closes it
+	 * @throws SQLException If the statement could not be prepared
+	 */
+	PreparedStatement prepare(NamedStatement name) throws SQLException {
+		if (!leased) {
+			throw new SQLException("Connection has already been returned to the pool.");
+		}
+		CachedStatement cached = statementCache.get(name);
+		if (cached == null) {
+			cached = new CachedStatement(name, physical.prepareStatement(name.getSQL()));
+			name.recordPrepare();
+			statementCache.put(name, cached);
+		}
+		return cached.getProxy();
+	}
+
+	/**
+	 * The handle of one borrower. Once it has been closed it stays closed, so closing it again
+	 * or using it afterwards can not affect a later borrower of the same physical connection.
+	 */
+	final class Lease implements InvocationHandler {
+
+		private final Connection proxy;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		private Lease() {
+			this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] {Connection.class}, this);
+		}
+
+		/**
+		 * See <code>PooledConnection.prepare()</code>.
+		 */
+		PreparedStatement prepare(NamedStatement name) throws SQLException {
+			if (closed.get()) {
+				throw new SQLException("Connection has already been returned to the pool.");
+			}
+			return PooledConnection.this.prepare(name);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			switch (name) {
+			case "close":
+				if (closed.compareAndSet(false, true)) {
+					leased = false;
+					pool.release(PooledConnection.this);
+				}
+				return null;
+			case "isClosed":
+				return closed.get() || physical.isClosed();
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "PooledConnection[" + physical + "]";
+			}
+
+			if (closed.get()) {
+				throw new SQLException("Connection has already been returned to the pool.");
+			}
+
+			Object result;
+			try {
+				result = method.invoke(physical, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+
+			if (result instanceof Statement) {
+				synchronized (leaseStatements) {
+					leaseStatements.add((Statement) result);
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+
+/**
+ * Lets Hibernate take its connections from the <code>SQLiteDB</code> connection pool,
+ * so that sessions and hand-written SQL share the same (configured) connections.
+ */
+public class SQLiteConnectionProvider implements ConnectionProvider {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return SQLiteDB.getConnectionPool().borrow();
+	}
+
+	@Override
+	public void closeConnection(Connection conn) throws SQLException {
+		conn.close();
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public boolean isUnwrappableAs(Class unwrapType) {
+		return ConnectionProvider.class.equals(unwrapType) || SQLiteConnectionProvider.class.isAssignableFrom(unwrapType);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T unwrap(Class<T> unwrapType) {
+		if (isUnwrappableAs(unwrapType)) {
+			return (T) this;
+		}
+		throw new IllegalArgumentException("Can not unwrap " + getClass().getName() + " as " + unwrapType.getName());
+	}
+}
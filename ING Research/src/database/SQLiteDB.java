@@ -1,10 +1,11 @@
 package database;
 
 import java.io.IOException;
+import java.lang.reflect.Proxy;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
@@ -21,7 +22,42 @@ public class SQLiteDB {
 	public static final String DBName = Client.DESKTOP_ING_FOLDER_PATH + "banking.db";
 	public static final String schema = Client.DESKTOP_ING_FOLDER_PATH + "bankingtables.txt";
 	
-	public static Lock connectionLock = new ReentrantLock();
+	/**
+	 * In WAL mode readers never block on the writer, so only writes need to be coordinated.
+	 * Code that writes to the database (or must see a consistent state across several 
+	 * statements while writing) takes <code>connectionLock</code>. Plain reads take no lock at all.
+	 */
+	public static final Lock connectionLock = new ReentrantLock();
+	
+	/**
+	 * The maximum number of open connections to the database.
+	 */
+	private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+	
+	/**
+	 * How long a caller waits for a free connection before giving up.
+	 */
+	private static final long POOL_MAX_WAIT_MILLIS = 10000;
+	
+	/**
+	 * Connections borrowed for longer than this are reported as leaked.
+	 */
+	private static final long POOL_LEAK_THRESHOLD_MILLIS = 60000;
+	
+	/**
+	 * Executed once on every new connection. WAL lets readers run next to a writer, 
+	 * NORMAL synchronization is safe in WAL mode and the busy timeout makes writers 
+	 * wait for each other instead of failing with SQLITE_BUSY.
+	 */
+	private static final String[] PRAGMAS = {
+			"PRAGMA journal_mode = WAL",
+			"PRAGMA synchronous = NORMAL",
+			"PRAGMA busy_timeout = 5000",
+			"PRAGMA temp_store = MEMORY",
+			"PRAGMA cache_size = -8000"
+	};
+	
+	private static ConnectionPool pool;
 	
 	/**
 	 * Creates a .db file if it does not already exist.
@@ -35,6 +71,43 @@ public class SQLiteDB {
 		}
 	}
 	
+	/**
+	 * Brings the schema up to date by applying any pending scripts of the 
+	 * <code>MigrationRunner</code>. Must run after Hibernate has created the tables it maps,
+	 * since the scripts may refer to them.
+	 */
+	public static void migrateSchema() {
+		connectionLock.lock();
+		Connection c = openConnection();
+		try {
+			if (c != null) {
+				MigrationRunner.migrate(c);
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			closeConnection(c);
+			connectionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the connection pool of the database, creating it on first use.
+	 * @return The connection pool
+	 */
+	public static synchronized ConnectionPool getConnectionPool() {
+		if (pool == null) {
+			try {
+				Class.forName("org.sqlite.JDBC");
+			} catch (ClassNotFoundException e) {
+				e.printStackTrace();
+			}
+			pool = new ConnectionPool("jdbc:sqlite:" + DBName, POOL_SIZE, POOL_MAX_WAIT_MILLIS, 
+					POOL_LEAK_THRESHOLD_MILLIS, PRAGMAS);
+		}
+		return pool;
+	}
+	
 	/**
 	 * Fetches the table creation specifications from a certain schema file.
 	 * @return A String containing table creation statements
@@ -59,39 +132,171 @@ public class SQLiteDB {
 	 */
 	private static void initializeTableStructure() {
 		String tableStructure = getSchemaStatements();
-		Connection conn;
+		executeStatement(tableStructure);
+	}
+	
+	/**
+	 * Executes a raw SQL update. Since the statement bypasses Hibernate, the
+	 * <code>EntityCache</code> is cleared afterwards.
+	 * @param s The statement(s) to execute
+	 */
+	public static void executeStatement(String s) {
+		Connection conn = openConnection();
+		if (conn == null) {
+			return;
+		}
 		try {
-			conn = DriverManager.getConnection("jdbc:sqlite:" + DBName);
 			Statement statement = conn.createStatement();
-			statement.executeUpdate(tableStructure);
+			statement.executeUpdate(s);
 			statement.close();
-			conn.close();
 		} catch (SQLException e) {
 			e.printStackTrace();
+		} finally {
+			closeConnection(conn);
+			EntityCache.clearAfterCommit();
 		}
 	}
 	
-	public static void executeStatement(String s) {
-		Connection conn;
+	/**
+	 * Returns a <code>NamedStatement</code> prepared on the given connection. On pooled
+	 * connections the statement is prepared only once and reused by later borrowers;
+	 * closing it merely resets it.
+	 * @param c A connection obtained through <code>openConnection()</code>
+	 * @param statement The statement to prepare
+	 * @return The prepared statement, with its parameters cleared
+	 * @throws SQLException If the statement could not be prepared
+	 */
+	public static PreparedStatement prepare(Connection c, NamedStatement statement) throws SQLException {
+		if (Proxy.isProxyClass(c.getClass()) && Proxy.getInvocationHandler(c) instanceof BoundConnection) {
+			return prepare(((BoundConnection) Proxy.getInvocationHandler(c)).getTarget(), statement);
+		}
+		if (Proxy.isProxyClass(c.getClass()) && Proxy.getInvocationHandler(c) instanceof PooledConnection.Lease) {
+			return ((PooledConnection.Lease) Proxy.getInvocationHandler(c)).prepare(statement);
+		}
+		return c.prepareStatement(statement.getSQL());
+	}
+	
+	/**
+	 * Executes a writing <code>NamedStatement</code> with the given parameters while holding
+	 * the write lock. Since the statement bypasses Hibernate, the <code>EntityCache</code> 
+	 * is cleared afterwards.
+	 * @param statement The statement to execute
+	 * @param parameters The values to bind, in order
+	 * @return The number of changed rows, or -1 if the statement failed
+	 */
+	public static int executeUpdate(NamedStatement statement, Object... parameters) {
+		connectionLock.lock();
+		Connection conn = openConnection();
 		try {
-			conn = DriverManager.getConnection("jdbc:sqlite:" + DBName);
-			Statement statement = conn.createStatement();
-			statement.executeUpdate(s);
-			statement.close();
-			conn.close();
+			if (conn == null) {
+				return -1;
+			}
+			PreparedStatement s = prepare(conn, statement);
+			for (int i = 0; i < parameters.length; i++) {
+				s.setObject(i + 1, parameters[i]);
+			}
+			int rows = s.executeUpdate();
+			s.close();
+			return rows;
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return -1;
+		} finally {
+			closeConnection(conn);
+			EntityCache.clearAfterCommit();
+			connectionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Executes a writing <code>NamedStatement</code> once per set of parameters, as one JDBC
+	 * batch in a single commit, while holding the write lock. Since the statement bypasses 
+	 * Hibernate, the <code>EntityCache</code> is cleared afterwards.
+	 * @param statement The statement to execute
+	 * @param parameters The values to bind per execution, in order
+	 * @return The total number of changed rows, or -1 if the batch failed and was rolled back
+	 */
+	public static int executeBatch(NamedStatement statement, List<Object[]> parameters) {
+		if (parameters.isEmpty()) {
+			return 0;
+		}
+		connectionLock.lock();
+		Connection conn = openConnection();
+		try {
+			if (conn == null) {
+				return -1;
+			}
+			conn.setAutoCommit(false);
+			PreparedStatement s = prepare(conn, statement);
+			for (Object[] values : parameters) {
+				for (int i = 0; i < values.length; i++) {
+					s.setObject(i + 1, values[i]);
+				}
+				s.addBatch();
+			}
+			int rows = 0;
+			for (int count : s.executeBatch()) {
+				rows += Math.max(count, 0);
+			}
+			s.close();
+			conn.commit();
+			return rows;
 		} catch (SQLException e) {
 			e.printStackTrace();
+			return -1;
+		} finally {
+			// Returning the connection rolls back an unfinished batch
+			closeConnection(conn);
+			EntityCache.clearAfterCommit();
+			connectionLock.unlock();
 		}
 	}
 	
+	/**
+	 * Borrows a connection from the connection pool. The connection must be handed back 
+	 * with <code>closeConnection()</code> (or <code>Connection.close()</code>) when done.
+	 * @return A pooled connection, or null if none could be obtained
+	 */
 	public static Connection openConnection() {
 		Connection c = null;
 		try {
-			Class.forName("org.sqlite.JDBC");
-			c = DriverManager.getConnection("jdbc:sqlite:" + DBName);
-		} catch (SQLException | ClassNotFoundException e) {
+			c = getConnectionPool().borrow();
+		} catch (SQLException e) {
 			e.printStackTrace();
 		}
 		return c;
 	}
+	
+	/**
+	 * Borrows a connection of its own from the connection pool, also on a thread that is in a
+	 * transaction (see <code>DataManager.beginTransaction()</code>), so only committed data is
+	 * read on it. Used to fill in-memory indexes, which must not pick up changes that may still
+	 * be rolled back. Must only be used for reading.
+	 * @return A pooled connection, or null if none could be obtained
+	 */
+	public static Connection openCommittedConnection() {
+		Connection c = null;
+		try {
+			c = getConnectionPool().borrowUnbound();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return c;
+	}
+	
+	/**
+	 * Returns a connection obtained through <code>openConnection()</code> to the pool.
+	 * Also closes any statements and result sets that were left open on it.
+	 * @param c The connection, may be null
+	 */
+	public static void closeConnection(Connection c) {
+		if (c == null) {
+			return;
+		}
+		try {
+			c.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
 }
\ No newline at end of file
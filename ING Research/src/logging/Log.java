@@ -2,6 +2,8 @@ package logging;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
 import javax.persistence.Transient;
@@ -11,13 +13,15 @@ import database.DataManager;
 @Entity
 @Table(name = "logs")
 public class Log implements database.DBObject {
+	private static final long serialVersionUID = 1L;
 	
+	private long id;
 	private long timestamp;
 	private String message;
 	private String type;
 	
 	public static final String CLASSNAME = "logging.Log";
-	public static final String PRIMARYKEYNAME = "timestamp";
+	public static final String PRIMARYKEYNAME = "id";
 	
 	public enum Type {SUCCESS, INFO, WARNING, ERROR}
 	
@@ -31,8 +35,21 @@ public class Log implements database.DBObject {
 		this.type = type.name();
 	}
 
+	/**
+	 * A generated key, so that several events in the same millisecond are all kept.
+	 */
 	@Id
-	@Column(name = "timestamp")
+	@Column(name = "ID")
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	@Column(name = "timestamp", nullable = false)
 	public long getTimestamp() {
 		return timestamp;
 	}
@@ -70,7 +87,7 @@ public class Log implements database.DBObject {
 
 	@Transient
 	public Object getPrimaryKeyVal() {
-		return timestamp;
+		return id;
 	}
 
 	@Transient
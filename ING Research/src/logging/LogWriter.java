@@ -0,0 +1,285 @@
+package logging;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import database.DataManager;
+import database.NamedStatement;
+import database.SQLiteDB;
+
+/**
+ * Writes <code>Log</code> records to the database in the background. Records are put on
+ * a bounded, lock-free queue and a daemon thread inserts them in batches, one transaction
+ * per batch, every flush interval or as soon as a full batch is waiting.
+ * What happens to a record that does not fit in a full queue is decided by the
+ * <code>OverflowPolicy</code>. Pending records are written synchronously by
+ * <code>flush()</code>, which also runs when the JVM shuts down.
+ * A thread that is in a database transaction (see <code>DataManager.beginTransaction()</code>)
+ * never writes records itself: they would be written on its bound connection and disappear
+ * when it rolls back. Its records are left to the background thread instead, which writes
+ * them once the transaction has ended.
+ */
+public class LogWriter {
+
+	/**
+	 * What to do with a record when the queue is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Discard the record and count it as dropped.
+		 */
+		DROP,
+		/**
+		 * Let the logging thread write the queue itself, so no record is lost but the
+		 * caller pays for the write, as it did before logging was asynchronous.
+		 */
+		WRITE_THROUGH
+	}
+
+	private final int capacity;
+	private final int batchSize;
+	private final long flushIntervalMillis;
+	private final OverflowPolicy overflowPolicy;
+
+	private final ConcurrentLinkedQueue<Log> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger depth = new AtomicInteger();
+	private final Thread writer;
+	private final Thread shutdownHook;
+	private volatile boolean running = true;
+
+	/*
+	 * Writer metrics.
+	 */
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	private final AtomicLong writeThroughCount = new AtomicLong();
+	private final AtomicInteger maxDepth = new AtomicInteger();
+
+	/**
+	 * Creates a writer and starts its background thread.
+	 * @param capacity The maximum number of records waiting to be written
+	 * @param batchSize The maximum number of records inserted in one transaction
+	 * @param flushIntervalMillis How long a record may wait before it is written
+	 * @param overflowPolicy What to do with records that do not fit in the queue
+	 */
+	public LogWriter(int capacity, int batchSize, long flushIntervalMillis, OverflowPolicy overflowPolicy) {
+		this.capacity = capacity;
+		this.batchSize = batchSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.overflowPolicy = overflowPolicy;
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (running) {
+					LockSupport.parkNanos(LogWriter.this, TimeUnit.MILLISECONDS.toNanos(LogWriter.this.flushIntervalMillis));
+					writePending();
+				}
+			}
+		}, "log-writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		shutdownHook = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				running = false;
+				writePending();
+			}
+		}, "log-writer-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Queues a record to be written. Never blocks unless the queue is full, the
+	 * policy is <code>WRITE_THROUGH</code> and the thread is not in a transaction.
+	 * @param log The record
+	 */
+	public void add(Log log) {
+		int newDepth = depth.incrementAndGet();
+		if (newDepth > capacity || !running) {
+			depth.decrementAndGet();
+			if (overflowPolicy == OverflowPolicy.DROP && running) {
+				droppedCount.incrementAndGet();
+				return;
+			}
+			writeThroughCount.incrementAndGet();
+			depth.incrementAndGet();
+			queue.offer(log);
+			writePendingOrWake();
+			return;
+		}
+
+		queue.offer(log);
+		updateMaxDepth(newDepth);
+		if (newDepth >= batchSize) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Writes all queued records before returning. Call before reading logs that must
+	 * include everything logged so far. Inside a transaction the records are only written
+	 * after it has ended.
+	 */
+	public void flush() {
+		writePendingOrWake();
+	}
+
+	/**
+	 * Writes the queued records, or wakes the background thread to write them once the
+	 * transaction of this thread has ended.
+	 */
+	private void writePendingOrWake() {
+		if (DataManager.isInTransaction()) {
+			LockSupport.unpark(writer);
+			return;
+		}
+		writePending();
+	}
+
+	/**
+	 * Stops the background thread after writing all queued records. Records added
+	 * afterwards are written synchronously.
+	 */
+	public void shutdown() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(flushIntervalMillis + 5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writePending();
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// Already shutting down; the hook flushes once more, which is harmless
+		}
+	}
+
+	/**
+	 * Drains the queue in batches. Holds the write lock of the database throughout, so only
+	 * one thread writes at a time and a flush returns only after records taken by the
+	 * background thread have been committed as well.
+	 */
+	private void writePending() {
+		if (queue.isEmpty()) {
+			return;
+		}
+		// The logs table is created by Hibernate; initialize before taking the lock
+		DataManager.initIfRequired();
+
+		SQLiteDB.connectionLock.lock();
+		try {
+			List<Log> batch = new ArrayList<>(batchSize);
+			while (true) {
+				Log log;
+				while (batch.size() < batchSize && (log = queue.poll()) != null) {
+					depth.decrementAndGet();
+					batch.add(log);
+				}
+				if (batch.isEmpty()) {
+					return;
+				}
+				writeBatch(batch);
+				batch.clear();
+			}
+		} finally {
+			SQLiteDB.connectionLock.unlock();
+		}
+	}
+
+	private void writeBatch(List<Log> batch) {
+		Connection c = SQLiteDB.openConnection();
+		try {
+			if (c == null) {
+				droppedCount.addAndGet(batch.size());
+				return;
+			}
+			c.setAutoCommit(false);
+			PreparedStatement s = SQLiteDB.prepare(c, NamedStatement.INSERT_LOG);
+			for (Log log : batch) {
+				s.setLong(1, log.getTimestamp());
+				s.setString(2, log.getMessage());
+				s.setString(3, log.getType());
+				s.addBatch();
+			}
+			s.executeBatch();
+			c.commit();
+			s.close();
+			writtenCount.addAndGet(batch.size());
+			batchCount.incrementAndGet();
+		} catch (SQLException e) {
+			e.printStackTrace();
+			droppedCount.addAndGet(batch.size());
+		} finally {
+			SQLiteDB.closeConnection(c);
+		}
+	}
+
+	private void updateMaxDepth(int newDepth) {
+		int max;
+		while (newDepth > (max = maxDepth.get())) {
+			if (maxDepth.compareAndSet(max, newDepth)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return The number of records waiting to be written
+	 */
+	public int getQueueDepth() {
+		return depth.get();
+	}
+
+	public int getMaxQueueDepth() {
+		return maxDepth.get();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	/**
+	 * @return The number of records that were lost, because the queue was full or writing failed
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return The number of records that were written by the logging thread because the queue was full
+	 */
+	public long getWriteThroughCount() {
+		return writeThroughCount.get();
+	}
+
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/**
+	 * @return A summary of the writer metrics
+	 */
+	public String getStatistics() {
+		long batches = batchCount.get();
+		return String.format("depth=%d/%d, maxDepth=%d, written=%d, batches=%d (avg %.1f), dropped=%d, writeThrough=%d",
+				getQueueDepth(), capacity, getMaxQueueDepth(), getWrittenCount(), batches,
+				batches == 0 ? 0 : getWrittenCount() / (double) batches, getDroppedCount(), getWriteThroughCount());
+	}
+}
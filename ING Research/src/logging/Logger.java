@@ -9,30 +9,72 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import database.SQLiteDB;
+import database.NamedStatement;
 import logging.Log.Type;
 import server.rest.ServerModel;
 
+/**
+ * Records events in the <code>logs</code> table. Records are written in the background
+ * by a <code>LogWriter</code>; its settings can be changed with the system properties
+ * <code>logging.queueCapacity</code>, <code>logging.batchSize</code>,
+ * <code>logging.flushIntervalMillis</code> and <code>logging.overflowPolicy</code>.
+ */
 public class Logger {
+	private static final int QUEUE_CAPACITY = Integer.getInteger("logging.queueCapacity", 10000);
+	private static final int BATCH_SIZE = Integer.getInteger("logging.batchSize", 500);
+	private static final long FLUSH_INTERVAL_MILLIS = Long.getLong("logging.flushIntervalMillis", 200);
+	private static final LogWriter.OverflowPolicy OVERFLOW_POLICY = 
+			LogWriter.OverflowPolicy.valueOf(System.getProperty("logging.overflowPolicy", LogWriter.OverflowPolicy.WRITE_THROUGH.name()));
+	
+	private static volatile LogWriter writer;
+	
+	/**
+	 * Returns the writer of the log records, starting it on first use.
+	 * @return The writer
+	 */
+	public static LogWriter getWriter() {
+		if (writer == null) {
+			synchronized (Logger.class) {
+				if (writer == null) {
+					writer = new LogWriter(QUEUE_CAPACITY, BATCH_SIZE, FLUSH_INTERVAL_MILLIS, OVERFLOW_POLICY);
+				}
+			}
+		}
+		return writer;
+	}
+	
+	/**
+	 * Writes all pending log records to the database.
+	 */
+	public static void flush() {
+		if (writer != null) {
+			writer.flush();
+		}
+	}
     
 	public static ArrayList<Log> getLogs(String startDate, String endDate) throws ParseException {
     	long start = parseDateToMillis(startDate, "yyyy-MM-dd");
     	long end = parseDateToMillis(endDate, "yyyy-MM-dd") + 1000 * 3600 * 24 /*add one day so the criteria 'between' can be used*/;
 
+		// Include everything that was logged up to now
+		flush();
 		ArrayList<Log> result = new ArrayList<>();
-		SQLiteDB.connectionLock.lock();
     	Connection c = SQLiteDB.openConnection();	
 		ResultSet rs;
 		try {
-			PreparedStatement s = c.prepareStatement("SELECT * FROM logs WHERE timestamp >= ? AND timestamp <= ? ORDER BY timestamp ASC;");
+			PreparedStatement s = SQLiteDB.prepare(c, NamedStatement.LOGS_BETWEEN);
 			s.setLong(1, start);
 			s.setLong(2, end);
 			rs = s.executeQuery();
 			while (rs.next()) {
 				Log log = new Log();
+				log.setId(rs.getLong("ID"));
 				log.setMessage(rs.getString("message"));
 				log.setTimestamp(Long.parseLong(rs.getString("timestamp")));
 				log.setType(rs.getString("type"));
@@ -41,28 +83,84 @@ public class Logger {
 		} catch (NumberFormatException | SQLException e) {
 			e.printStackTrace();
 		} finally {
-			SQLiteDB.connectionLock.unlock();
+			SQLiteDB.closeConnection(c);
 		}
 		
 		return result;		
     }
     
     public static ArrayList<HashMap<String, Object>> getEventLogs(String startDate, String endDate) throws ParseException {
-    	ArrayList<Log> logs = getLogs(startDate, endDate);
-    	ArrayList<HashMap<String, Object>> result = new ArrayList<>();
-    	
-    	for (int i = 0; i < logs.size(); i++) {
-    		HashMap<String, Object> map = new HashMap<>();
-    		Log log = logs.get(i);
-	    	Date date = new Date();
-	    	date.setTime(log.getTimestamp());
-    		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mmZ");
-    		map.put("timeStamp", df.format(date));
-    		map.put("eventLog", "(" + log.getType() + ") " + log.getMessage());
-    		result.add(map);    		
-    	}
-    	
-    	return result;
+    	long start = parseDateToMillis(startDate, "yyyy-MM-dd");
+    	long end = parseDateToMillis(endDate, "yyyy-MM-dd") + 1000 * 3600 * 24;
+    	return getEventLogs(start, end, Long.MIN_VALUE, Long.MIN_VALUE, EnumSet.allOf(Type.class), Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Returns one page of the event logs in a time range, oldest first. Rows are turned
+     * into response entries while they are read, so only the page itself is held in memory.
+     * Every entry carries its <code>id</code> and <code>timestampMillis</code>; pass those 
+     * of the last entry as the cursor to get the next page.
+     * @param start The start of the range, inclusive
+     * @param end The end of the range, exclusive
+     * @param afterTimestamp The timestamp of the cursor, <code>Long.MIN_VALUE</code> for the first page
+     * @param afterId The ID of the cursor, <code>Long.MIN_VALUE</code> for the first page
+     * @param types The types of logs to include
+     * @param limit The maximum number of logs to return
+     * @return The entries of the page
+     */
+    public static ArrayList<HashMap<String, Object>> getEventLogs(long start, long end, long afterTimestamp, long afterId, 
+    		Set<Type> types, int limit) {
+		ArrayList<HashMap<String, Object>> result = new ArrayList<>();
+		if (types.isEmpty() || limit <= 0) {
+			return result;
+		}
+		
+		// Include everything that was logged up to now
+		flush();
+		
+		// The statement always takes four types; repeat one to fill the remaining places
+		Type[] typeParameters = new Type[4];
+		int i = 0;
+		for (Type type : types) {
+			typeParameters[i++] = type;
+		}
+		for (; i < typeParameters.length; i++) {
+			typeParameters[i] = typeParameters[0];
+		}
+		
+		DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mmZ");
+		Date date = new Date();
+    	Connection c = SQLiteDB.openConnection();	
+		try {
+			PreparedStatement s = SQLiteDB.prepare(c, NamedStatement.LOGS_PAGE);
+			s.setLong(1, Math.max(start, afterTimestamp));
+			s.setLong(2, end);
+			s.setLong(3, afterTimestamp);
+			s.setLong(4, afterId);
+			for (int j = 0; j < typeParameters.length; j++) {
+				s.setString(5 + j, typeParameters[j].name());
+			}
+			s.setInt(9, limit);
+			ResultSet rs = s.executeQuery();
+			while (rs.next()) {
+				long timestamp = rs.getLong("timestamp");
+				date.setTime(timestamp);
+				HashMap<String, Object> map = new HashMap<>();
+				map.put("timeStamp", df.format(date));
+				map.put("eventLog", "(" + rs.getString("type") + ") " + rs.getString("message"));
+				map.put("id", rs.getLong("ID"));
+				map.put("timestampMillis", timestamp);
+				result.add(map);
+			}
+			rs.close();
+			s.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			SQLiteDB.closeConnection(c);
+		}
+		
+		return result;
     }
 
 	public static long parseDateToMillis(String date, String format) throws ParseException {
@@ -72,10 +170,7 @@ public class Logger {
 	}
 	
 	public static void addLogToDB(long timestamp, Type type, String message) {
-		SQLiteDB.connectionLock.lock();	
-		Log log = new Log(timestamp, type, message);
-		log.saveToDB();
-		SQLiteDB.connectionLock.unlock();	
+		getWriter().add(new Log(timestamp, type, message));
 	}
 	
 	public static void addMethodRequestLog(String methodName, Map<String, Object> params) {
@@ -0,0 +1,108 @@
+package server.rest;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The values of all <code>BankSystemValues</code> at one point in time, with the interest rates
+ * that are derived from them. A snapshot never changes; a change of a value publishes a new
+ * snapshot with a higher version (see <code>BankSystemValue.snapshot()</code>). Code that reads
+ * several values, or the same value many times, takes one snapshot and reads it from that, so
+ * it sees one consistent set of values even if they are changed meanwhile.
+ */
+public final class BankSystemSnapshot {
+
+	private final long version;
+	private final double[] amounts;
+
+	private final double monthlyOverdraftRate;
+	private final double dailyInterestRate1;
+	private final double dailyInterestRate2;
+	private final double dailyInterestRate3;
+	private final double dailyChildInterestRate;
+
+	private BankSystemSnapshot(long version, double[] amounts) {
+		this.version = version;
+		this.amounts = amounts;
+		monthlyOverdraftRate = Math.pow((1 + get(BankSystemValue.OVERDRAFT_INTEREST_RATE)), (1 / 12)) - 1;
+		dailyInterestRate1 = get(BankSystemValue.INTEREST_RATE_1) / 365;
+		dailyInterestRate2 = get(BankSystemValue.INTEREST_RATE_2) / 365;
+		dailyInterestRate3 = get(BankSystemValue.INTEREST_RATE_3) / 365;
+		dailyChildInterestRate = get(BankSystemValue.CHILD_INTEREST_RATE) / 365;
+	}
+
+	/**
+	 * @param version The version of the snapshot
+	 * @return A snapshot with the default amount of every value
+	 */
+	static BankSystemSnapshot defaults(long version) {
+		BankSystemValue[] values = BankSystemValue.values();
+		double[] amounts = new double[values.length];
+		for (BankSystemValue value : values) {
+			amounts[value.ordinal()] = value.getDefaultAmount();
+		}
+		return new BankSystemSnapshot(version, amounts);
+	}
+
+	/**
+	 * @param changes The new amounts of some values
+	 * @return A copy of this snapshot with the given amounts and the next version
+	 */
+	BankSystemSnapshot with(Map<BankSystemValue, Double> changes) {
+		double[] copy = amounts.clone();
+		for (Entry<BankSystemValue, Double> change : changes.entrySet()) {
+			copy[change.getKey().ordinal()] = change.getValue();
+		}
+		return new BankSystemSnapshot(version + 1, copy);
+	}
+
+	/**
+	 * @return The version of this snapshot; every published snapshot has a higher version than the one before
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param value A bank system value
+	 * @return The amount of the value in this snapshot
+	 */
+	public double get(BankSystemValue value) {
+		return amounts[value.ordinal()];
+	}
+
+	/**
+	 * @return The interest rate per month over a negative balance
+	 */
+	public double getMonthlyOverdraftRate() {
+		return monthlyOverdraftRate;
+	}
+
+	/**
+	 * @return The interest rate per day over a savings balance below 25000
+	 */
+	public double getDailyInterestRate1() {
+		return dailyInterestRate1;
+	}
+
+	/**
+	 * @return The interest rate per day over a savings balance from 25000 to 75000
+	 */
+	public double getDailyInterestRate2() {
+		return dailyInterestRate2;
+	}
+
+	/**
+	 * @return The interest rate per day over a savings balance from 75000 to 1000000
+	 */
+	public double getDailyInterestRate3() {
+		return dailyInterestRate3;
+	}
+
+	/**
+	 * @return The interest rate per day over the balance of a child account, up to 2500
+	 */
+	public double getDailyChildInterestRate() {
+		return dailyChildInterestRate;
+	}
+}
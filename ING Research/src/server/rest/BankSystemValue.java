@@ -4,11 +4,18 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
 
 import database.SQLiteDB;
+import database.NamedStatement;
 
+/**
+ * The values of the bank that can be changed at runtime, with their defaults. The current values
+ * are kept in one immutable <code>BankSystemSnapshot</code> that is replaced as a whole whenever
+ * a value changes, so every reader sees a complete and up to date set of values.
+ */
 public enum BankSystemValue {
 
 	CREDIT_CARD_MONTHLY_FEE		(5.0),
@@ -24,97 +31,93 @@ public enum BankSystemValue {
 	DAILY_WITHDRAW_LIMIT		(250.0), 
 	WEEKLY_TRANSFER_LIMIT		(2500.0), 
 	CHILD_INTEREST_RATE			(0.02017);
-	
-	private double amount;
-	
-    BankSystemValue(double amount) {
-        this.amount = amount;
+
+	private final double defaultAmount;
+
+	/**
+	 * The current values; only replaced while holding the monitor of this class.
+	 */
+	private static volatile BankSystemSnapshot snapshot = BankSystemSnapshot.defaults(0);
+
+    BankSystemValue(double defaultAmount) {
+        this.defaultAmount = defaultAmount;
     }
 
+	/**
+	 * @return The current amount of this value. To read several values that belong together,
+	 * use one <code>snapshot()</code> instead.
+	 */
 	public double getAmount() {
-		return amount;
+		return snapshot.get(this);
+	}
+
+	public double getDefaultAmount() {
+		return defaultAmount;
 	}
 
 	public void setAmount(double amount) {
-		this.amount = amount;
+		publish(Collections.singletonMap(this, amount));
+	}
+
+	/**
+	 * @return The current values
+	 */
+	public static BankSystemSnapshot snapshot() {
+		return snapshot;
+	}
+
+	private static synchronized void publish(Map<BankSystemValue, Double> changes) {
+		snapshot = snapshot.with(changes);
 	}
 
 	public static void updateBankSystemValue(String key, String value) {
 		double amount = Double.parseDouble(value);
-		switch(key) {
-		case "CREDIT_CARD_MONTHLY_FEE":
-			CREDIT_CARD_MONTHLY_FEE.setAmount(amount);
-			break;
-		case "CREDIT_CARD_DEFAULT_CREDIT":
-			CREDIT_CARD_DEFAULT_CREDIT.setAmount(amount);
-			break;
-		case "CARD_EXPIRATION_LENGTH":
-			CARD_EXPIRATION_LENGTH.setAmount(amount);
-			break;
-		case "NEW_CARD_COST":
-			NEW_CARD_COST.setAmount(amount);
-			break;
-		case "CARD_USAGE_ATTEMPTS":
-			CARD_USAGE_ATTEMPTS.setAmount(amount);
-			break;
-		case "MAX_OVERDRAFT_LIMIT":
-			MAX_OVERDRAFT_LIMIT.setAmount(amount);
-			break;
-		case "INTEREST_RATE_1":
-			INTEREST_RATE_1.setAmount(amount);
-			break;
-		case "INTEREST_RATE_2":
-			INTEREST_RATE_2.setAmount(amount);
-			break;
-		case "INTEREST_RATE_3":
-			INTEREST_RATE_3.setAmount(amount);
-			break;
-		case "OVERDRAFT_INTEREST_RATE":
-			OVERDRAFT_INTEREST_RATE.setAmount(amount);
-			break;
-		case "DAILY_WITHDRAW_LIMIT":
-			DAILY_WITHDRAW_LIMIT.setAmount(amount);
-			break;
-		case "WEEKLY_TRANSFER_LIMIT":
-			WEEKLY_TRANSFER_LIMIT.setAmount(amount);
-			break;
+		try {
+			valueOf(key).setAmount(amount);
+		} catch (IllegalArgumentException e) {
+			System.out.println(key + " is not a bank system value.");
+			return;
 		}
 		System.out.println(key + " is updated to the new value: " + amount);
 	}
-	
-	public static void reset() {
-		CREDIT_CARD_MONTHLY_FEE.setAmount(5.0);
-		CREDIT_CARD_DEFAULT_CREDIT.setAmount(1000.0);
-		CARD_EXPIRATION_LENGTH.setAmount(4.0);
-		NEW_CARD_COST.setAmount(7.5);
-		CARD_USAGE_ATTEMPTS.setAmount(3.0);
-		MAX_OVERDRAFT_LIMIT.setAmount(5000.0);
-		INTEREST_RATE_1.setAmount(0.15);
-		INTEREST_RATE_2.setAmount(0.15);
-		INTEREST_RATE_3.setAmount(0.20);
-		OVERDRAFT_INTEREST_RATE.setAmount(10.0);
-		DAILY_WITHDRAW_LIMIT.setAmount(250.0);
-		WEEKLY_TRANSFER_LIMIT.setAmount(2500.0);
+
+	/**
+	 * Sets all values back to their defaults.
+	 */
+	public static synchronized void reset() {
+		snapshot = BankSystemSnapshot.defaults(snapshot.getVersion() + 1);
 	}
-	
+
+	/**
+	 * Applies the values of all executed <code>BANK_SYSTEM_VALUE_UPDATE</code> events, read with
+	 * one query, in order, and publishes the result as one snapshot.
+	 */
 	public static void init() {
 		System.out.println("Initializing bank system values.");
-		Map<String, String> result = new LinkedHashMap<>();
-    	Connection c = SQLiteDB.openConnection();	
+		Map<BankSystemValue, Double> result = new EnumMap<>(BankSystemValue.class);
+    	Connection c = SQLiteDB.openConnection();
 		ResultSet rs;
 		try {
-			PreparedStatement s = c.prepareStatement("SELECT * FROM timeevents WHERE executed = 1 AND name = 'BANK_SYSTEM_VALUE_UPDATE' ORDER BY timestamp ASC");
+			PreparedStatement s = SQLiteDB.prepare(c, NamedStatement.EXECUTED_EVENTS_BY_NAME);
+			s.setString(1, "BANK_SYSTEM_VALUE_UPDATE");
 			rs = s.executeQuery();
 			while (rs.next()) {
 				String[] descriptionArray = rs.getString("description").split(":");
-				result.put(descriptionArray[0], descriptionArray[1]);
+				try {
+					result.put(valueOf(descriptionArray[0]), Double.parseDouble(descriptionArray[1]));
+				} catch (IllegalArgumentException e) {
+					e.printStackTrace();
+				}
 			}
-		} catch (NumberFormatException | SQLException e) {
+		} catch (SQLException e) {
 			e.printStackTrace();
+		} finally {
+			SQLiteDB.closeConnection(c);
 		}
-		
-		for (Map.Entry<String, String> entry : result.entrySet()) {
-			updateBankSystemValue(entry.getKey(), entry.getValue());
+
+		if (!result.isEmpty()) {
+			publish(result);
+			System.out.println("Bank system values updated: " + result);
 		}
 	}
 }
@@ -0,0 +1,316 @@
+package server.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.Response;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParseException;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Request;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+import database.DataManager;
+import logging.Logger;
+import logging.Log.Type;
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONValue;
+import net.minidev.json.parser.ParseException;
+
+/**
+ * Handles JSON-RPC 2.0 batches: a JSON array of requests, answered with an array of their
+ * responses in the same order, each with the id of its request. Requests are done in order,
+ * except that a run of consecutive reads (see <code>READ_METHODS</code>) is done in parallel,
+ * since reads do not depend on each other.
+ * With the <code>transaction</code> option, the whole batch is done in order in one database
+ * transaction instead: as soon as a request fails the batch stops and is rolled back, and every
+ * request that had succeeded is answered with a <code>ROLLED_BACK</code> error. What the requests
+ * changed outside the database, like caches and sessions started by <code>getAuthToken</code>, is
+ * only applied when the batch is committed (see <code>DataManager.afterCommit()</code>). Methods
+ * that hold other locks than the database lock, like <code>simulateTime</code>, can not be part
+ * of a transaction.
+ * A batch may hold at most <code>MAX_BATCH_SIZE</code> requests; set with the
+ * <code>batch.maxSize</code> system property.
+ */
+public class BatchHandler {
+
+	public static final int MAX_BATCH_SIZE = Integer.getInteger("batch.maxSize", 100);
+
+	/**
+	 * The number of threads that do the reads of batches.
+	 */
+	private static final int READ_THREADS = Integer.getInteger("batch.readThreads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+	/**
+	 * The error of a request that succeeded in a transaction that was rolled back.
+	 */
+	public static final int ROLLED_BACK = -32000;
+
+	private static final Set<String> READ_METHODS = new HashSet<>(Arrays.asList(
+			"getBalance", "getTransactionsOverview", "getUserAccess", "getBankAccountAccess",
+			"getOverdraftLimit", "getDate", "getEventLogs"));
+
+	private static final Set<String> NON_TRANSACTIONAL_METHODS = new HashSet<>(Arrays.asList(
+			"simulateTime", "reset"));
+
+	/**
+	 * Does the reads. When all threads are busy and the queue is full, the thread of the batch
+	 * does a read itself, so a busy server slows down instead of failing.
+	 */
+	private static final ThreadPoolExecutor readers = createReaders();
+
+	/**
+	 * @param request The body of a request
+	 * @return True if the body is a JSON array, which is how a batch is recognized
+	 */
+	public static boolean isBatch(String request) {
+		for (int i = 0; i < request.length(); i++) {
+			char c = request.charAt(i);
+			if (!Character.isWhitespace(c)) {
+				return c == '[';
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A batch that has been parsed, but not done yet.
+	 */
+	public static final class Batch {
+		private final JSONRPC2Request[] requests;
+		private final JSONRPC2Response[] responses;
+		private final Response error;
+
+		private Batch(JSONRPC2Request[] requests, JSONRPC2Response[] responses, Response error) {
+			this.requests = requests;
+			this.responses = responses;
+			this.error = error;
+		}
+
+		/**
+		 * @return The methods of the valid requests of the batch, in order
+		 */
+		public List<String> getMethods() {
+			List<String> methods = new ArrayList<>();
+			if (requests != null) {
+				for (JSONRPC2Request request : requests) {
+					if (request != null) {
+						methods.add(request.getMethod());
+					}
+				}
+			}
+			return methods;
+		}
+	}
+
+	/**
+	 * Parses a batch, so it can be routed by its methods before it is done.
+	 * @param request A batch
+	 * @return The batch, which is answered with a single error if it is not valid
+	 */
+	public static Batch parse(String request) {
+		Object parsed;
+		try {
+			parsed = JSONValue.parseWithException(request);
+		} catch (ParseException e) {
+			String err = ServerHandler.buildError(-32700, "An error occurred while parsing the JSON input.");
+			return new Batch(null, null, ServerHandler.respondError(err));
+		}
+		if (!(parsed instanceof JSONArray) || ((JSONArray) parsed).isEmpty()) {
+			String err = ServerHandler.buildError(-32600, "The batch must be a non-empty array of requests.");
+			return new Batch(null, null, ServerHandler.respondError(err));
+		}
+		JSONArray entries = (JSONArray) parsed;
+		if (entries.size() > MAX_BATCH_SIZE) {
+			String err = ServerHandler.buildError(-32600, "The batch is too large.", "A batch may hold at most " + MAX_BATCH_SIZE + " requests.");
+			return new Batch(null, null, ServerHandler.respondError(err));
+		}
+
+		int size = entries.size();
+		JSONRPC2Request[] requests = new JSONRPC2Request[size];
+		JSONRPC2Response[] responses = new JSONRPC2Response[size];
+		for (int i = 0; i < size; i++) {
+			try {
+				requests[i] = JSONRPC2Request.parse(JSONValue.toJSONString(entries.get(i)));
+			} catch (JSONRPC2ParseException e) {
+				responses[i] = error(-32600, "Invalid request: " + e.getMessage(), null);
+			}
+		}
+		return new Batch(requests, responses, null);
+	}
+
+	/**
+	 * @param batch A batch, see <code>parse()</code>
+	 * @param transaction Whether to do the whole batch in one database transaction
+	 * @return The array of responses, or a single error if the batch itself is not valid
+	 */
+	public static Response handle(Batch batch, boolean transaction) {
+		if (batch.error != null) {
+			return batch.error;
+		}
+		if (transaction) {
+			handleInTransaction(batch.requests, batch.responses);
+		} else {
+			handleInOrder(batch.requests, batch.responses);
+		}
+
+		JSONArray result = new JSONArray();
+		for (JSONRPC2Response response : batch.responses) {
+			result.add(response.toJSONObject());
+		}
+		return Response.status(200).entity(result.toJSONString()).build();
+	}
+
+	/**
+	 * Does the requests in order, and runs of reads in parallel.
+	 */
+	private static void handleInOrder(JSONRPC2Request[] requests, JSONRPC2Response[] responses) {
+		int i = 0;
+		while (i < requests.length) {
+			if (!isRead(requests[i])) {
+				if (requests[i] != null) {
+					responses[i] = call(requests[i]);
+				}
+				i++;
+				continue;
+			}
+
+			int end = i + 1;
+			while (end < requests.length && isRead(requests[end])) {
+				end++;
+			}
+			List<Future<JSONRPC2Response>> reads = new ArrayList<>();
+			for (int j = i + 1; j < end; j++) {
+				final JSONRPC2Request read = requests[j];
+				reads.add(readers.submit(new Callable<JSONRPC2Response>() {
+					@Override
+					public JSONRPC2Response call() {
+						return BatchHandler.call(read);
+					}
+				}));
+			}
+			// The thread of the batch does the first read of the run itself
+			responses[i] = call(requests[i]);
+			for (int j = i + 1; j < end; j++) {
+				responses[j] = await(reads.get(j - i - 1), requests[j]);
+			}
+			i = end;
+		}
+	}
+
+	/**
+	 * Does the requests in order in one transaction, see the description of the class.
+	 */
+	private static void handleInTransaction(JSONRPC2Request[] requests, JSONRPC2Response[] responses) {
+		Object failedID = null;
+		boolean valid = true;
+		for (int i = 0; i < requests.length; i++) {
+			if (requests[i] != null && NON_TRANSACTIONAL_METHODS.contains(requests[i].getMethod())) {
+				responses[i] = error(-32600, "Method " + requests[i].getMethod() + " can not be part of a transaction.", requests[i].getID());
+			}
+			if (responses[i] != null) {
+				valid = false;
+			}
+		}
+
+		boolean committed = false;
+		if (valid) {
+			boolean succeeded = false;
+			DataManager.beginTransaction();
+			try {
+				for (int i = 0; i < requests.length && failedID == null; i++) {
+					responses[i] = call(requests[i]);
+					if (!responses[i].indicatesSuccess()) {
+						failedID = requests[i].getID();
+					}
+				}
+				succeeded = failedID == null;
+			} finally {
+				committed = DataManager.endTransaction(succeeded);
+			}
+		}
+
+		if (!committed) {
+			for (int i = 0; i < requests.length; i++) {
+				if (responses[i] == null || responses[i].indicatesSuccess()) {
+					Object id = requests[i] == null ? null : requests[i].getID();
+					String reason = failedID == null ? "The batch was not done." : "Request " + failedID + " failed.";
+					responses[i] = error(ROLLED_BACK, "The batch was rolled back. " + reason, id);
+				}
+			}
+		}
+	}
+
+	private static boolean isRead(JSONRPC2Request request) {
+		return request != null && READ_METHODS.contains(request.getMethod());
+	}
+
+	/**
+	 * Calls the method of a request and turns its HTTP response into a JSON-RPC response with
+	 * the id of the request.
+	 */
+	private static JSONRPC2Response call(JSONRPC2Request request) {
+		Response response;
+		try {
+			response = ServerHandler.dispatch(request);
+		} catch (RuntimeException e) {
+			logError("Request " + request.getID() + " of a batch failed: " + e);
+			return error(-32603, "An internal error occurred.", request.getID());
+		}
+		try {
+			JSONRPC2Response result = JSONRPC2Response.parse((String) response.getEntity());
+			result.setID(request.getID());
+			return result;
+		} catch (JSONRPC2ParseException | ClassCastException e) {
+			logError("The response to request " + request.getID() + " of a batch is not valid: " + e);
+			return error(-32603, "An internal error occurred.", request.getID());
+		}
+	}
+
+	private static JSONRPC2Response await(Future<JSONRPC2Response> read, JSONRPC2Request request) {
+		try {
+			return read.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			read.cancel(true);
+		} catch (ExecutionException e) {
+			logError("Request " + request.getID() + " of a batch failed: " + e.getCause());
+		}
+		return error(-32603, "An internal error occurred.", request.getID());
+	}
+
+	private static void logError(String message) {
+		Logger.addLogToDB(ServerModel.getServerCalendar().getTimeInMillis(), Type.ERROR, message);
+	}
+
+	private static JSONRPC2Response error(int code, String message, Object id) {
+		Logger.addMethodErrorLog(message, code);
+		return new JSONRPC2Response(new JSONRPC2Error(code, message), id);
+	}
+
+	private static ThreadPoolExecutor createReaders() {
+		final AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(READ_THREADS, READ_THREADS, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(READ_THREADS * 16), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "batch-reader-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+}
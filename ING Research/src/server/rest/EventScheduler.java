@@ -0,0 +1,220 @@
+package server.rest;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import database.DataManager;
+import database.NamedStatement;
+import database.SQLiteDB;
+
+/**
+ * Keeps the unexecuted <code>TimeEvent</code>s in memory, ordered by timestamp, so the
+ * <code>timeevents</code> table does not have to be scanned to find out what is due.
+ * The events are read from the database once, on first use; afterwards every saved
+ * <code>TimeEvent</code> is added, moved or (once executed) removed through <code>saved()</code>.
+ * The queue holds copies, so changing an event does not reorder the queue behind its back.
+ * An event whose handler failed is put back with <code>retry()</code> and becomes due again
+ * <code>RETRY_DELAY_MILLIS</code> later.
+ */
+public class EventScheduler {
+
+	/**
+	 * How long after a failure an event is due again, in server time.
+	 */
+	public static final long RETRY_DELAY_MILLIS = 3600L * 1000;
+
+	/**
+	 * A queued event and the time at which it is due: its timestamp, or later if it is retried.
+	 */
+	private static final class Scheduled {
+		private final TimeEvent event;
+		private final long due;
+
+		private Scheduled(TimeEvent event, long due) {
+			this.event = event;
+			this.due = due;
+		}
+	}
+
+	private static final Comparator<Scheduled> ORDER = new Comparator<Scheduled>() {
+		@Override
+		public int compare(Scheduled a, Scheduled b) {
+			int result = Long.compare(a.due, b.due);
+			return result != 0 ? result : Integer.compare(a.event.getID(), b.event.getID());
+		}
+	};
+
+	/**
+	 * Guards the queue. Never held while taking <code>SQLiteDB.connectionLock</code>.
+	 */
+	private static final Object lock = new Object();
+	private static final TreeSet<Scheduled> queue = new TreeSet<>(ORDER);
+	private static final HashMap<Integer, Scheduled> queuedByID = new HashMap<>();
+	private static volatile boolean loaded = false;
+
+	/**
+	 * Updates the queue once a saved <code>TimeEvent</code> has been committed, see
+	 * <code>DataManager.afterCommit()</code>.
+	 * @param t The saved event
+	 */
+	public static void saved(TimeEvent t) {
+		final TimeEvent saved = copy(t);
+		DataManager.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				if (!loaded) {
+					// Not loaded yet: the event will be read from the database instead
+					return;
+				}
+				schedule(saved, saved.getTimestamp(), true);
+			}
+		});
+	}
+
+	/**
+	 * Puts an event whose handler failed back into the queue, to be handled again
+	 * <code>RETRY_DELAY_MILLIS</code> after the given time. Does nothing if the event
+	 * was executed or saved meanwhile.
+	 * @param t The event that was taken out with <code>pollDue()</code>
+	 * @param nowMillis The server time of the failure
+	 */
+	public static void retry(TimeEvent t, long nowMillis) {
+		if (!loaded || t.isExecuted()) {
+			return;
+		}
+		schedule(t, Math.max(t.getTimestamp(), nowMillis + RETRY_DELAY_MILLIS), false);
+	}
+
+	/**
+	 * @param replace Whether to replace the queued entry of the event, if any
+	 */
+	private static void schedule(TimeEvent t, long due, boolean replace) {
+		boolean first = false;
+		synchronized (lock) {
+			Scheduled queued = queuedByID.get(t.getID());
+			if (queued != null) {
+				if (!replace) {
+					return;
+				}
+				queuedByID.remove(t.getID());
+				queue.remove(queued);
+			}
+			if (!t.isExecuted()) {
+				Scheduled scheduled = new Scheduled(copy(t), due);
+				queue.add(scheduled);
+				queuedByID.put(t.getID(), scheduled);
+				first = queue.first() == scheduled;
+			}
+		}
+		if (first) {
+			// The next event is earlier now
+			SchedulerService.reschedule();
+		}
+	}
+
+	/**
+	 * Takes all events that are due before the given time out of the queue. They stay
+	 * unexecuted in the database until their handler marks them executed; a handler that
+	 * fails should put its event back with <code>retry()</code>.
+	 * @param endMillis The (exclusive) end of the period
+	 * @return The due events, oldest first
+	 */
+	public static List<TimeEvent> pollDue(long endMillis) {
+		loadIfRequired();
+		List<TimeEvent> result = new ArrayList<>();
+		synchronized (lock) {
+			while (!queue.isEmpty() && queue.first().due < endMillis) {
+				Scheduled scheduled = queue.pollFirst();
+				queuedByID.remove(scheduled.event.getID());
+				result.add(scheduled.event);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param fromMillis A point in time
+	 * @return The time at which the first event at or after the given time is due, or
+	 * <code>Long.MAX_VALUE</code> if there is none
+	 */
+	public static long nextTimestamp(long fromMillis) {
+		loadIfRequired();
+		synchronized (lock) {
+			TimeEvent probe = new TimeEvent();
+			probe.setID(Integer.MIN_VALUE);
+			Scheduled next = queue.ceiling(new Scheduled(probe, fromMillis));
+			return next == null ? Long.MAX_VALUE : next.due;
+		}
+	}
+
+	/**
+	 * Forgets all events; they are read from the database again on next use.
+	 * Call whenever events are removed from the database.
+	 */
+	public static void clear() {
+		synchronized (lock) {
+			queue.clear();
+			queuedByID.clear();
+			loaded = false;
+		}
+		SchedulerService.reschedule();
+	}
+
+	/**
+	 * Reads all committed unexecuted events from the database. Holds the write lock, so no
+	 * event can be saved (and missed) meanwhile.
+	 */
+	private static void loadIfRequired() {
+		if (loaded) {
+			return;
+		}
+		DataManager.initIfRequired();
+		SQLiteDB.connectionLock.lock();
+		Connection c = null;
+		try {
+			if (loaded) {
+				return;
+			}
+			List<TimeEvent> events = new ArrayList<>();
+			c = SQLiteDB.openCommittedConnection();
+			ResultSet rs = SQLiteDB.prepare(c, NamedStatement.UNEXECUTED_EVENTS).executeQuery();
+			while (rs.next()) {
+				TimeEvent timeEvent = new TimeEvent();
+				timeEvent.setID(rs.getInt("ID"));
+				timeEvent.setName(rs.getString("name"));
+				timeEvent.setTimestamp(rs.getLong("timestamp"));
+				timeEvent.setDescription(rs.getString("description"));
+				timeEvent.setExecuted(false);
+				events.add(timeEvent);
+			}
+			rs.close();
+			synchronized (lock) {
+				queue.clear();
+				queuedByID.clear();
+				for (TimeEvent t : events) {
+					Scheduled scheduled = new Scheduled(t, t.getTimestamp());
+					queue.add(scheduled);
+					queuedByID.put(t.getID(), scheduled);
+				}
+				loaded = true;
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			SQLiteDB.closeConnection(c);
+			SQLiteDB.connectionLock.unlock();
+		}
+	}
+
+	private static TimeEvent copy(TimeEvent t) {
+		TimeEvent copy = new TimeEvent(t.getName(), t.getTimestamp(), t.getDescription(), t.isExecuted());
+		copy.setID(t.getID());
+		return copy;
+	}
+}
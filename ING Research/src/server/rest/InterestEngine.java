@@ -0,0 +1,234 @@
+package server.rest;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TimeZone;
+
+import accounts.HouseAccount;
+import database.NamedStatement;
+import database.SQLiteDB;
+import server.rest.InterestLedger.Book;
+
+/**
+ * Simulates the interest of all bank accounts over a number of days without stepping through
+ * them one by one. Balances only change when interest is posted (at the first of a month or
+ * year) or when a <code>TimeEvent</code> is handled, so the days in between are accrued in one
+ * go: the daily interest of a balance is multiplied by the number of days, per month length
+ * for negative interest. The result is the same as that of the day-by-day loop, which read
+ * all balances, accrued one day and rewrote the interest maps for every simulated day.
+ * Callers must hold <code>SQLiteDB.connectionLock</code>.
+ */
+public class InterestEngine {
+
+	private static final long DAY_MILLIS = 24L * 3600 * 1000;
+
+	/**
+	 * The balances that accrue interest, as read from the database.
+	 */
+	private static class Balances {
+		private final List<String> negativeIBANs = new ArrayList<>();
+		private final List<Double> negativeBalances = new ArrayList<>();
+		private final List<String> positiveIBANs = new ArrayList<>();
+		private final List<Double> positiveBalances = new ArrayList<>();
+		private final List<Boolean> positiveChild = new ArrayList<>();
+	}
+
+	/**
+	 * Simulates the given number of days, starting the day after the given calendar. For every
+	 * day, interest is accrued on the balances at the start of the day, then posted if the day
+	 * is the first of a month (negative interest) or year (positive interest), and then the
+	 * <code>TimeEvent</code>s of the day are handled, if requested.
+	 * @param c the calendar of the last day that was handled; it is moved forward by the given number of days
+	 * @param days the number of days to simulate
+	 * @param handleEvents whether the <code>TimeEvent</code>s of the simulated days should be handled
+	 */
+	public static void simulate(Calendar c, int days, boolean handleEvents) {
+		HashMap<String, Double> negativeTotals = InterestLedger.copy(Book.TOTAL_NEGATIVE_INTEREST);
+		HashMap<String, Double> positiveTotals = InterestLedger.copy(Book.TOTAL_POSITIVE_INTEREST);
+		Balances balances = readBalances();
+
+		// The number of days accrued per length of month, since negative interest depends on it
+		int[] daysPerMonthLength = new int[32];
+		int simulated = 0;
+		while (simulated < days) {
+			// Jump to the first of the next month, the next day with events or the last day, whichever comes first
+			int monthLength = c.getActualMaximum(Calendar.DATE);
+			int untilFirstOfMonth = monthLength - c.get(Calendar.DATE) + 1;
+			int span = Math.min(untilFirstOfMonth, days - simulated);
+			if (handleEvents) {
+				span = (int) Math.min(span, daysUntilNextEvent(c));
+			}
+			int inThisMonth = Math.min(span, untilFirstOfMonth - 1);
+			c.add(Calendar.DATE, span);
+			simulated += span;
+			daysPerMonthLength[monthLength] += inThisMonth;
+			// The first of the next month, if the span reaches it
+			daysPerMonthLength[c.getActualMaximum(Calendar.DATE)] += span - inThisMonth;
+
+			boolean firstOfMonth = c.get(Calendar.DATE) == 1;
+			boolean firstOfYear = c.get(Calendar.DAY_OF_YEAR) == 1;
+			boolean events = handleEvents && hasEvents(c);
+
+			accrue(balances, daysPerMonthLength, span, negativeTotals, positiveTotals);
+			for (int i = 0; i < daysPerMonthLength.length; i++) {
+				daysPerMonthLength[i] = 0;
+			}
+			System.out.println("[INFO] Accrued interest over " + span + " day(s) up to " + c.getTime());
+
+			if (!firstOfMonth && !events) {
+				continue;
+			}
+
+			// Post the interest and handle the events the way the day-by-day loop did, through the ledger
+			InterestLedger.replace(Book.TOTAL_NEGATIVE_INTEREST, negativeTotals);
+			InterestLedger.replace(Book.TOTAL_POSITIVE_INTEREST, positiveTotals);
+			if (firstOfMonth) {
+				InterestHandler.transferNegativeInterest();
+			}
+			if (firstOfYear) {
+				InterestHandler.transferPositiveInterest();
+			}
+			if (events) {
+				TimeOperator.updateSystem(c);
+			}
+			negativeTotals = InterestLedger.copy(Book.TOTAL_NEGATIVE_INTEREST);
+			positiveTotals = InterestLedger.copy(Book.TOTAL_POSITIVE_INTEREST);
+			balances = readBalances();
+		}
+
+		InterestLedger.replace(Book.TOTAL_NEGATIVE_INTEREST, negativeTotals);
+		InterestLedger.replace(Book.TOTAL_POSITIVE_INTEREST, positiveTotals);
+		InterestHandler.initializeLowestNegativeDailyReachMap();
+		InterestHandler.initializeLowestPositiveDailyReachMap();
+		HouseAccount.consolidate();
+	}
+
+	/**
+	 * Adds the interest over a span of days to the totals.
+	 * @param daysPerMonthLength the number of days of the span per length of their month
+	 * @param span the number of days
+	 */
+	private static void accrue(Balances balances, int[] daysPerMonthLength, int span,
+			HashMap<String, Double> negativeTotals, HashMap<String, Double> positiveTotals) {
+		// Events that change the rates end a span, so the rates are the same for the whole span
+		BankSystemSnapshot rates = BankSystemValue.snapshot();
+		for (int i = 0; i < balances.negativeIBANs.size(); i++) {
+			double balance = balances.negativeBalances.get(i);
+			double interest = 0;
+			for (int monthLength = 28; monthLength < daysPerMonthLength.length; monthLength++) {
+				if (daysPerMonthLength[monthLength] > 0) {
+					interest += daysPerMonthLength[monthLength] * InterestHandler.calculateNegativeInterest(rates, balance, monthLength);
+				}
+			}
+			add(negativeTotals, balances.negativeIBANs.get(i), interest);
+		}
+
+		for (int i = 0; i < balances.positiveIBANs.size(); i++) {
+			double interest = span * InterestHandler.calculatePositiveInterest(rates, balances.positiveBalances.get(i), balances.positiveChild.get(i));
+			add(positiveTotals, balances.positiveIBANs.get(i), interest);
+		}
+	}
+
+	private static void add(HashMap<String, Double> totals, String IBAN, double interest) {
+		Double current = totals.get(IBAN);
+		totals.put(IBAN, current == null ? interest : current + interest);
+	}
+
+	/**
+	 * Reads the negative balances of all bank accounts and the positive balances of all savings
+	 * and child accounts, like <code>InterestHandler</code> does to initialize its lowest daily maps.
+	 */
+	private static Balances readBalances() {
+		Balances balances = new Balances();
+		HashMap<String, Double> positive = new HashMap<>();
+		HashSet<String> children = new HashSet<>();
+		Connection c = null;
+		try {
+			c = SQLiteDB.openConnection();
+			ResultSet rs = SQLiteDB.prepare(c, NamedStatement.NEGATIVE_BALANCES).executeQuery();
+			while (rs.next()) {
+				balances.negativeIBANs.add(rs.getString("IBAN"));
+				balances.negativeBalances.add(rs.getDouble("balance"));
+			}
+			rs.close();
+
+			rs = SQLiteDB.prepare(c, NamedStatement.POSITIVE_SAVINGS_BALANCES).executeQuery();
+			while (rs.next()) {
+				positive.put(rs.getString("IBAN"), rs.getDouble("balance"));
+			}
+			rs.close();
+
+			// Child bank accounts have their interest calculated over their normal bank accounts
+			rs = SQLiteDB.prepare(c, NamedStatement.POSITIVE_CHILD_BALANCES).executeQuery();
+			while (rs.next()) {
+				positive.put(rs.getString("IBAN"), rs.getDouble("balance"));
+			}
+			rs.close();
+
+			rs = SQLiteDB.prepare(c, NamedStatement.CHILD_IBANS).executeQuery();
+			while (rs.next()) {
+				children.add(rs.getString("IBAN"));
+			}
+			rs.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			SQLiteDB.closeConnection(c);
+		}
+
+		for (Entry<String, Double> entry : positive.entrySet()) {
+			balances.positiveIBANs.add(entry.getKey());
+			balances.positiveBalances.add(entry.getValue());
+			balances.positiveChild.add(children.contains(entry.getKey()));
+		}
+		return balances;
+	}
+
+	/**
+	 * @return the number of days from the day of the given calendar to the first day after it
+	 * with a pending <code>TimeEvent</code>, or <code>Long.MAX_VALUE</code> if there is none
+	 */
+	private static long daysUntilNextEvent(Calendar c) {
+		long next = EventScheduler.nextTimestamp(startOfNextDay(c));
+		if (next == Long.MAX_VALUE) {
+			return next;
+		}
+		return Math.max(1, localDay(next) - localDay(c.getTimeInMillis()));
+	}
+
+	/**
+	 * @return true if there is a pending <code>TimeEvent</code> on the day of the given calendar
+	 */
+	private static boolean hasEvents(Calendar c) {
+		return EventScheduler.nextTimestamp(startOfDay(c)) < startOfNextDay(c);
+	}
+
+	private static long startOfNextDay(Calendar c) {
+		Calendar day = (Calendar) c.clone();
+		day.add(Calendar.DATE, 1);
+		return startOfDay(day);
+	}
+
+	/**
+	 * @return the number of the local day a point in time falls on
+	 */
+	private static long localDay(long millis) {
+		return Math.floorDiv(millis + TimeZone.getDefault().getOffset(millis), DAY_MILLIS);
+	}
+
+	private static long startOfDay(Calendar c) {
+		Calendar day = (Calendar) c.clone();
+		day.set(Calendar.HOUR_OF_DAY, 0);
+		day.set(Calendar.MINUTE, 0);
+		day.set(Calendar.SECOND, 0);
+		day.set(Calendar.MILLISECOND, 0);
+		return day.getTimeInMillis();
+	}
+}
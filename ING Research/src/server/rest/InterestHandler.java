@@ -5,29 +5,29 @@ import java.math.RoundingMode;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.List;
 
 import accounts.BankAccount;
+import accounts.BulkPosting;
+import accounts.BulkPosting.Ledger;
 import database.DataManager;
+import database.NamedStatement;
 import database.SQLiteDB;
 import exceptions.ClosedAccountTransferException;
 import exceptions.ExceedLimitException;
 import exceptions.IllegalAmountException;
-import exceptions.InsufficientFundsTransferException;
 import exceptions.ObjectDoesNotExistException;
-import exceptions.SameAccountTransferException;
+import server.rest.InterestLedger.Book;
 
 /**
  * A class that handles the interest calculation for real time banking AND
  * time simulated banking. 
- * Since it supports real time, it needs to keep act upon time, hence the Thread extension.
+ * In real time, <code>handleDay()</code> is run every midnight by the <code>SchedulerService</code>.
  * @author Justin Praas
  */
-public class InterestHandler extends Thread {
+public class InterestHandler {
 
 	/**
 	 * Indicates the time when we last deducted all customer's interest from their accounts.
@@ -44,50 +44,16 @@ public class InterestHandler extends Thread {
 	
 	private static Calendar previousPositiveBalanceStoring;
 	
-	/**
-	 * The monthly interest rate of this bank.
-	 */
-	private static final double MONTHLY_INTEREST_RATE = 
-			Math.pow((1 + BankSystemValue.OVERDRAFT_INTEREST_RATE.getAmount()), (1 / 12)) - 1;
-
-	private static final double DAILY_INTEREST_RATE_RANGE_1 =
-			BankSystemValue.INTEREST_RATE_1.getAmount() / 365;
-	
-	private static final double DAILY_INTEREST_RATE_RANGE_2 = 
-			BankSystemValue.INTEREST_RATE_2.getAmount() / 365;
-	
-	private static final double DAILY_INTEREST_RATE_RANGE_3 = 
-			BankSystemValue.INTEREST_RATE_3.getAmount() / 365;
-	
-	private static final double CHILD_INTEREST_RATE = 
-			BankSystemValue.CHILD_INTEREST_RATE.getAmount() / 365;
-	
-	/**
-	 * A map that keeps track of the lowest daily balances of accounts.
+	/*
+	 * The interest rates are read from the current BankSystemSnapshot, so changes of the
+	 * BankSystemValues apply from the next calculation on.
 	 */
-	private static HashMap<String, Double> lowestNegativeDailyReachMap = new HashMap<>();
-	
-	private static HashMap<String, Double> lowestPositiveDailyReachMap = new HashMap<>();
 
-	/**
-	 * A map that keeps track of the total interest of accounts.
+	/*
+	 * The lowest daily balances and the total interest of accounts are kept in the
+	 * InterestLedger.
 	 */
-	@SuppressWarnings("unused")
-	private static HashMap<String, Double> totalMonthlyInterestMap = new HashMap<>();
-	
-	@SuppressWarnings("unused")
-	private static HashMap<String, Double> totalYearlyPositiveInterestMap = new HashMap<>();
 
-	/**
-	 * A variable that is used for when we simulate time.
-	 */
-	public int newlySimulatedDays = 0;
-	
-	public InterestHandler() {		
-		intializeData();
-		start();		
-	}
-	
 	/**
 	 * Initialized the data needed for the interest handler.
 	 * If no data can be found in the files (See ServerDataHandler), then all data
@@ -142,89 +108,66 @@ public class InterestHandler extends Thread {
 			previousPositiveBalanceStoring.setTimeInMillis(previousPositiveBalanceStoringMillis);
 		}
 		
-		// Set the lowestNegativeDailyReachMap
-		lowestNegativeDailyReachMap = ServerDataHandler.getNegativeLowestDailyReachMap();
-		if (lowestNegativeDailyReachMap.size() == 0) {
+		// Recover the maps from the ledger and initialize the lowest daily reaches if there are none
+		if (InterestLedger.size(Book.NEGATIVE_LOWEST_DAILY) == 0) {
 			initializeLowestNegativeDailyReachMap();
 		}
 		
-		// Set the totalMonthlyInterestMap 
-		totalMonthlyInterestMap = ServerDataHandler.getTotalNegativeInterestMap();	
-
-		// Set the lowestPositiveDailyReachMap
-		lowestPositiveDailyReachMap = ServerDataHandler.getPositiveLowestDailyReachMap();
-		if (lowestPositiveDailyReachMap.size() == 0) {
+		if (InterestLedger.size(Book.POSITIVE_LOWEST_DAILY) == 0) {
 			initializeLowestPositiveDailyReachMap();
 		}
-		
-		// Set the totalYearlyInterestMap 
-		totalYearlyPositiveInterestMap = ServerDataHandler.getTotalPositiveInterestMap();
-		
 	}
 
 	/**
-	 * Sets the map of total interest for the interest handler and stores it a file.
+	 * Replaces the map of total interest in the <code>InterestLedger</code>.
 	 * @param totalInterestMap the new map of total interest
 	 */
 	public static void setTotalNegativeInterestMap(HashMap<String, Double> totalInterestMap) {
-		totalMonthlyInterestMap = totalInterestMap;
-		ServerDataHandler.setTotalNegativeInterestMap(totalInterestMap);
+		InterestLedger.replace(Book.TOTAL_NEGATIVE_INTEREST, totalInterestMap);
 	}
 	
 	public static void setTotalPositiveInterestMap(HashMap<String, Double> totalInterstMap) {
-		totalYearlyPositiveInterestMap = totalInterstMap;
-		ServerDataHandler.setTotalPositiveInterestMap(totalInterstMap);
+		InterestLedger.replace(Book.TOTAL_POSITIVE_INTEREST, totalInterstMap);
 	}
 
 	/**
-	 * Sets the map of lowest daily balances for the interest handler and stores it in a file.
+	 * Replaces the map of lowest daily balances in the <code>InterestLedger</code>.
 	 * @param lowestNegativeDailyMap the new map of lowest daily balances
 	 */
 	public static void setNegativeLowestDailyReachMap(HashMap<String, Double> lowestNegativeDailyMap) {
-		lowestNegativeDailyReachMap = lowestNegativeDailyMap;
-		ServerDataHandler.setNegativeLowestDailyReachMap(lowestNegativeDailyMap);
+		InterestLedger.replace(Book.NEGATIVE_LOWEST_DAILY, lowestNegativeDailyMap);
 	}
 	
 	public static void setPositiveLowestDailyReachMap(HashMap<String, Double> lowestPositiveDailyMap) {
-		lowestPositiveDailyReachMap = lowestPositiveDailyMap;
-		ServerDataHandler.setPositiveLowestDailyReachMap(lowestPositiveDailyReachMap);
+		InterestLedger.replace(Book.POSITIVE_LOWEST_DAILY, lowestPositiveDailyMap);
 	}
 
 	/**
-	 * Sets the lowest daily balance of a specific bank account and then writes the map
-	 * like <code>setLowestDailyReachMap()</code> does.
+	 * Sets the lowest daily balance of a specific bank account if the balance is lower than
+	 * the one the <code>InterestLedger</code> holds. Inside a transaction the ledger is only
+	 * updated once the transaction has been committed.
 	 * @param IBAN the IBAN that has a new lower balance
 	 * @param balance the bank account's balance
 	 */
-	public static void setLowestNegativeDailyReachMapEntry(String IBAN, double balance) {
-		// FETCH: map
-		HashMap<String, Double> currentLowestDailyReachMap = ServerDataHandler.getNegativeLowestDailyReachMap();
-		Double currentLowestBalance = currentLowestDailyReachMap.get(IBAN);
-		
+	public static void setLowestNegativeDailyReachMapEntry(final String IBAN, final double balance) {
 		if (balance < 0) {
-			if (currentLowestBalance == null || currentLowestBalance > balance) {
-				HashMap<String, Double> map = ServerDataHandler.getNegativeLowestDailyReachMap();
-				map.put(IBAN, balance);
-				
-				// SET: map
-				setNegativeLowestDailyReachMap(currentLowestDailyReachMap);
-			}
+			DataManager.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					InterestLedger.setIfLower(Book.NEGATIVE_LOWEST_DAILY, IBAN, balance);
+				}
+			});
 		}		
 	}
 	
-	public static void setLowestPositiveDailyReachMapEntry(String IBAN, double balance) {
-		// FETCH: map
-		HashMap<String, Double> currentLowestPositiveDailyReachMap = ServerDataHandler.getPositiveLowestDailyReachMap();
-		Double currentLowestBalance = currentLowestPositiveDailyReachMap.get(IBAN);
-		
+	public static void setLowestPositiveDailyReachMapEntry(final String IBAN, final double balance) {
 		if (balance < 0) {
-			if (currentLowestBalance == null || currentLowestBalance > balance) {
-				HashMap<String, Double> map = ServerDataHandler.getPositiveLowestDailyReachMap();
-				map.put(IBAN, balance);
-				
-				// SET: map
-				setPositiveLowestDailyReachMap(currentLowestPositiveDailyReachMap);
-			}
+			DataManager.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					InterestLedger.setIfLower(Book.POSITIVE_LOWEST_DAILY, IBAN, balance);
+				}
+			});
 		}	
 	}
 
@@ -235,18 +178,17 @@ public class InterestHandler extends Thread {
 	 */
 	public static void initializeLowestNegativeDailyReachMap() {
 		HashMap<String, Double> newLowestDailyReachMap = new HashMap<>();
+		Connection c = null;
 		try {
-			SQLiteDB.connectionLock.lock();
-			Connection c = SQLiteDB.openConnection();
-			Statement s = c.createStatement();
-			ResultSet rs = s.executeQuery("SELECT IBAN, balance FROM bankaccounts WHERE balance < 0;");
+			c = SQLiteDB.openConnection();
+			ResultSet rs = SQLiteDB.prepare(c, NamedStatement.NEGATIVE_BALANCES).executeQuery();
 			while (rs.next()) {
 				newLowestDailyReachMap.put(rs.getString("IBAN"), rs.getDouble("balance"));
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
 		} finally {
-			SQLiteDB.connectionLock.unlock();
+			SQLiteDB.closeConnection(c);
 		}
 		
 		// SET: map
@@ -260,24 +202,23 @@ public class InterestHandler extends Thread {
 	 */
 	public static void initializeLowestPositiveDailyReachMap() {
 		HashMap<String, Double> newLowestPositiveDailyReachMap = new HashMap<>();
+		Connection c = null;
 		try {
-			SQLiteDB.connectionLock.lock();
-			Connection c = SQLiteDB.openConnection();
-			Statement s = c.createStatement();
-			ResultSet rs1 = s.executeQuery("SELECT IBAN, balance FROM savingsaccounts WHERE balance > 0;");
+			c = SQLiteDB.openConnection();
+			ResultSet rs1 = SQLiteDB.prepare(c, NamedStatement.POSITIVE_SAVINGS_BALANCES).executeQuery();
 			while (rs1.next()) {
 				newLowestPositiveDailyReachMap.put(rs1.getString("IBAN"), rs1.getDouble("balance"));
 			}
 			
 			// Child bank accounts should have their interest calculated over their normal bank accounts
-			ResultSet rs2 = s.executeQuery("SELECT IBAN, balance FROM bankaccounts WHERE accounttype = 'child' AND balance > 0;");
+			ResultSet rs2 = SQLiteDB.prepare(c, NamedStatement.POSITIVE_CHILD_BALANCES).executeQuery();
 			while (rs2.next()) {
 				newLowestPositiveDailyReachMap.put(rs2.getString("IBAN"), rs2.getDouble("balance"));
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
 		} finally {
-			SQLiteDB.connectionLock.unlock();
+			SQLiteDB.closeConnection(c);
 		}
 		
 		// SET: map
@@ -336,82 +277,34 @@ public class InterestHandler extends Thread {
 	}
 
 	/**
-	 * The Thread that runs as if it constantly watches the time (unless it doesn't need to do
-	 * anything). There are two situations:
-	 * Situation 1: The server is running real time (or real time ON simulated time)...
-	 * 		- What this means is that, when we wait for the clock to strike nearly midnight,
-	 * 		  it will calculate the interest or even transfer money if the Server's date is the last
-	 * 		  day of the month.
-	 * 		  The thread is put to sleep as long as it doesn't need to do anything, see
-	 * 		  <code>calculateShortestSleep()</code>.
-	 * Situation 2: Time is simulated and this Thread is interrupted.
-	 * 		- The <code>newlySimulatedDays</code> is set by the 'interrupter' and the method 
-	 * 		  to calculate interest over simulated time is executed. Afterwards continues with the 
-	 * 		  real time checking (situation 1).
+	 * Does the interest work of the day that starts at the given server time: adds the lowest
+	 * balances of the day that just ended to the total interest and, on the first of the month
+	 * (or year), transfers the interest to (or from) the ING account. Every step is done at most
+	 * once a day, so running this twice on a day is harmless.
+	 * @param c the server time, normally just after midnight
 	 */
-	@Override
-	public void run() {		
-		while (true) {			
-			SQLiteDB.connectionLock.lock();	
-			
-			// The server's current time and date
-			Calendar c = ServerModel.getServerCalendar();
-			
-			// If it's the time to add the daily lowest reaches to the total interest AND transfer
-			// the interest to the ING account:
-			if (isTimeToTransferPositiveInterest(c)) {
-				System.out.println("is time to transfer positive interest");
-				// Do everything
-				addNegativeBalancesToTotalNegativeInterest(c);
-				addPositiveBalancesToTotalPositiveInterest(c);
-				transferNegativeInterest();
-				transferPositiveInterest();
-			} else if (isTimeToTransferNegativeInterest(c)) {
-				System.out.println("INTEREST: Time to transfer interest");
-				addNegativeBalancesToTotalNegativeInterest(c);
-				transferNegativeInterest();
-			} else if (isTimeToAddBalances(c)) {
-				System.out.println("INTEREST: Time to add balances");
-				addNegativeBalancesToTotalNegativeInterest(c);		
-				addPositiveBalancesToTotalPositiveInterest(c);				
-			}
-			
-			SQLiteDB.connectionLock.unlock();	
-			try {
-				// Sleep for an hour
-				Thread.sleep(1000 * 3600);
-			} catch (InterruptedException e) {
-				
-			}	
-		}		
-	}
-	
-	/**
-	 * Calculates how long the InterestHandler thread needs to sleep until it either needs to
-	 * transfer and/or add balances to the total interest map.
-	 * @param c the calendar representation of the server's time
-	 * @return the milliseconds of time that the InterestHandler needs to sleep.
-	 */
-	public static long calculateShortestSleep(Calendar c) {
-		Calendar now = c;
-		long nowMillis = now.getTimeInMillis();
-		
-		// Time until next midnight
-		Calendar nextMidnight = c;
-		
-		if (now.get(Calendar.HOUR_OF_DAY) >= 0 && now.get(Calendar.MINUTE) >= 1) {
-			nextMidnight.add(Calendar.DATE, 1);
+	static void handleDay(Calendar c) {
+		if (!didStoreBalancesOn(c)) {
+			System.out.println("[INFO] Adding the daily balances to the interest");
+			addNegativeBalancesToTotalNegativeInterest(c);
+			addPositiveBalancesToTotalPositiveInterest(c);
+			setPreviousNegativeBalanceStoringDate();
+			setPreviousPositiveBalanceStoringDate();
 		}
 		
-		nextMidnight.set(Calendar.HOUR_OF_DAY, 0);
-		nextMidnight.set(Calendar.MINUTE, 0);
-		Date date = nextMidnight.getTime();
-		long dateMillis = date.getTime();
-		long millisUntilNextMidNight = dateMillis - nowMillis;
+		if (isTimeToTransferNegativeInterest(c)) {
+			System.out.println("[INFO] Transferring the negative interest");
+			transferNegativeInterest();
+			setPreviousNegativeInterestExecutionDate();
+		}
 		
-		return millisUntilNextMidNight;
+		if (isTimeToTransferPositiveInterest(c)) {
+			System.out.println("[INFO] Transferring the positive interest");
+			transferPositiveInterest();
+			setPreviousPositiveInterestExecutionDate();
+		}
 	}
-
+	
 	/**
 	 * Calculates the interest for a balance for one day in a specific month.
 	 * @param balance the balance on which interest needs to be calculated
@@ -419,23 +312,45 @@ public class InterestHandler extends Thread {
 	 * @return the interest on the given balance
 	 */
 	public static double calculateNegativeInterest(double balance, int maxDateOfMonth) {
-		return balance * MONTHLY_INTEREST_RATE / maxDateOfMonth; 
+		return calculateNegativeInterest(BankSystemValue.snapshot(), balance, maxDateOfMonth);
+	}
+	
+	/**
+	 * Calculates the interest for a balance for one day in a specific month.
+	 * @param rates the bank system values to calculate with
+	 * @param balance the balance on which interest needs to be calculated
+	 * @param maxDateOfMonth the date of the last day of the month (e.g. 30, 28, 31, 29)
+	 * @return the interest on the given balance
+	 */
+	public static double calculateNegativeInterest(BankSystemSnapshot rates, double balance, int maxDateOfMonth) {
+		return balance * rates.getMonthlyOverdraftRate() / maxDateOfMonth; 
 	}
 	
 	public static double calculatePositiveInterest(double balance, boolean child) {
+		return calculatePositiveInterest(BankSystemValue.snapshot(), balance, child);
+	}
+	
+	/**
+	 * Calculates the interest for a positive balance for one day.
+	 * @param rates the bank system values to calculate with
+	 * @param balance the balance on which interest needs to be calculated
+	 * @param child whether the balance is of a child account
+	 * @return the interest on the given balance
+	 */
+	public static double calculatePositiveInterest(BankSystemSnapshot rates, double balance, boolean child) {
 		if (child) {
 			if (balance < 2500) {
-				return balance * CHILD_INTEREST_RATE;
+				return balance * rates.getDailyChildInterestRate();
 			} else {
-				return 2500 * CHILD_INTEREST_RATE;
+				return 2500 * rates.getDailyChildInterestRate();
 			}			
 		} else {
 			if (balance < 25000) {
-				return balance * DAILY_INTEREST_RATE_RANGE_1;
+				return balance * rates.getDailyInterestRate1();
 			} else if (balance >= 2500 && balance < 75000) {
-				return balance * DAILY_INTEREST_RATE_RANGE_2;
+				return balance * rates.getDailyInterestRate2();
 			} else if (balance >= 75000 && balance < 1000000) {
-				return balance * DAILY_INTEREST_RATE_RANGE_3;
+				return balance * rates.getDailyInterestRate3();
 			} else {
 				return 0;
 			}
@@ -484,128 +399,150 @@ public class InterestHandler extends Thread {
 	public static void calculateTimeSimulatedInterest(int days) {
 		Calendar c = ServerModel.getServerCalendar();
 		
-		SQLiteDB.connectionLock.lock();	
-		
-		initializeLowestNegativeDailyReachMap();
-		initializeLowestPositiveDailyReachMap();
-		
-		for (int i = 1; i <= days; i++) {				
-			
-			// Add balances
-			addNegativeBalancesToTotalNegativeInterest(c);
-			addPositiveBalancesToTotalPositiveInterest(c);	
-			
-			// Add a day to the calendar
-			c.add(Calendar.DATE, 1);
-			
-			
-			// Transfer the money
-			if (c.get(Calendar.DATE) == 1) {
-				transferNegativeInterest();
-			}
-			
-			if (c.get(Calendar.DAY_OF_YEAR) == 1) {
-				transferPositiveInterest();
-			}
+		SQLiteDB.connectionLock.lock();
+		try {
+			InterestEngine.simulate(c, days, false);
+		} finally {
+			SQLiteDB.connectionLock.unlock();
 		}
-		
-		SQLiteDB.connectionLock.unlock();			
 	}
 
 	/**
 	 * Transfers the interest values of all bank accounts that are in the map of total interest 
-	 * to the ING bank account.
+	 * to the ING bank account. The charges are prepared per partition (see 
+	 * <code>InterestPartitions</code>) and posted together in one <code>BulkPosting</code>, 
+	 * which credits the ING account once with the total.
 	 */
 	public static void transferNegativeInterest() {
 		// FETCH: map
-		HashMap<String, Double> currentTotalMonthlyInterestMap = ServerDataHandler.getTotalNegativeInterestMap();
-		
-		//System.out.println("INTEREST: transfering interest from " + currentTotalMonthlyInterestMap.size() + " customers");
-		for (Entry<String, Double> entry : currentTotalMonthlyInterestMap.entrySet()) {
-			BankAccount bankAccount;
-			try {
-				// Transfer the money to the ING account
-				double rounded = round(entry.getValue(), 2);
-				System.out.println(entry.getKey() + ": transfering " + rounded);
-				bankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, entry.getKey());
-				double currentBalance = bankAccount.getBalance();
-				bankAccount.transfer(BankAccount.ING_BANK_ACCOUNT_IBAN, -1 * entry.getValue(), "Negative interest credit");
-				double newBalance = bankAccount.getBalance();
-				
-				System.out.println(bankAccount.getIBAN() + ": old balance is " + currentBalance + ", new balance is " + newBalance);
-				
-			} catch (ObjectDoesNotExistException | InsufficientFundsTransferException | ClosedAccountTransferException | SameAccountTransferException 
-					| IllegalAmountException | ExceedLimitException e) {
-				e.printStackTrace();
+		final HashMap<String, Double> currentTotalMonthlyInterestMap = InterestLedger.copy(Book.TOTAL_NEGATIVE_INTEREST);
+		
+		List<BulkPosting> postings = InterestPartitions.run(currentTotalMonthlyInterestMap.keySet(), new InterestPartitions.Task<BulkPosting>() {
+			@Override
+			public BulkPosting run(List<String> IBANs) {
+				BulkPosting posting = new BulkPosting();
+				List<BankAccount> bankAccounts = DataManager.findAll(BankAccount.CLASSNAME, IBANs);
+				for (int i = 0; i < IBANs.size(); i++) {
+					BankAccount bankAccount = bankAccounts.get(i);
+					double interest = -1 * currentTotalMonthlyInterestMap.get(IBANs.get(i));
+					try {
+						if (bankAccount == null) {
+							throw new ObjectDoesNotExistException(BankAccount.CLASSNAME, IBANs.get(i));
+						}
+						posting.record(bankAccount.negativeInterestTransaction(interest));
+						posting.change(Ledger.BANK, bankAccount.getIBAN(), -interest);
+						posting.changeIngBalance(interest);
+					} catch (ObjectDoesNotExistException | ClosedAccountTransferException | IllegalAmountException 
+							| ExceedLimitException e) {
+						e.printStackTrace();
+					}
+				}
+				return posting;
 			}
-		}
+		});
 		
-		currentTotalMonthlyInterestMap = new HashMap<>();
+		BulkPosting posting = merge(postings);
+		if (posting.post()) {
+			System.out.println("[INFO] Transferred " + round(posting.getIngChange(), 2) + " of negative interest from " 
+					+ posting.getTransactionCount() + " account(s) to the ING account");
+		}
 		
 		// SET: map
-		setTotalNegativeInterestMap(currentTotalMonthlyInterestMap);
+		setTotalNegativeInterestMap(new HashMap<String, Double>());
 		initializeLowestNegativeDailyReachMap();
 	}
 
-	private static void transferPositiveInterest() {
+	/**
+	 * Transfers the interest values of all accounts that are in the map of total positive interest
+	 * from the ING bank account to their savings accounts, or to the accounts themselves for child
+	 * accounts. Prepared per partition and posted in one <code>BulkPosting</code>, like
+	 * <code>transferNegativeInterest()</code>.
+	 */
+	static void transferPositiveInterest() {
 		// FETCH: map
-		HashMap<String, Double> currentTotalYearlyInterestMap = ServerDataHandler.getTotalPositiveInterestMap();
+		final HashMap<String, Double> currentTotalYearlyInterestMap = InterestLedger.copy(Book.TOTAL_POSITIVE_INTEREST);
+		final BankAccount ingBankAccount;
+		try {
+			ingBankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, BankAccount.ING_BANK_ACCOUNT_IBAN);
+		} catch (ObjectDoesNotExistException e) {
+			e.printStackTrace();
+			return;
+		}
 		
-		//System.out.println("INTEREST: transfering interest from " + currentTotalMonthlyInterestMap.size() + " customers");
-		for (Entry<String, Double> entry : currentTotalYearlyInterestMap.entrySet()) {
-			BankAccount bankAccount;
-			BankAccount ingBankAccount;
-			try {
-				// Transfer the money to the ING account
-				double rounded = round(entry.getValue(), 2);
-				bankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, entry.getKey());
-				ingBankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, BankAccount.ING_BANK_ACCOUNT_IBAN);
-				System.out.println("Transfering " + rounded + " to " + bankAccount.getIBAN());
-				ingBankAccount.transfer(bankAccount.getIBAN(), entry.getValue());
-			} catch (ObjectDoesNotExistException e) {
-				e.printStackTrace();
+		List<BulkPosting> postings = InterestPartitions.run(currentTotalYearlyInterestMap.keySet(), new InterestPartitions.Task<BulkPosting>() {
+			@Override
+			public BulkPosting run(List<String> IBANs) {
+				BulkPosting posting = new BulkPosting();
+				List<BankAccount> bankAccounts = DataManager.findAll(BankAccount.CLASSNAME, IBANs);
+				for (int i = 0; i < IBANs.size(); i++) {
+					BankAccount bankAccount = bankAccounts.get(i);
+					double interest = currentTotalYearlyInterestMap.get(IBANs.get(i));
+					if (interest <= 0) {
+						// No interest was built up, so there is nothing to pay
+						continue;
+					}
+					try {
+						if (bankAccount == null) {
+							throw new ObjectDoesNotExistException(BankAccount.CLASSNAME, IBANs.get(i));
+						}
+						posting.record(ingBankAccount.interestTransaction(bankAccount.getIBAN(), interest));
+						boolean isChild = bankAccount.getAccountType().equals("child");
+						posting.change(isChild ? Ledger.BANK : Ledger.SAVINGS, bankAccount.getIBAN(), interest);
+						posting.changeIngBalance(-interest);
+					} catch (ObjectDoesNotExistException e) {
+						e.printStackTrace();
+					}
+				}
+				return posting;
 			}
-		}
+		});
 		
-		currentTotalYearlyInterestMap = new HashMap<>();
+		BulkPosting posting = merge(postings);
+		if (posting.post()) {
+			System.out.println("[INFO] Transferred " + round(-posting.getIngChange(), 2) + " of positive interest to " 
+					+ posting.getTransactionCount() + " account(s) from the ING account");
+		}
 		
 		// SET: map
-		setTotalPositiveInterestMap(currentTotalYearlyInterestMap);
+		setTotalPositiveInterestMap(new HashMap<String, Double>());
 		initializeLowestPositiveDailyReachMap();
 	}
+	
+	/**
+	 * Combines the postings of all partitions, so they are written in one commit.
+	 */
+	private static BulkPosting merge(List<BulkPosting> postings) {
+		BulkPosting result = new BulkPosting();
+		for (BulkPosting posting : postings) {
+			result.addAll(posting);
+		}
+		return result;
+	}
 
 	/**
 	 * Adds the lowest daily balances of all bank accounts that have a negative balance to the
-	 * total interest map.
+	 * total interest map. The interest is calculated per partition, see <code>InterestPartitions</code>.
 	 * @param c the calendar that is used to set the previousBalanceStoring variable.
 	 */
 	public static void addNegativeBalancesToTotalNegativeInterest(Calendar c) {
-		// FETCH: maps
-		HashMap<String, Double> currentLowestDailyReachMap = ServerDataHandler.getNegativeLowestDailyReachMap();
-		HashMap<String, Double> currentTotalInterestMap = ServerDataHandler.getTotalNegativeInterestMap();
+		// FETCH: map
+		final HashMap<String, Double> currentLowestDailyReachMap = InterestLedger.copy(Book.NEGATIVE_LOWEST_DAILY);
+		final int maxDateOfMonth = c.getActualMaximum(Calendar.DATE);
+		final BankSystemSnapshot rates = BankSystemValue.snapshot();
 		
-		//System.out.println("INTEREST: adding balances for " + currentLowestDailyReachMap.size() + " customers");
 		// For all IBAN entries, add the interest to the total interest map 
-		for (Entry<String, Double> entry : currentLowestDailyReachMap.entrySet()) {
-			String IBAN = entry.getKey();
-			double currentInterest;
-			double totalInterest; 
-			if (!currentTotalInterestMap.containsKey(IBAN)) {
-				currentInterest = 0;
-				totalInterest = calculateNegativeInterest(entry.getValue(), c.getActualMaximum(Calendar.DATE));
-			} else {
-				currentInterest = currentTotalInterestMap.get(IBAN);
-				totalInterest = currentInterest + calculateNegativeInterest(entry.getValue(), c.getActualMaximum(Calendar.DATE));
+		InterestPartitions.run(currentLowestDailyReachMap.keySet(), new InterestPartitions.Task<Void>() {
+			@Override
+			public Void run(List<String> IBANs) {
+				HashMap<String, Double> interest = new HashMap<>();
+				for (String IBAN : IBANs) {
+					interest.put(IBAN, calculateNegativeInterest(rates, currentLowestDailyReachMap.get(IBAN), maxDateOfMonth));
+				}
+				InterestLedger.addAll(Book.TOTAL_NEGATIVE_INTEREST, interest);
+				return null;
 			}
-			
-			System.out.println(IBAN + ": daily low: " + entry.getValue());
-			System.out.println(IBAN + ": current total interest " + currentInterest + ", new total interest" + totalInterest);
-			
-			currentTotalInterestMap.put(IBAN, totalInterest);
-		}
-		
-		// SET: maps
-		setTotalNegativeInterestMap(currentTotalInterestMap);
+		});
+		System.out.println("[INFO] Added the negative interest of " + currentLowestDailyReachMap.size() + " accounts");
 		
 		// Update the daily lowest reach map to the values that the customers 
 		// currently have on the account (monthly reset)
@@ -613,36 +550,30 @@ public class InterestHandler extends Thread {
 	}
 
 	private static void addPositiveBalancesToTotalPositiveInterest(Calendar c) {
-		// FETCH: maps
-		HashMap<String, Double> currentLowestPositiveDailyReachMap = ServerDataHandler.getPositiveLowestDailyReachMap();
-		HashMap<String, Double> currentTotalPositiveInterestMap = ServerDataHandler.getTotalPositiveInterestMap();
+		// FETCH: map
+		final HashMap<String, Double> currentLowestPositiveDailyReachMap = InterestLedger.copy(Book.POSITIVE_LOWEST_DAILY);
+		final BankSystemSnapshot rates = BankSystemValue.snapshot();
 		
-		//System.out.println("INTEREST: adding balances for " + currentLowestDailyReachMap.size() + " customers");
 		// For all IBAN entries, add the interest to the total interest map 
-		for (Entry<String, Double> entry : currentLowestPositiveDailyReachMap.entrySet()) {
-			String IBAN = entry.getKey();
-			BankAccount b = null;
-			try {
-				b = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
-			} catch (ObjectDoesNotExistException e) {
-				e.printStackTrace();
+		InterestPartitions.run(currentLowestPositiveDailyReachMap.keySet(), new InterestPartitions.Task<Void>() {
+			@Override
+			public Void run(List<String> IBANs) {
+				HashMap<String, Double> interest = new HashMap<>();
+				List<BankAccount> bankAccounts = DataManager.findAll(BankAccount.CLASSNAME, IBANs);
+				for (int i = 0; i < IBANs.size(); i++) {
+					BankAccount b = bankAccounts.get(i);
+					if (b == null) {
+						new ObjectDoesNotExistException(BankAccount.CLASSNAME, IBANs.get(i)).printStackTrace();
+						continue;
+					}
+					boolean isChild = b.getAccountType().equals("child");
+					interest.put(IBANs.get(i), calculatePositiveInterest(rates, currentLowestPositiveDailyReachMap.get(IBANs.get(i)), isChild));
+				}
+				InterestLedger.addAll(Book.TOTAL_POSITIVE_INTEREST, interest);
+				return null;
 			}
-			boolean isChild = b.getAccountType().equals("child");
-			double currentInterest;
-			double totalInterest; 
-			if (!currentTotalPositiveInterestMap.containsKey(IBAN)) {
-				currentInterest = 0;
-				totalInterest = calculatePositiveInterest(entry.getValue(), isChild);
-			} else {
-				currentInterest = currentTotalPositiveInterestMap.get(IBAN);
-				totalInterest = currentInterest + calculatePositiveInterest(entry.getValue(), isChild);
-			}
-			System.out.println("[INFO] Current total positive interest for " + IBAN + " is " + totalInterest);
-			currentTotalPositiveInterestMap.put(IBAN, totalInterest);
-		}
-		
-		// SET: maps
-		setTotalPositiveInterestMap(currentTotalPositiveInterestMap);
+		});
+		System.out.println("[INFO] Added the positive interest of " + currentLowestPositiveDailyReachMap.size() + " accounts");
 		
 		// Update the daily lowest reach map to the values that the customers 
 		// currently have on the account (monthly reset)
@@ -650,24 +581,14 @@ public class InterestHandler extends Thread {
 	}
 
 	/**
-	 * Checks if it is time to add balances to the total interest map.
-	 * (Check skipped if we simulate time)
-	 * @param c the Calendar that is used to check if it is the time to add balances
-	 * @return true if it is the time, false otherwise
+	 * @param c a server date
+	 * @return true if the balances have already been added to the total interest on that date
 	 */
-	public static boolean isTimeToAddBalances(Calendar c) {
-		// Check if it's between 12:00 AM and 12:15 AM (midnight)
-		int hourOfDay = c.get(Calendar.HOUR_OF_DAY);
-		int minute = c.get(Calendar.MINUTE);
-		boolean isCorrectTime = hourOfDay == 0 && minute >= 0 && minute < 1;
-		
-		// Check if we haven't added the balances today already
+	private static boolean didStoreBalancesOn(Calendar c) {
 		Calendar lastBalanceStore = previousNegativeBalanceStoring;
-		boolean didBalanceStoreToday = c.get(Calendar.DATE) == lastBalanceStore.get(Calendar.DATE) &&
+		return c.get(Calendar.DATE) == lastBalanceStore.get(Calendar.DATE) &&
 				c.get(Calendar.MONTH) == lastBalanceStore.get(Calendar.MONTH) &&
 				c.get(Calendar.YEAR) == lastBalanceStore.get(Calendar.YEAR);
-						
-		return isCorrectTime && !didBalanceStoreToday;
 	}
 
 	/**
@@ -0,0 +1,490 @@
+package server.rest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import client.Client;
+
+/**
+ * Holds the interest bookkeeping of all bank accounts in memory: the lowest daily balances
+ * and the interest built up so far, each per IBAN. Values are kept as the bits of a double
+ * in an <code>AtomicLong</code>, so reads never lock, and <code>add()</code> and
+ * <code>setIfLower()</code> change them with compare-and-set: the partitions of the interest
+ * run update the ledger at the same time. These changes share <code>lock</code>; changes that
+ * replace values, like <code>set()</code> and <code>replace()</code>, and compaction take it
+ * exclusively. Added amounts and lowered values are journaled as such, so the order in which
+ * concurrent changes reach the journal does not matter.
+ * Every change is appended to a journal file, which is written behind: it is flushed every
+ * second and when the JVM shuts down. When the journal grows too long it is compacted into
+ * a snapshot. At startup the snapshot and journal are replayed; if neither exists yet, the
+ * maps are imported from the <code>.ser</code> files that were used before.
+ * If the journal can not be opened, changes are only kept in memory, and every flush tries
+ * to write them to disk again with a compaction.
+ */
+public class InterestLedger {
+
+	/**
+	 * The maps of the ledger.
+	 */
+	public enum Book {
+		NEGATIVE_LOWEST_DAILY, POSITIVE_LOWEST_DAILY, TOTAL_NEGATIVE_INTEREST, TOTAL_POSITIVE_INTEREST
+	}
+
+	private static final String JOURNAL_PATH = Client.DESKTOP_ING_FOLDER_PATH + "interest.journal";
+	private static final String SNAPSHOT_PATH = Client.DESKTOP_ING_FOLDER_PATH + "interest.snapshot";
+
+	/**
+	 * How often buffered journal entries are written to disk.
+	 */
+	private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * The number of journal entries after which the journal is compacted into a snapshot.
+	 */
+	private static final int COMPACTION_THRESHOLD = 10000;
+
+	private static final String SET = "SET";
+	private static final String ADD = "ADD";
+	private static final String MIN = "MIN";
+	private static final String DELETE = "DEL";
+	private static final String CLEAR = "CLEAR";
+
+	/**
+	 * Shared by changes that commute, exclusive for the others and for compaction.
+	 */
+	private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	/**
+	 * Held while writing to the journal, which changes that share <code>lock</code> do at the same time.
+	 */
+	private static final Object journalLock = new Object();
+
+	private static final EnumMap<Book, ConcurrentHashMap<String, AtomicLong>> books = new EnumMap<>(Book.class);
+	private static BufferedWriter journal;
+	private static int journalEntries;
+	private static boolean journalFailed = false;
+	// False if the files on disk could not be read, so they must not be replaced by a compaction
+	private static boolean recovered = false;
+	private static volatile boolean loaded = false;
+
+	static {
+		for (Book book : Book.values()) {
+			books.put(book, new ConcurrentHashMap<String, AtomicLong>());
+		}
+	}
+
+	/**
+	 * @param book The map to read
+	 * @param IBAN The IBAN of the entry
+	 * @return The value of the entry, or null if the map has no entry for the IBAN
+	 */
+	public static Double get(Book book, String IBAN) {
+		loadIfRequired();
+		AtomicLong value = books.get(book).get(IBAN);
+		return value == null ? null : Double.longBitsToDouble(value.get());
+	}
+
+	/**
+	 * @param book The map to copy
+	 * @return A copy of the map
+	 */
+	public static HashMap<String, Double> copy(Book book) {
+		loadIfRequired();
+		HashMap<String, Double> result = new HashMap<>();
+		for (Entry<String, AtomicLong> entry : books.get(book).entrySet()) {
+			result.put(entry.getKey(), Double.longBitsToDouble(entry.getValue().get()));
+		}
+		return result;
+	}
+
+	public static int size(Book book) {
+		loadIfRequired();
+		return books.get(book).size();
+	}
+
+	/**
+	 * Sets an entry to the given value if the map has no entry for the IBAN yet or if its
+	 * current value is higher.
+	 * @return True if the entry was changed
+	 */
+	public static boolean setIfLower(Book book, String IBAN, double value) {
+		loadIfRequired();
+		lock.readLock().lock();
+		try {
+			if (!lower(book, IBAN, value)) {
+				return false;
+			}
+			append(MIN + " " + book.name() + " " + IBAN + " " + Double.toString(value));
+			return true;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds an amount to an entry; a missing entry counts as 0.
+	 * @return The new value of the entry
+	 */
+	public static double add(Book book, String IBAN, double amount) {
+		loadIfRequired();
+		lock.readLock().lock();
+		try {
+			double value = increase(book, IBAN, amount);
+			append(ADD + " " + book.name() + " " + IBAN + " " + Double.toString(amount));
+			return value;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds amounts to several entries at once; missing entries count as 0. Meant for the
+	 * partitions of the interest run, which can do so at the same time.
+	 * @param amounts The amount to add per IBAN
+	 */
+	public static void addAll(Book book, Map<String, Double> amounts) {
+		loadIfRequired();
+		String[] entries = new String[amounts.size()];
+		int i = 0;
+		lock.readLock().lock();
+		try {
+			for (Entry<String, Double> entry : amounts.entrySet()) {
+				increase(book, entry.getKey(), entry.getValue());
+				entries[i++] = ADD + " " + book.name() + " " + entry.getKey() + " " + Double.toString(entry.getValue());
+			}
+			append(entries);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public static void set(Book book, String IBAN, double value) {
+		loadIfRequired();
+		lock.writeLock().lock();
+		try {
+			apply(book, IBAN, value);
+			append(SET + " " + book.name() + " " + IBAN + " " + Double.toString(value));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes an entry.
+	 * @return The value the entry had, or null if there was none
+	 */
+	public static Double remove(Book book, String IBAN) {
+		loadIfRequired();
+		lock.writeLock().lock();
+		try {
+			AtomicLong value = books.get(book).remove(IBAN);
+			if (value == null) {
+				return null;
+			}
+			append(DELETE + " " + book.name() + " " + IBAN);
+			return Double.longBitsToDouble(value.get());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces all entries of a map.
+	 * @param book The map to replace
+	 * @param entries The new entries
+	 */
+	public static void replace(Book book, Map<String, Double> entries) {
+		loadIfRequired();
+		lock.writeLock().lock();
+		try {
+			books.get(book).clear();
+			for (Entry<String, Double> entry : entries.entrySet()) {
+				apply(book, entry.getKey(), entry.getValue());
+			}
+			rewrite(book);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes buffered journal entries to disk.
+	 */
+	public static void flush() {
+		lock.writeLock().lock();
+		try {
+			if (journal == null) {
+				if (recovered) {
+					compact();
+				}
+				return;
+			}
+			try {
+				journal.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (journalEntries > COMPACTION_THRESHOLD) {
+				compact();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Journals the complete current contents of a map.
+	 */
+	private static void rewrite(Book book) {
+		append(CLEAR + " " + book.name());
+		for (Entry<String, AtomicLong> entry : books.get(book).entrySet()) {
+			append(SET + " " + book.name() + " " + entry.getKey() + " " + Double.toString(Double.longBitsToDouble(entry.getValue().get())));
+		}
+	}
+
+	/**
+	 * Adds an amount to an entry, which is created if it is missing.
+	 * @return The new value of the entry
+	 */
+	private static double increase(Book book, String IBAN, double amount) {
+		AtomicLong current = books.get(book).putIfAbsent(IBAN, new AtomicLong(Double.doubleToLongBits(amount)));
+		if (current == null) {
+			return amount;
+		}
+		while (true) {
+			long bits = current.get();
+			double value = Double.longBitsToDouble(bits) + amount;
+			if (current.compareAndSet(bits, Double.doubleToLongBits(value))) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Lowers an entry to the given value, or creates it if it is missing.
+	 * @return True if the entry was changed
+	 */
+	private static boolean lower(Book book, String IBAN, double value) {
+		AtomicLong current = books.get(book).putIfAbsent(IBAN, new AtomicLong(Double.doubleToLongBits(value)));
+		if (current == null) {
+			return true;
+		}
+		while (true) {
+			long bits = current.get();
+			if (Double.longBitsToDouble(bits) <= value) {
+				return false;
+			}
+			if (current.compareAndSet(bits, Double.doubleToLongBits(value))) {
+				return true;
+			}
+		}
+	}
+
+	private static void apply(Book book, String IBAN, double value) {
+		ConcurrentHashMap<String, AtomicLong> map = books.get(book);
+		AtomicLong current = map.get(IBAN);
+		if (current == null) {
+			map.put(IBAN, new AtomicLong(Double.doubleToLongBits(value)));
+		} else {
+			current.set(Double.doubleToLongBits(value));
+		}
+	}
+
+	private static void append(String... entries) {
+		synchronized (journalLock) {
+			if (journal == null) {
+				// Kept in memory only; the next successful compaction writes it to disk
+				return;
+			}
+			try {
+				for (String entry : entries) {
+					journal.write(entry);
+					journal.newLine();
+					journalEntries++;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Writes the current state to a new snapshot and starts an empty journal. The snapshot
+	 * is written to a temporary file first, so a crash leaves either the old or the new one.
+	 */
+	private static void compact() {
+		File temporary = new File(SNAPSHOT_PATH + ".tmp");
+		try {
+			BufferedWriter snapshot = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8));
+			try {
+				for (Book book : Book.values()) {
+					for (Entry<String, AtomicLong> entry : books.get(book).entrySet()) {
+						snapshot.write(SET + " " + book.name() + " " + entry.getKey() + " " + Double.toString(Double.longBitsToDouble(entry.getValue().get())));
+						snapshot.newLine();
+					}
+				}
+			} finally {
+				snapshot.close();
+			}
+			Files.move(temporary.toPath(), new File(SNAPSHOT_PATH).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			if (journal != null) {
+				journal.close();
+				journal = null;
+			}
+			journal = openJournal(false);
+			journalEntries = 0;
+			if (journalFailed) {
+				journalFailed = false;
+				System.out.println("[INFO] The interest ledger is written to disk again");
+			}
+		} catch (IOException e) {
+			journalFailed(e);
+		}
+	}
+
+	/**
+	 * Reports that the journal can not be written, once until it can be written again.
+	 */
+	private static void journalFailed(IOException e) {
+		if (journalFailed) {
+			return;
+		}
+		journalFailed = true;
+		e.printStackTrace();
+		System.err.println("The interest ledger can not be written to disk; changes are kept in memory until it can");
+	}
+
+	private static void loadIfRequired() {
+		if (!loaded) {
+			load();
+		}
+	}
+
+	/**
+	 * Recovers the ledger from disk on first use and starts the journal flusher.
+	 */
+	private static synchronized void load() {
+		if (loaded) {
+			return;
+		}
+		File snapshot = new File(SNAPSHOT_PATH);
+		File journalFile = new File(JOURNAL_PATH);
+		boolean legacy = !snapshot.exists() && !journalFile.exists();
+		try {
+			if (legacy) {
+				importLegacyMaps();
+			} else {
+				int snapshotEntries = replay(snapshot);
+				journalEntries = replay(journalFile);
+				System.out.println("[INFO] Recovered interest ledger from " + snapshotEntries + " snapshot and "
+						+ journalEntries + " journal entries");
+			}
+			recovered = true;
+			journal = openJournal(true);
+		} catch (IOException e) {
+			journalFailed(e);
+		}
+		loaded = true;
+		if (legacy) {
+			lock.writeLock().lock();
+			try {
+				compact();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		Timer flusher = new Timer("interest-ledger-flusher", true);
+		flusher.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, "interest-ledger-shutdown"));
+	}
+
+	/**
+	 * Applies all entries of a journal or snapshot file. An incomplete last line, left by
+	 * a crash during a write, is ignored.
+	 * @return The number of entries read
+	 */
+	private static int replay(File file) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+		int entries = 0;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split(" ");
+				try {
+					if (parts[0].equals(SET) && parts.length == 4) {
+						apply(Book.valueOf(parts[1]), parts[2], Double.parseDouble(parts[3]));
+					} else if (parts[0].equals(ADD) && parts.length == 4) {
+						increase(Book.valueOf(parts[1]), parts[2], Double.parseDouble(parts[3]));
+					} else if (parts[0].equals(MIN) && parts.length == 4) {
+						lower(Book.valueOf(parts[1]), parts[2], Double.parseDouble(parts[3]));
+					} else if (parts[0].equals(DELETE) && parts.length == 3) {
+						books.get(Book.valueOf(parts[1])).remove(parts[2]);
+					} else if (parts[0].equals(CLEAR) && parts.length == 2) {
+						books.get(Book.valueOf(parts[1])).clear();
+					} else {
+						continue;
+					}
+					entries++;
+				} catch (IllegalArgumentException e) {
+					System.err.println("Skipping corrupt interest ledger entry: " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return entries;
+	}
+
+	private static void importLegacyMaps() {
+		importLegacyMap(Book.NEGATIVE_LOWEST_DAILY, ServerDataHandler.readLegacyNegativeLowestDailyReachMap());
+		importLegacyMap(Book.POSITIVE_LOWEST_DAILY, ServerDataHandler.readLegacyPositiveLowestDailyReachMap());
+		importLegacyMap(Book.TOTAL_NEGATIVE_INTEREST, ServerDataHandler.readLegacyTotalNegativeInterestMap());
+		importLegacyMap(Book.TOTAL_POSITIVE_INTEREST, ServerDataHandler.readLegacyTotalPositiveInterestMap());
+	}
+
+	private static void importLegacyMap(Book book, HashMap<String, Double> map) {
+		if (map == null) {
+			return;
+		}
+		for (Entry<String, Double> entry : map.entrySet()) {
+			apply(book, entry.getKey(), entry.getValue());
+		}
+		System.out.println("[INFO] Imported " + map.size() + " entries of " + book + " into the interest ledger");
+	}
+
+	private static BufferedWriter openJournal(boolean append) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(JOURNAL_PATH, append), StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,112 @@
+package server.rest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import accounts.TransferLimitTracker;
+import database.DataManager;
+
+/**
+ * Runs a piece of the interest run for all IBANs in parallel. The IBANs are split into
+ * partitions by hash, so an IBAN always ends up in the same partition, and the partitions
+ * are run on a <code>ForkJoinPool</code>.
+ * The caller usually holds <code>SQLiteDB.connectionLock</code> while waiting for the
+ * partitions, so a partition must never write to the database; it may read, and returns
+ * what has to be written for the caller to save.
+ * The number of threads and partitions can be set with the <code>interest.parallelism</code>
+ * and <code>interest.partitions</code> system properties.
+ */
+public class InterestPartitions {
+
+	public static final int PARALLELISM = Integer.getInteger("interest.parallelism", Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * More partitions than threads, so a slow partition does not hold up the whole run.
+	 */
+	public static final int PARTITIONS = Integer.getInteger("interest.partitions", PARALLELISM * 4);
+
+	private static final ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+
+	/**
+	 * The work done for one partition.
+	 * @param <T> The result of a partition
+	 */
+	public interface Task<T> {
+		/**
+		 * @param IBANs The IBANs of the partition
+		 * @return The result of the partition
+		 */
+		T run(List<String> IBANs);
+	}
+
+	/**
+	 * Runs a task for every non-empty partition of the given IBANs on the shared pool.
+	 * @param IBANs The IBANs to partition
+	 * @param task The work to do per partition
+	 * @return The results of the partitions
+	 */
+	public static <T> List<T> run(Collection<String> IBANs, Task<T> task) {
+		// Partitions can not take the write lock, so anything that needs it to initialize is done now
+		DataManager.initIfRequired();
+		TransferLimitTracker.loadIfRequired();
+		return run(pool, PARTITIONS, IBANs, task);
+	}
+
+	/**
+	 * Runs a task for every non-empty partition of the given IBANs.
+	 * @param pool The pool to run the partitions on
+	 * @param partitions The number of partitions
+	 * @param IBANs The IBANs to partition
+	 * @param task The work to do per partition
+	 * @return The results of the partitions
+	 */
+	public static <T> List<T> run(ForkJoinPool pool, int partitions, Collection<String> IBANs, final Task<T> task) {
+		List<Callable<T>> callables = new ArrayList<>();
+		for (final List<String> partition : partition(IBANs, partitions)) {
+			if (partition.isEmpty()) {
+				continue;
+			}
+			callables.add(new Callable<T>() {
+				@Override
+				public T call() {
+					return task.run(partition);
+				}
+			});
+		}
+
+		List<T> results = new ArrayList<>(callables.size());
+		for (Future<T> future : pool.invokeAll(callables)) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the interest partitions.", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Splits IBANs into partitions by their hash.
+	 */
+	private static List<List<String>> partition(Collection<String> IBANs, int partitions) {
+		List<List<String>> result = new ArrayList<>(partitions);
+		for (int i = 0; i < partitions; i++) {
+			result.add(new ArrayList<String>(IBANs.size() / partitions + 1));
+		}
+		for (String IBAN : IBANs) {
+			result.get(Math.floorMod(IBAN.hashCode(), partitions)).add(IBAN);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,228 @@
+package server.rest;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+/**
+ * Runs the requests of <code>ServerHandler</code> off the threads of the servlet container, which
+ * are released as soon as a request has been handed over. Requests are done by a fixed number
+ * of worker threads and wait in a bounded queue; when the queue is full, a request is answered
+ * at once with a <code>BUSY</code> error instead of piling up. The methods that can run for
+ * minutes (see <code>LONG_METHODS</code>) have their own worker and queue, so they never hold up
+ * the other requests.
+ * A batch that calls one of them goes there as well.
+ * How long requests waited in the queue is measured per method, see <code>getStatistics()</code>;
+ * the statistics are logged every <code>REPORT_INTERVAL_MILLIS</code> and at shutdown.
+ * The sizes can be set with the <code>requests.threads</code>, <code>requests.queueCapacity</code>
+ * and <code>requests.longQueueCapacity</code> system properties.
+ */
+public class RequestExecutor {
+
+	public static final int THREADS = Integer.getInteger("requests.threads", Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+	public static final int QUEUE_CAPACITY = Integer.getInteger("requests.queueCapacity", 200);
+	public static final int LONG_QUEUE_CAPACITY = Integer.getInteger("requests.longQueueCapacity", 4);
+
+	/**
+	 * The error of a request that was turned away because the server is saturated; answered with
+	 * HTTP status <code>BUSY_STATUS</code>.
+	 */
+	public static final int BUSY = -32001;
+	public static final int BUSY_STATUS = 503;
+
+	/**
+	 * How often the statistics are logged while requests come in.
+	 */
+	private static final long REPORT_INTERVAL_MILLIS = 10L * 60 * 1000;
+
+	/**
+	 * The statistics of methods that <code>ServerHandler</code> does not know are kept together
+	 * under this name, so made up names do not grow the statistics.
+	 */
+	private static final String UNKNOWN_METHOD = "unknown";
+
+	/**
+	 * How long <code>shutdown()</code> waits for running requests to finish.
+	 */
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private static final Set<String> LONG_METHODS = new HashSet<>(Arrays.asList("simulateTime", "reset"));
+
+	private static final ThreadPoolExecutor workers = create("request-worker", THREADS, QUEUE_CAPACITY);
+	private static final ThreadPoolExecutor longWorker = create("request-long-worker", 1, LONG_QUEUE_CAPACITY);
+
+	/**
+	 * The queue wait times of one method.
+	 */
+	private static final class WaitStatistics {
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+
+		private void record(long waitedNanos) {
+			count.incrementAndGet();
+			totalNanos.addAndGet(waitedNanos);
+			long currentMax = maxNanos.get();
+			while (waitedNanos > currentMax && !maxNanos.compareAndSet(currentMax, waitedNanos)) {
+				currentMax = maxNanos.get();
+			}
+		}
+
+		public String toString() {
+			long requests = count.get();
+			double average = requests == 0 ? 0 : totalNanos.get() / (requests * 1000000.0);
+			return String.format("count=%d, avgWait=%.3fms, maxWait=%.3fms, rejected=%d",
+					requests, average, maxNanos.get() / 1000000.0, rejected.get());
+		}
+	}
+
+	private static final ConcurrentHashMap<String, WaitStatistics> waits = new ConcurrentHashMap<>();
+	private static final AtomicLong lastReport = new AtomicLong(System.nanoTime());
+
+	/**
+	 * Queues a request. The response is resumed with the result of the request, with an internal
+	 * error if the request throws, or right away with a <code>BUSY</code> error if the queue is full.
+	 * @param method The name of the method of the request
+	 * @param request Does the request
+	 * @param asyncResponse The suspended response of the request
+	 */
+	public static void submit(String method, Callable<Response> request, AsyncResponse asyncResponse) {
+		String name = ServerHandler.METHODS.contains(method) ? method : UNKNOWN_METHOD;
+		submit(name, LONG_METHODS.contains(method), request, asyncResponse);
+	}
+
+	/**
+	 * Queues a batch, see <code>submit()</code>.
+	 * @param methods The methods of the requests of the batch
+	 * @param request Does the batch
+	 * @param asyncResponse The suspended response of the batch
+	 */
+	public static void submitBatch(List<String> methods, Callable<Response> request, AsyncResponse asyncResponse) {
+		boolean isLong = false;
+		for (String method : methods) {
+			isLong |= LONG_METHODS.contains(method);
+		}
+		submit("batch", isLong, request, asyncResponse);
+	}
+
+	private static void submit(String name, boolean isLong, final Callable<Response> request, final AsyncResponse asyncResponse) {
+		reportIfDue();
+		final WaitStatistics statistics = getWaitStatistics(name);
+		final long queued = System.nanoTime();
+		try {
+			(isLong ? longWorker : workers).execute(new Runnable() {
+				@Override
+				public void run() {
+					statistics.record(System.nanoTime() - queued);
+					asyncResponse.resume(call(request));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			statistics.rejected.incrementAndGet();
+			String err = ServerHandler.buildError(BUSY, "The server is busy. Please try again later.");
+			asyncResponse.resume(ServerHandler.respondError(err, BUSY_STATUS));
+		}
+	}
+
+	/**
+	 * Logs the statistics if the last time was <code>REPORT_INTERVAL_MILLIS</code> ago.
+	 */
+	private static void reportIfDue() {
+		long last = lastReport.get();
+		long now = System.nanoTime();
+		if (now - last >= REPORT_INTERVAL_MILLIS * 1000000 && lastReport.compareAndSet(last, now)) {
+			System.out.println("[INFO] Requests: " + getStatistics());
+		}
+	}
+
+	private static Response call(Callable<Response> request) {
+		try {
+			return request.call();
+		} catch (Exception e) {
+			e.printStackTrace();
+			String err = ServerHandler.buildError(-32603, "An internal error occurred.");
+			return ServerHandler.respondError(err);
+		}
+	}
+
+	private static WaitStatistics getWaitStatistics(String method) {
+		WaitStatistics statistics = waits.get(method);
+		if (statistics == null) {
+			WaitStatistics created = new WaitStatistics();
+			statistics = waits.putIfAbsent(method, created);
+			if (statistics == null) {
+				statistics = created;
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Stops taking requests and waits for the queued ones to be done.
+	 */
+	public static void shutdown() {
+		System.out.println("[INFO] Requests: " + getStatistics());
+		workers.shutdown();
+		longWorker.shutdown();
+		try {
+			if (!workers.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				workers.shutdownNow();
+			}
+			if (!longWorker.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				longWorker.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			workers.shutdownNow();
+			longWorker.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return The number of requests that are waiting in the queues
+	 */
+	public static int getQueuedCount() {
+		return workers.getQueue().size() + longWorker.getQueue().size();
+	}
+
+	/**
+	 * @return The queue wait times per method
+	 */
+	public static String getStatistics() {
+		StringBuilder result = new StringBuilder(String.format("active=%d, queued=%d",
+				workers.getActiveCount() + longWorker.getActiveCount(), getQueuedCount()));
+		for (Entry<String, WaitStatistics> entry : new TreeMap<>(waits).entrySet()) {
+			result.append("\n").append(entry.getKey()).append(": ").append(entry.getValue());
+		}
+		return result.toString();
+	}
+
+	private static ThreadPoolExecutor create(final String name, int threads, int queueCapacity) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.AbortPolicy());
+	}
+}
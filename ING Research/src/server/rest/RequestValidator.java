@@ -5,12 +5,15 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.ws.rs.core.Response;
 
+import accounts.AccessIndex;
 import accounts.BankAccount;
 import accounts.CustomerAccount;
+import logging.Log.Type;
 import server.core.InputValidator;
 
 public class RequestValidator {
@@ -24,7 +27,7 @@ public class RequestValidator {
 			return invalidIBANResponse((String) params.get("iBAN"));
 		}
 		
-		if (!ServerHandler.getAccounts().keySet().contains((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -47,7 +50,7 @@ public class RequestValidator {
 			return invalidIBANResponse((String) params.get("iBAN"));
 		}
 		
-		if (!ServerHandler.getAccounts().keySet().contains((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -70,7 +73,7 @@ public class RequestValidator {
 			return invalidIBANResponse((String) params.get("iBAN"));
 		}
 		
-		if (!ServerHandler.getAccounts().keySet().contains((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -90,7 +93,7 @@ public class RequestValidator {
 			return invalidPinCardResponse((String) params.get("pinCard"));
 		}
 		
-		if (!ServerHandler.getAccounts().keySet().contains((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}		
 		return null;
@@ -129,7 +132,7 @@ public class RequestValidator {
 		}
 		
 		// If token is invalid, stop and notify client
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -138,7 +141,7 @@ public class RequestValidator {
 
 	public static Response isValidGetUserAccessRequest(Map<String, Object> params) {		
 		// If the authToken is invalid, stop and notify the client 
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidMethodParametersResponse();
 		}
 		// If no authToken has been sent, stop and notify the client
@@ -195,7 +198,7 @@ public class RequestValidator {
 		}
 		
 		// If this is a bogus token, slap the client
-		if (!ServerHandler.getAccounts().keySet().contains((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -209,7 +212,7 @@ public class RequestValidator {
 		}		
 		
 		// If this is a bogus token, slap the client
-		if (!ServerHandler.getAccounts().keySet().contains((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -233,7 +236,7 @@ public class RequestValidator {
 		}
 		
 		// If the token is bogus, slap the client
-		if (!ServerHandler.getAccounts().keySet().contains((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -252,7 +255,7 @@ public class RequestValidator {
 		}
 		
 		// If the token is bogus, slap the client
-		if (!ServerHandler.getAccounts().keySet().contains((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -347,7 +350,7 @@ public class RequestValidator {
 		}
 		
 		// If this is a bogus auth token, slap the client
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -377,7 +380,7 @@ public class RequestValidator {
 		}
 		
 		// If this is a bogus auth token, slap the client
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -399,7 +402,7 @@ public class RequestValidator {
 		}
 		
 		// If this is a bogus token, slap the client
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -418,7 +421,7 @@ public class RequestValidator {
 		}
 		
 		// If this is a bogus token, slap the client
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -434,6 +437,14 @@ public class RequestValidator {
 			return invalidMethodParametersResponse();
 		}
 		
+		// The paging cursor is optional, but must be numeric when given
+		try {
+			getLong(params, "beforeTimestamp", 0);
+			getLong(params, "beforeId", 0);
+		} catch (ClassCastException e) {
+			return invalidMethodParametersResponse();
+		}
+		
 		return null;
 	}
 	
@@ -444,7 +455,7 @@ public class RequestValidator {
 		}
 		
 		// If this is a bogus token, slap the client
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -463,7 +474,7 @@ public class RequestValidator {
 		}
 		
 		// If this is a bogus token, slap the client
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -483,6 +494,20 @@ public class RequestValidator {
 			return ServerHandler.respondError(err, 500);
 		}
 		
+		// The type filter, page size and paging cursor are optional
+		try {
+			if (params.containsKey("types")) {
+				for (Object type : (List<?>) params.get("types")) {
+					Type.valueOf((String) type);
+				}
+			}
+			getLong(params, "limit", 0);
+			getLong(params, "afterTimestamp", 0);
+			getLong(params, "afterId", 0);
+		} catch (ClassCastException | IllegalArgumentException | NullPointerException e) {
+			return invalidMethodParametersResponse();
+		}
+		
 		return null;
 	}
 
@@ -493,7 +518,7 @@ public class RequestValidator {
 		}
 		
 		// If this is a bogus token, slap the client
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -515,7 +540,7 @@ public class RequestValidator {
 		}
 		
 		// If this is a bogus token, slap the client
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -533,7 +558,7 @@ public class RequestValidator {
 		}
 		
 		// If this is a bogus token, slap the client
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
@@ -551,20 +576,42 @@ public class RequestValidator {
 		}
 		
 		// If this is a bogus token, slap the client
-		if (!ServerHandler.getAccounts().containsKey((String) params.get("authToken"))) {
+		if (!SessionStore.isValid((String) params.get("authToken"))) {
 			return invalidAuthTokenResponse();
 		}
 		
 		return null;
 	}
 
-	public static boolean userOwnsBankAccount(CustomerAccount customerAccount, BankAccount bankAccount) {
-		for (BankAccount b : customerAccount.getBankAccounts()) {
-			if (b.getIBAN().equals(bankAccount.getIBAN())) {
-				return true;
+	/**
+	 * Reads an optional whole number parameter, like a paging cursor. Numbers that are sent
+	 * as a string, as the transaction overview did before, are accepted as well.
+	 * @param params The parameters of a request
+	 * @param key The name of the parameter
+	 * @param defaultValue The value if the parameter is not given
+	 * @return The value of the parameter
+	 * @throws ClassCastException If the parameter is not a whole number
+	 */
+	public static long getLong(Map<String, Object> params, String key, long defaultValue) {
+		Object value = params.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (value instanceof Long || value instanceof Integer) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof String) {
+			try {
+				return Long.parseLong((String) value);
+			} catch (NumberFormatException e) {
+				// Not a number, handled below
 			}
 		}
-		return false;
+		throw new ClassCastException("Parameter " + key + " is not a whole number: " + value);
+	}
+
+	public static boolean userOwnsBankAccount(CustomerAccount customerAccount, BankAccount bankAccount) {
+		return AccessIndex.hasAccess(customerAccount.getBSN(), bankAccount.getIBAN());
 	}
 
 	public static Response invalidMethodParametersResponse() {
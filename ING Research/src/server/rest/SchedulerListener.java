@@ -0,0 +1,24 @@
+package server.rest;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Ties the <code>SchedulerService</code> to the life of the web application: it is started
+ * when the application is deployed and stopped, waiting for a running job, when it is undeployed.
+ * The <code>RequestExecutor</code> is stopped along with it.
+ * Registered in <code>web.xml</code>.
+ */
+public class SchedulerListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		SchedulerService.start();
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		RequestExecutor.shutdown();
+		SchedulerService.shutdown();
+	}
+}
@@ -0,0 +1,295 @@
+package server.rest;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import accounts.HouseAccount;
+
+/**
+ * Runs the jobs of the bank that are bound to the (perhaps simulated) server clock: the daily
+ * interest, the <code>TimeEvents</code>, the consolidation of the ING account and the sweep of
+ * expired sessions. Instead of
+ * polling, every job computes when it has to run next and is scheduled for exactly that moment
+ * on one worker thread, so jobs never overlap. When the clock jumps, see <code>reschedule()</code>,
+ * all jobs compute their next run again. A job holds <code>jobLock</code> while it runs, not
+ * <code>SQLiteDB.connectionLock</code>; the writes it does take the write lock briefly, as
+ * any request does.
+ * Started and shut down with the web application by <code>SchedulerListener</code>.
+ */
+public class SchedulerService {
+
+	/**
+	 * Something that has to be done at certain points in time of the server clock.
+	 */
+	public interface Job {
+		/**
+		 * @param now The current server time
+		 * @return The server time in milliseconds at which the job should run next; may lie in the
+		 * past if the job is overdue, or <code>Long.MAX_VALUE</code> if there is nothing to do
+		 */
+		long nextFireTime(Calendar now);
+
+		/**
+		 * Does the work that is due; should not take longer than necessary, since the other jobs wait.
+		 * @param now The current server time
+		 */
+		void run(Calendar now);
+	}
+
+	/**
+	 * The longest a job waits before its next run is computed again, in case it was computed
+	 * against a clock that has changed since.
+	 */
+	private static final long MAX_DELAY_MILLIS = 24L * 3600 * 1000;
+
+	/**
+	 * How long <code>shutdown()</code> waits for a running job to finish.
+	 */
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	/**
+	 * Held while a job runs and while time is simulated, so the two never mix.
+	 */
+	static final ReentrantLock jobLock = new ReentrantLock();
+
+	private static final LinkedHashMap<String, Job> jobs = new LinkedHashMap<>();
+	private static final HashMap<String, ScheduledFuture<?>> pending = new HashMap<>();
+	private static ScheduledThreadPoolExecutor executor;
+
+	/**
+	 * Starts the worker thread and schedules the jobs of the bank. Does nothing if the
+	 * service was started already.
+	 */
+	public static void start() {
+		synchronized (SchedulerService.class) {
+			if (executor != null) {
+				return;
+			}
+			executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "scheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.setRemoveOnCancelPolicy(true);
+			executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		}
+		InterestHandler.intializeData();
+		BankSystemValue.init();
+
+		register("interest", new Job() {
+			@Override
+			public long nextFireTime(Calendar now) {
+				return nextMidnight(now);
+			}
+
+			@Override
+			public void run(Calendar now) {
+				InterestHandler.handleDay(now);
+			}
+		});
+		register("events", new Job() {
+			@Override
+			public long nextFireTime(Calendar now) {
+				return EventScheduler.nextTimestamp(Long.MIN_VALUE);
+			}
+
+			@Override
+			public void run(Calendar now) {
+				TimeOperator.handleDueEvents(now);
+			}
+		});
+		register("house-consolidation", new Job() {
+			@Override
+			public long nextFireTime(Calendar now) {
+				return nextMidnight(now);
+			}
+
+			@Override
+			public void run(Calendar now) {
+				HouseAccount.consolidate();
+			}
+		});
+		register("session-sweep", new Job() {
+			/**
+			 * Counted from the last run rather than from now, since the next run is computed
+			 * again at every <code>reschedule()</code>. Only used on the worker thread.
+			 */
+			private long lastRun = Long.MIN_VALUE;
+
+			@Override
+			public long nextFireTime(Calendar now) {
+				if (lastRun == Long.MIN_VALUE || lastRun > now.getTimeInMillis()) {
+					// Not run yet, or the clock was set back
+					lastRun = now.getTimeInMillis();
+				}
+				return lastRun + SessionStore.SWEEP_INTERVAL_MILLIS;
+			}
+
+			@Override
+			public void run(Calendar now) {
+				SessionStore.sweep();
+				lastRun = now.getTimeInMillis();
+			}
+		});
+		System.out.println("[INFO] Scheduler started with " + jobs.size() + " job(s)");
+	}
+
+	/**
+	 * Adds a job and schedules its first run. Replaces an earlier job with the same name.
+	 * @param name The name of the job
+	 * @param job The job
+	 */
+	public static void register(String name, Job job) {
+		synchronized (SchedulerService.class) {
+			jobs.put(name, job);
+		}
+		submitSchedule(name);
+	}
+
+	/**
+	 * Makes all jobs compute their next run again. Call whenever the server clock jumps or
+	 * something makes a job due earlier. Returns at once; the jobs are rescheduled on the
+	 * worker thread, after the job that is running (if any) has finished.
+	 */
+	public static void reschedule() {
+		synchronized (SchedulerService.class) {
+			for (String name : jobs.keySet()) {
+				submitSchedule(name);
+			}
+		}
+	}
+
+	/**
+	 * Stops the worker thread. Jobs that have not started yet are cancelled; a job that is
+	 * running may finish first, for at most <code>SHUTDOWN_TIMEOUT_SECONDS</code>.
+	 */
+	public static void shutdown() {
+		ScheduledThreadPoolExecutor stopped;
+		synchronized (SchedulerService.class) {
+			stopped = executor;
+			executor = null;
+			for (ScheduledFuture<?> future : pending.values()) {
+				future.cancel(false);
+			}
+			pending.clear();
+			jobs.clear();
+		}
+		if (stopped == null) {
+			return;
+		}
+		stopped.shutdown();
+		try {
+			if (!stopped.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				stopped.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			stopped.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		System.out.println("[INFO] Scheduler stopped");
+	}
+
+	private static void submitSchedule(final String name) {
+		synchronized (SchedulerService.class) {
+			if (executor == null) {
+				return;
+			}
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					schedule(name);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Computes the next run of a job and replaces its pending run with it. The next run is
+	 * computed without holding the monitor of this class, since a job may need
+	 * <code>SQLiteDB.connectionLock</code> to compute it.
+	 */
+	private static void schedule(final String name) {
+		Job job;
+		synchronized (SchedulerService.class) {
+			job = jobs.get(name);
+			if (job == null || executor == null) {
+				return;
+			}
+		}
+		Calendar now = ServerModel.getServerCalendar();
+		long fireTime;
+		try {
+			fireTime = job.nextFireTime(now);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			fireTime = now.getTimeInMillis() + MAX_DELAY_MILLIS;
+		}
+		final long scheduledFireTime = fireTime;
+		long delay = Math.max(0, Math.min(MAX_DELAY_MILLIS, fireTime - now.getTimeInMillis()));
+
+		synchronized (SchedulerService.class) {
+			if (executor == null || jobs.get(name) != job) {
+				return;
+			}
+			ScheduledFuture<?> future = executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					fire(name, scheduledFireTime);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+			ScheduledFuture<?> previous = pending.put(name, future);
+			if (previous != null) {
+				previous.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Runs a job if it is due on the server clock, then schedules its next run. A run that
+	 * comes too early (because the delay was capped or the clock was set back) only reschedules.
+	 */
+	private static void fire(String name, long fireTime) {
+		Job job;
+		synchronized (SchedulerService.class) {
+			job = jobs.get(name);
+			if (job == null) {
+				return;
+			}
+		}
+		Calendar now = ServerModel.getServerCalendar();
+		if (now.getTimeInMillis() >= fireTime) {
+			jobLock.lock();
+			try {
+				job.run(ServerModel.getServerCalendar());
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				jobLock.unlock();
+			}
+		}
+		schedule(name);
+	}
+
+	/**
+	 * @param now A point in time
+	 * @return The start of the day after the given time, in milliseconds
+	 */
+	static long nextMidnight(Calendar now) {
+		Calendar midnight = (Calendar) now.clone();
+		midnight.add(Calendar.DATE, 1);
+		midnight.set(Calendar.HOUR_OF_DAY, 0);
+		midnight.set(Calendar.MINUTE, 0);
+		midnight.set(Calendar.SECOND, 0);
+		midnight.set(Calendar.MILLISECOND, 0);
+		return midnight.getTimeInMillis();
+	}
+}
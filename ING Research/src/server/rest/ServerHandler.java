@@ -1,25 +1,32 @@
 package server.rest;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -31,15 +38,18 @@ import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Restrictions;
 
+import accounts.AccessIndex;
 import accounts.BankAccount;
 import accounts.CreditAccount;
 import accounts.CustomerAccount;
+import accounts.HouseAccount;
 import accounts.SavingsAccount;
 import accounts.Transaction;
 import cards.Card;
 import cards.CreditCard;
 import cards.DebitCard;
 import database.DataManager;
+import database.NamedStatement;
 import database.SQLiteDB;
 import exceptions.ClosedAccountTransferException;
 import exceptions.CreditCardNotActiveException;
@@ -55,36 +65,82 @@ import logging.Logger;
 import logging.Log.Type;
 import net.minidev.json.JSONArray;
 import server.core.InputValidator;
+import server.rest.SessionStore.Principal;
 
 @Path("/banking")
 public class ServerHandler {
 	
-	private static HashMap<String, CustomerAccount> accounts = new HashMap<>();
+	// The most transactions getTransactionsOverview returns at once; older ones are paged with a cursor
+	public static final int MAX_TRANSACTIONS_PAGE_SIZE = 1000;
+	
+	// The most event logs getEventLogs returns at once; later ones are paged with a cursor
+	public static final int MAX_EVENT_LOGS_PAGE_SIZE = 1000;
 	
 	// Data-container for this server's session
 	private static ServerModel serverModel = new ServerModel();
 	
-	// Handles the monthly interest
-	@SuppressWarnings("unused")
-	private static InterestHandler interestHandler = new InterestHandler();
-	@SuppressWarnings("unused")
-	private static TimeOperator timeOperator = new TimeOperator();
+	// Runs the interest and TimeEvents; normally started by SchedulerListener already
+	static {
+		SchedulerService.start();
+	}
 	
+	/**
+	 * Handles a JSON-RPC request, or a batch of them (see <code>BatchHandler</code>), on the
+	 * <code>RequestExecutor</code>; the thread of the container is released right away.
+	 * @param request The request
+	 * @param transaction Whether all requests of a batch should be done in one database transaction
+	 * @param asyncResponse The response, which is resumed once the request has been done
+	 */
 	@POST
 	@Path("/postRequest")
 	@Consumes(MediaType.APPLICATION_JSON)
-	public static Response parseJSONRequest (String request) {
-		JSONRPC2Request jReq = null;
-		String method;
+	public static void parseJSONRequest (final String request, @QueryParam("transaction") @DefaultValue("false") final boolean transaction, 
+			@Suspended AsyncResponse asyncResponse) {
+		if (BatchHandler.isBatch(request)) {
+			final BatchHandler.Batch batch = BatchHandler.parse(request);
+			RequestExecutor.submitBatch(batch.getMethods(), new Callable<Response>() {
+				@Override
+				public Response call() {
+					return BatchHandler.handle(batch, transaction);
+				}
+			}, asyncResponse);
+			return;
+		}
 		
+		final JSONRPC2Request jReq;
 		try {
 			jReq = JSONRPC2Request.parse(request);
 		} catch (JSONRPC2ParseException e) {
 			String err = buildError(-32700, "An error occurred while parsing the JSON input.");
-			return respondError(err);
+			asyncResponse.resume(respondError(err));
+			return;
 		}
-		
-		method = jReq.getMethod();
+		RequestExecutor.submit(jReq.getMethod(), new Callable<Response>() {
+			@Override
+			public Response call() {
+				return dispatch(jReq);
+			}
+		}, asyncResponse);
+	}
+	
+	/**
+	 * The methods that <code>dispatch()</code> knows.
+	 */
+	static final Set<String> METHODS = new HashSet<>(Arrays.asList("openAccount", "openAdditionalAccount",
+			"closeAccount", "provideAccess", "revokeAccess", "depositIntoAccount", "payFromAccount",
+			"invalidateCard", "transferMoney", "getAuthToken", "getBalance", "getTransactionsOverview",
+			"getUserAccess", "getBankAccountAccess", "simulateTime", "reset", "getDate", "unblockCard",
+			"openSavingsAccount", "closeSavingsAccount", "setOverdraftLimit", "getOverdraftLimit",
+			"getEventLogs", "setTransferLimit", "setValue", "requestCreditCard", "transferBankAccount",
+			"setFreezeUserAccount"));
+	
+	/**
+	 * Calls the method of a single request.
+	 * @param jReq The request
+	 * @return The response to the request
+	 */
+	static Response dispatch(JSONRPC2Request jReq) {
+		String method = jReq.getMethod();
 		Logger.addMethodRequestLog(method, jReq.getNamedParams());
 		
 		switch(method) {
@@ -272,7 +328,8 @@ public class ServerHandler {
 		bankAccount.setMainHolderBSN(newOwner.getBSN());
 		
 		// Swap ownership
-		SQLiteDB.executeStatement("DELETE FROM customerbankaccounts WHERE customer_BSN='" + oldOwner.getBSN() + "' AND IBAN='" + bankAccount.getIBAN() + "'");
+		SQLiteDB.executeUpdate(NamedStatement.DELETE_ACCESS, oldOwner.getBSN(), bankAccount.getIBAN());
+		AccessIndex.revoked(oldOwner.getBSN(), bankAccount.getIBAN());
 		bankAccount.removeOwner(oldOwner.getBSN());		
 		newOwner.addBankAccount(bankAccount);
 
@@ -300,7 +357,7 @@ public class ServerHandler {
 		String authToken = (String) params.get("authToken");
 		String IBAN = (String) params.get("iBAN");	
 
-		CustomerAccount customerAccount = accounts.get(authToken);
+		CustomerAccount customerAccount = getCustomerAccount(authToken);
 		BankAccount bankAccount;
 		try {
 			bankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
@@ -459,7 +516,7 @@ public class ServerHandler {
 		String IBAN = (String) params.get("iBAN");		
 		Double weeklyLimit = Double.parseDouble((String) params.get("transferLimit"));		
 
-		CustomerAccount customerAccount = accounts.get(authToken);
+		CustomerAccount customerAccount = getCustomerAccount(authToken);
 		BankAccount bankAccount;
 		try {
 			bankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
@@ -517,8 +574,23 @@ public class ServerHandler {
 		
 		ArrayList<HashMap<String, Object>> resp;
 		
+		// Optional filters and paging cursor
+		EnumSet<Type> types = EnumSet.allOf(Type.class);
+		if (params.containsKey("types")) {
+			types.clear();
+			for (Object type : (List<?>) params.get("types")) {
+				types.add(Type.valueOf((String) type));
+			}
+		}
+		long afterTimestamp = RequestValidator.getLong(params, "afterTimestamp", Long.MIN_VALUE);
+		long afterId = RequestValidator.getLong(params, "afterId", Long.MIN_VALUE);
+		long limit = RequestValidator.getLong(params, "limit", MAX_EVENT_LOGS_PAGE_SIZE);
+		
 		try {
-			resp = Logger.getEventLogs(startString, endString);
+			long start = Logger.parseDateToMillis(startString, "yyyy-MM-dd");
+			long end = Logger.parseDateToMillis(endString, "yyyy-MM-dd") + 1000 * 3600 * 24;
+			resp = Logger.getEventLogs(start, end, afterTimestamp, afterId, types, 
+					(int) Math.max(0, Math.min(limit, MAX_EVENT_LOGS_PAGE_SIZE)));
 		} catch (ParseException e) {
 			String err = ServerHandler.buildError(418, "One or more parameter has an invalid value. See message.", "One of the given dates is not in the format yyyy-MM-dd");
 			return ServerHandler.respondError(err);
@@ -541,7 +613,7 @@ public class ServerHandler {
 		String IBAN = (String) params.get("iBAN");
 		
 		// Check if the customer has a bank account with this IBAN
-		CustomerAccount customerAccount = accounts.get(authToken);
+		CustomerAccount customerAccount = getCustomerAccount(authToken);
 		BankAccount bankAccount;
 		try {
 			bankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
@@ -605,7 +677,7 @@ public class ServerHandler {
 //		String IBAN = (String) params.get("iBAN");
 //		
 //		// Check if the customer has a bank account with this IBAN
-//		CustomerAccount customerAccount = accounts.get(authToken);
+//		CustomerAccount customerAccount = getCustomerAccount(authToken);
 //		BankAccount bankAccount;
 //		try {
 //			bankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
@@ -668,7 +740,7 @@ public class ServerHandler {
 		String authToken = (String) params.get("authToken");
 		String IBAN = (String) params.get("iBAN");		
 	
-		CustomerAccount customerAccount = accounts.get(authToken);
+		CustomerAccount customerAccount = getCustomerAccount(authToken);
 		BankAccount bankAccount;
 		try {
 			bankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
@@ -707,7 +779,7 @@ public class ServerHandler {
 		String IBAN = (String) params.get("iBAN");
 		double overdraftLimit = (double) params.get("overdraftLimit");
 		
-		CustomerAccount customerAccount = accounts.get(authToken);
+		CustomerAccount customerAccount = getCustomerAccount(authToken);
 		BankAccount bankAccount;
 		try {
 			bankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
@@ -772,7 +844,7 @@ public class ServerHandler {
 		
 		Card card;
 		BankAccount bankAccount;
-		CustomerAccount customerAccount = accounts.get(authToken);
+		CustomerAccount customerAccount = getCustomerAccount(authToken);
 
 		// If the account is frozen, notify the client
 		if (customerAccount.isFrozen()) {
@@ -916,8 +988,14 @@ public class ServerHandler {
 		
 		int newlySimulatedDays = Integer.parseInt(Long.toString((long) params.get("nrOfDays")));
 		
-		TimeOperator.simulateDays(newlySimulatedDays);		
-		ServerModel.setSimulatedDays(newlySimulatedDays, true);
+		// No job may run between simulating the days and moving the clock
+		SchedulerService.jobLock.lock();
+		try {
+			TimeOperator.simulateDays(newlySimulatedDays);		
+			ServerModel.setSimulatedDays(newlySimulatedDays, true);
+		} finally {
+			SchedulerService.jobLock.unlock();
+		}
 		
 		return sendEmptyResult(jReq.getMethod());
 	}
@@ -934,25 +1012,18 @@ public class ServerHandler {
 			return invalidRequest;
 		}		
 		
-		CustomerAccount cAcc = accounts.get(authToken);
-		BankAccount bAcc = null;
+		Principal principal = SessionStore.get(authToken);
+		BankAccount bAcc = (BankAccount) DataManager.find(BankAccount.CLASSNAME, IBAN).orElse(null);
 		
 		// If the bank account doesn't exist, stop and notify client
-		if (DataManager.isPrimaryKeyUnique(BankAccount.CLASSNAME, BankAccount.PRIMARYKEYNAME, IBAN)) {
+		if (bAcc == null) {
 			String err = buildError(500, "An unexpected error occured, see error details.", "Bank account with IBAN " + IBAN + " not found.");
 			return respondError(err);
 		}
 		
-		try {
-			bAcc = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
-		} catch (ObjectDoesNotExistException e) {
-			String err = buildError(418, "One or more parameter has an invalid value. See message.", e.toString());
-			return respondError(err);
-		}
-		
 		// If the target account is not owned by the authorized user or is not an administrative account, 
 		// stop and notify client
-		if (!bAcc.getMainHolderBSN().equals(cAcc.getBSN()) && !isAdministrativeUser(authToken)) {
+		if (!bAcc.getMainHolderBSN().equals(principal.getBSN()) && !isAdministrativeUser(authToken)) {
 			String err = buildError(419, "The authenticated user is not authorized to perform this action. User does not own the given account.");
 			Logger.addLogToDB(ServerModel.getServerCalendar().getTimeInMillis(), Type.WARNING, "Possible harmful activity: trying to access information from another account.");
 			return respondError(err);
@@ -962,11 +1033,12 @@ public class ServerHandler {
 		ArrayList<HashMap> associations = new ArrayList<>();
 		ResultSet rs = null;
 		
+		Connection c = null;
 		try {
-			SQLiteDB.connectionLock.lock();
-			Connection c = SQLiteDB.openConnection();
-			Statement s = c.createStatement();
-			rs = s.executeQuery("SELECT * FROM customerbankaccounts WHERE IBAN='" + IBAN + "';");
+			c = SQLiteDB.openConnection();
+			PreparedStatement s = SQLiteDB.prepare(c, NamedStatement.HOLDERS_OF_BANK_ACCOUNT);
+			s.setString(1, IBAN);
+			rs = s.executeQuery();
 			while (rs.next()) {
 				String BSN = rs.getString("customer_BSN");
 				HashMap<String, String> association = new HashMap<>();
@@ -981,7 +1053,7 @@ public class ServerHandler {
 			String err = buildError(418, "One or more parameter has an invalid value. See message.", e.toString());
 			return respondError(err);
 		} finally {
-			SQLiteDB.connectionLock.unlock();
+			SQLiteDB.closeConnection(c);
 		}
 		
 		JSONRPC2Response jResp = new JSONRPC2Response(associations, "response-" + java.lang.System.currentTimeMillis());
@@ -998,20 +1070,21 @@ public class ServerHandler {
 		}	
 		
 		String authToken = (String) params.get("authToken");		
-		CustomerAccount cAcc = accounts.get(authToken);
+		Principal principal = SessionStore.get(authToken);
 		
 		@SuppressWarnings("rawtypes")
 		ArrayList<HashMap> associations = new ArrayList<>();
 		ResultSet rs = null;		
 
+		Connection c = null;
 		try {
-			SQLiteDB.connectionLock.lock();
-			Connection c = SQLiteDB.openConnection();
-			Statement s = c.createStatement();
-			rs = s.executeQuery("SELECT * FROM customerbankaccounts WHERE customer_BSN='" + cAcc.getBSN() + "';");
+			c = SQLiteDB.openConnection();
+			PreparedStatement s = SQLiteDB.prepare(c, NamedStatement.BANK_ACCOUNTS_OF_HOLDER);
+			s.setString(1, principal.getBSN());
+			rs = s.executeQuery();
 			while (rs.next()) {
 				String BSN = rs.getString("customer_BSN");
-				if (BSN.equals(cAcc.getBSN())) {
+				if (BSN.equals(principal.getBSN())) {
 					HashMap<String, String> association = new HashMap<>();
 					String IBAN = rs.getString("IBAN");
 					BankAccount bAcc = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
@@ -1028,7 +1101,7 @@ public class ServerHandler {
 			String err = buildError(418, "One or more parameter has an invalid value. See message.", e.toString());
 			return respondError(err);
 		} finally {
-			SQLiteDB.connectionLock.unlock();
+			SQLiteDB.closeConnection(c);
 		}
 		
 		JSONRPC2Response jResp = new JSONRPC2Response(associations, "response-" + java.lang.System.currentTimeMillis());
@@ -1159,7 +1232,7 @@ public class ServerHandler {
 		}
 		
 		// If the user IS authorized, open a new account under his user account.
-		CustomerAccount customerAccount = accounts.get(authToken);
+		CustomerAccount customerAccount = getCustomerAccount(authToken);
 		
 		// A child can not open multiple accounts
 		if (CustomerAccount.isYoungerThan(18, customerAccount)) {
@@ -1211,7 +1284,7 @@ public class ServerHandler {
 			return invalidRequest;
 		}		
 		
-		CustomerAccount customerAccount = accounts.get(authToken);
+		CustomerAccount customerAccount = getCustomerAccount(authToken);
 		boolean found = false;
 		BankAccount bankAccount = null;
 
@@ -1368,7 +1441,7 @@ public class ServerHandler {
 			return invalidRequest;
 		}		
 		
-		CustomerAccount customerAccount = accounts.get(authToken);
+		CustomerAccount customerAccount = getCustomerAccount(authToken);
 		BankAccount bankAccount = null;
 		boolean found = false;
 		
@@ -1421,14 +1494,6 @@ public class ServerHandler {
 			return respondError(err);
 		}
 		
-		// If the target user already has access, stop and notify the client
-		for (CustomerAccount c : bankAccount.getOwners()) {
-			if (c.getUsername().equals(username)) {
-				String err = buildError(420, "The action has no effect. See message.", "User " + username + " already has access to account " + bankAccount.getIBAN());
-				return respondError(err);
-			}
-		}
-		
 		CustomerAccount targetAcc = null;;
 		
 		for (CustomerAccount acc : target) {
@@ -1436,6 +1501,12 @@ public class ServerHandler {
 			break;
 		}
 		
+		// If the target user already has access, stop and notify the client
+		if (AccessIndex.hasAccess(targetAcc.getBSN(), bankAccount.getIBAN())) {
+			String err = buildError(420, "The action has no effect. See message.", "User " + username + " already has access to account " + bankAccount.getIBAN());
+			return respondError(err);
+		}
+		
 		// If everything is fine, create the new card for the target user, tell the client the details
 		targetAcc.addBankAccount(bankAccount);
 		DebitCard card = new DebitCard(targetAcc.getBSN(), bankAccount.getIBAN(), DebitCard.generateCardNumber());
@@ -1479,7 +1550,7 @@ public class ServerHandler {
 			usernameSpecified = true;
 		}
 		
-		CustomerAccount customerAccount = accounts.get(authToken);
+		CustomerAccount customerAccount = getCustomerAccount(authToken);
 		BankAccount bankAccount = null;
 		boolean found = false;
 		
@@ -1540,19 +1611,11 @@ public class ServerHandler {
 				break;
 			}
 		} else {
-			targetAcc = accounts.get(authToken);
-		}
-		
-		boolean hasAccess = false;
-		for (CustomerAccount c : bankAccount.getOwners()) {
-			if (c.getUsername().equals(targetAcc.getUsername())) {
-				hasAccess = true;
-				break;
-			}
+			targetAcc = getCustomerAccount(authToken);
 		}
 		
 		// If the target user does not have access, the method has no effect
-		if (!hasAccess) {
+		if (!AccessIndex.hasAccess(targetAcc.getBSN(), bankAccount.getIBAN())) {
 			String err = buildError(420, "The action has no effect. See message.", "User " + targetAcc.getUsername() + " has no access to account " + IBAN + ".");
 			return respondError(err);
 		}
@@ -1565,7 +1628,8 @@ public class ServerHandler {
 			}
 		}
 		
-		SQLiteDB.executeStatement("DELETE FROM customerbankaccounts WHERE customer_BSN='" + targetAcc.getBSN() + "' AND IBAN='" + bankAccount.getIBAN() + "'");
+		SQLiteDB.executeUpdate(NamedStatement.DELETE_ACCESS, targetAcc.getBSN(), bankAccount.getIBAN());
+		AccessIndex.revoked(targetAcc.getBSN(), bankAccount.getIBAN());
 		bankAccount.removeOwner(targetAcc.getBSN());
 		
 		bankAccount.saveToDB();
@@ -1659,7 +1723,7 @@ public class ServerHandler {
 		
 		
 		// If the source bank account could not be found, stop and notify the client.
-		if (DataManager.isPrimaryKeyUnique(BankAccount.CLASSNAME, BankAccount.PRIMARYKEYNAME, sourceIBAN)) {
+		if (!DataManager.find(BankAccount.CLASSNAME, sourceIBAN).isPresent()) {
 			String err = buildError(500, "An unexpected error occured, see error details.", "Account " + sourceIBAN + " could not be found.");
 			return respondError(err);
 		}
@@ -1667,27 +1731,17 @@ public class ServerHandler {
 		Card card;
 		if (!isCreditCard) {
 			// If the debit card could not be found, stop and notify the client
-			if (DataManager.isPrimaryKeyUnique(DebitCard.CLASSNAME, DebitCard.PRIMARYKEYNAME, "" + pinCard)) {
+			card = (DebitCard) DataManager.find(DebitCard.CLASSNAME, "" + pinCard).orElse(null);
+			if (card == null) {
 				String err = buildError(500, "An unexpected error occured, see error details.", "Debit Card " + pinCard + " could not be found.");
 				return respondError(err);
-			}			
-			try {
-				card = (DebitCard) DataManager.getObjectByPrimaryKey(DebitCard.CLASSNAME, "" + pinCard);
-			} catch (ObjectDoesNotExistException e) {
-				String err = buildError(418, "One or more parameter has an invalid value. See message.", e.toString());
-				return respondError(err);
 			}
 		} else {
 			// If the credit card could not be found, stop and notify the client
-			if (DataManager.isPrimaryKeyUnique(CreditCard.CLASSNAME, CreditCard.PRIMARYKEYNAME, "" + pinCard)) {
+			card = (CreditCard) DataManager.find(CreditCard.CLASSNAME, "" + pinCard).orElse(null);
+			if (card == null) {
 				String err = buildError(500, "An unexpected error occured, see error details.", "Credit Card " + pinCard + " could not be found.");
 				return respondError(err);
-			}			
-			try {
-				card = (CreditCard) DataManager.getObjectByPrimaryKey(CreditCard.CLASSNAME, "" + pinCard);
-			} catch (ObjectDoesNotExistException e) {
-				String err = buildError(418, "One or more parameter has an invalid value. See message.", e.toString());
-				return respondError(err);
 			}
 		}
 		
@@ -1734,7 +1788,7 @@ public class ServerHandler {
 			return respondError(err);
 		}
 				
-		CustomerAccount customerAccount = accounts.get(authToken);
+		CustomerAccount customerAccount = getCustomerAccount(authToken);
 		BankAccount bankAccount;
 		try {
 			bankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
@@ -1750,14 +1804,9 @@ public class ServerHandler {
 			return respondError(error);
 		}
 		
-		if (customerAccount.getBSN().equals(bankAccount.getMainHolderBSN())) {
+		if (customerAccount.getBSN().equals(bankAccount.getMainHolderBSN())
+				|| AccessIndex.hasAccess(customerAccount.getBSN(), bankAccount.getIBAN())) {
 			authorized = true;
-		} else {
-			for (CustomerAccount c : bankAccount.getOwners()) {
-				if (c.getBSN().equals(customerAccount.getBSN())) {
-					authorized = true;
-				}
-			}
 		}
 		
 		// If the user is trying to invalidate someone else's pincard
@@ -1893,13 +1942,17 @@ public class ServerHandler {
 		BankAccount destination = null;
 		boolean authorized = false;	
 		
-		customerAccount = accounts.get(authToken);
+		customerAccount = getCustomerAccount(authToken);
 		boolean isAdmin = customerAccount.getUsername().equals("admin");
-		try {
-			source = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, sourceIBAN);
-			destination = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, targetIBAN);
-		} catch (ObjectDoesNotExistException e) {
-			String err = buildError(418, "One or more parameter has an invalid value. See message.", e.toString());
+		
+		// Load both accounts in one lookup
+		List<BankAccount> bankAccounts = DataManager.findAll(BankAccount.CLASSNAME, Arrays.asList(sourceIBAN, targetIBAN));
+		source = bankAccounts.get(0);
+		destination = bankAccounts.get(1);
+		if (source == null || destination == null) {
+			String missingIBAN = source == null ? sourceIBAN : targetIBAN;
+			String err = buildError(418, "One or more parameter has an invalid value. See message.", 
+					new ObjectDoesNotExistException(BankAccount.CLASSNAME, missingIBAN).toString());
 			return respondError(err);
 		}
 
@@ -1910,14 +1963,9 @@ public class ServerHandler {
 		}	
 		
 		// Check if the transferer owns the source bank account
-		if (customerAccount.getBSN().equals(source.getMainHolderBSN()) || isAdmin) {
+		if (customerAccount.getBSN().equals(source.getMainHolderBSN()) || isAdmin
+				|| AccessIndex.hasAccess(customerAccount.getBSN(), source.getIBAN())) {
 			authorized = true;
-		} else {
-			for (CustomerAccount c : source.getOwners()) {
-				if (c.getBSN().equals(customerAccount.getBSN())) {
-					authorized = true;
-				}
-			}
 		}
 		
 		// Check if savings account A -> main account B
@@ -2002,18 +2050,28 @@ public class ServerHandler {
 			return respondError(err);
 		}
 		
-		// If the account is already logged in, return error
-		if (accounts.containsValue(account)) {
-			String err = buildError(500, "The user is already logged in on this account.");
-			return respondError(err);
+		Principal principal = new Principal(account.getBSN(), account.getUsername(), account.getUsername().equals("admin"));
+		String token;
+		if (SignedTokens.ENABLED) {
+			// A signed token carries the user itself, so no session is kept
+			token = SignedTokens.issue(principal, java.lang.System.currentTimeMillis() + SessionStore.ABSOLUTE_TTL_MILLIS);
+		} else {
+			// Generate the authentication token
+			final String sessionToken = UUID.randomUUID().toString().toUpperCase() + "/" + params.get("username") + "/" + java.lang.System.currentTimeMillis();
+			token = sessionToken;
+			
+			// Start a session for the account, which ends the session it may have had
+			SessionStore.open(token, principal);
+			
+			// A session started in a transaction that is rolled back is closed again
+			DataManager.afterRollback(new Runnable() {
+				@Override
+				public void run() {
+					SessionStore.close(sessionToken);
+				}
+			});
 		}
 		
-		// Generate the authentication token
-		String token = UUID.randomUUID().toString().toUpperCase() + "/" + params.get("username") + "/" + java.lang.System.currentTimeMillis();
-		
-		// Associate the account with the authentication token
-		accounts.put(token, account);
-		
 		// Send the generated token to the client
 		HashMap<String, String> resp = new HashMap<>();
 		resp.put("authToken", token);
@@ -2033,34 +2091,23 @@ public class ServerHandler {
 		String authToken = (String) params.get("authToken");
 		String IBAN = (String) params.get("iBAN");
 		
-		CustomerAccount cAcc = null;
+		Principal principal = null;
 		BankAccount source = null;
 		boolean authorized = false;
 		
 		
-		cAcc = accounts.get(authToken);
+		principal = SessionStore.get(authToken);
 		
 		// If the bank account can't be found, stop and notify the client
-		if (DataManager.isPrimaryKeyUnique(BankAccount.CLASSNAME, BankAccount.PRIMARYKEYNAME, IBAN)) {
+		source = (BankAccount) DataManager.find(BankAccount.CLASSNAME, IBAN).orElse(null);
+		if (source == null) {
 			String err = buildError(500, "An unexpected error occured, see error details.", "Bank account " + IBAN + " not found.");
 			return respondError(err);
 		}
 		
-		try {
-			source = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
-		} catch (ObjectDoesNotExistException e) {
-			String err = buildError(418, "One or more parameter has an invalid value. See message.", e.toString());
-			return respondError(err);
-		}
-		
-		if (cAcc.getBSN().equals(source.getMainHolderBSN()) || isAdministrativeUser(authToken)) {
+		if (principal.getBSN().equals(source.getMainHolderBSN()) || isAdministrativeUser(authToken)
+				|| AccessIndex.hasAccess(principal.getBSN(), source.getIBAN())) {
 			authorized = true;
-		} else {
-			for (CustomerAccount c : source.getOwners()) {
-				if (c.getBSN().equals(cAcc.getBSN())) {
-					authorized = true;
-				}
-			}
 		}
 		
 		// If the client is trying to snoop on someone else's account, send an error
@@ -2071,7 +2118,12 @@ public class ServerHandler {
 		}
 		
 		HashMap<String, Object> resp = new HashMap<>();
-		resp.put("result", new Double(source.getBalance()));
+		if (source.getIBAN().equals(BankAccount.ING_BANK_ACCOUNT_IBAN)) {
+			// Part of the balance of the ING account may still be in its shards
+			resp.put("result", HouseAccount.getBalance());
+		} else {
+			resp.put("result", (double) source.getBalance());
+		}
 		
 		// If there's a savings account open, send the balance of it
 		if (source.getSavingsAccount() != null && !source.getSavingsAccount().isClosed()) {
@@ -2079,11 +2131,9 @@ public class ServerHandler {
 		}
 		
 		// If there's a credit account open, send the balance of it
-		try {
-			CreditAccount creditAccount = (CreditAccount) DataManager.getObjectByPrimaryKey(CreditAccount.CLASSNAME, IBAN);
+		CreditAccount creditAccount = (CreditAccount) DataManager.find(CreditAccount.CLASSNAME, IBAN).orElse(null);
+		if (creditAccount != null) {
 			resp.put("creditAccountBalance", creditAccount.getBalance());
-		} catch (ObjectDoesNotExistException e) {
-			// Do nothing because it doesn't exist.
 		}
 		
 		JSONRPC2Response jResp = new JSONRPC2Response(resp, "response-" + java.lang.System.currentTimeMillis());
@@ -2105,39 +2155,28 @@ public class ServerHandler {
 		long num = (long) params.get("nrOfTransactions");
 		
 			
-		CustomerAccount cAcc = null;
+		Principal principal = null;
 		BankAccount source = null;
 		boolean authorized = false;
 			
 		// If this is a bogus token, slap the client
-		if (!accounts.containsKey(authToken)) {
+		if (!SessionStore.isValid(authToken)) {
 			String err = buildError(419, "The authenticated user is not authorized to perform this action. Invalid authentication token.");
 			return respondError(err);
 		}
 				
 		// If the bank account could not be found, stop and notify the client
-		if (DataManager.isPrimaryKeyUnique(BankAccount.CLASSNAME, BankAccount.PRIMARYKEYNAME, IBAN)) {
+		source = (BankAccount) DataManager.find(BankAccount.CLASSNAME, IBAN).orElse(null);
+		if (source == null) {
 			String err = buildError(500, "An unexpected error occured, see error details.", "Bank account " + IBAN + " could not be found.");
-			respondError(err);
-		}
-		
-		try {
-			source = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN);
-		} catch (ObjectDoesNotExistException e) {
-			String err = buildError(418, "One or more parameter has an invalid value. See message.", e.toString());
 			return respondError(err);
 		}
 		
-		cAcc = accounts.get(authToken);
+		principal = SessionStore.get(authToken);
 				
-		if (cAcc.getBSN().equals(source.getMainHolderBSN()) || isAdministrativeUser(authToken)) {
+		if (principal.getBSN().equals(source.getMainHolderBSN()) || isAdministrativeUser(authToken)
+				|| AccessIndex.hasAccess(principal.getBSN(), source.getIBAN())) {
 			authorized = true;
-		} else {
-			for (CustomerAccount c : source.getOwners()) {
-				if (c.getBSN().equals(cAcc.getBSN())) {
-					authorized = true;
-				}
-			}
 		}
 			
 		// If the client is trying to snoop on someone else's account, send an error
@@ -2147,24 +2186,16 @@ public class ServerHandler {
 			return respondError(err);
 		}
 		
-		ArrayList<Criterion> cr = new ArrayList<>();
-		cr.add(Restrictions.or(Restrictions.eq("sourceIBAN", IBAN + "S"), Restrictions.eq("destinationIBAN", IBAN + "S"), Restrictions.eq("sourceIBAN", IBAN), Restrictions.eq("destinationIBAN", IBAN)));
-		List<Transaction> transactions = (List<Transaction>) DataManager.getObjectsFromDB(Transaction.CLASSNAME, cr);
-		Collections.sort(transactions);
-		Collections.reverse(transactions);
+		// Optional cursor: continue below the last transaction of the previous page
+		long beforeTimestamp = RequestValidator.getLong(params, "beforeTimestamp", Long.MAX_VALUE);
+		long beforeId = RequestValidator.getLong(params, "beforeId", Long.MAX_VALUE);
+		int limit = (int) Math.max(0, Math.min(num, MAX_TRANSACTIONS_PAGE_SIZE));
+		List<Transaction> transactions = source.findTransactions(beforeTimestamp, beforeId, limit);
 		@SuppressWarnings("rawtypes")
+		HashMap[] transactionMapsArray = new HashMap[transactions.size()];
 		
-		HashMap[] transactionMapsArray;
-		
-		if (num >= transactions.size()) {
-			transactionMapsArray = new HashMap[transactions.size()];
-		} else {
-			transactionMapsArray = new HashMap[(int) num];
-		}
-		
-		long counter = num;
-		for (int i = 0; i < transactionMapsArray.length & counter > 0; i++) {
-			HashMap<String, String> tMap = new HashMap<>();
+		for (int i = 0; i < transactionMapsArray.length; i++) {
+			HashMap<String, Object> tMap = new HashMap<>();
 			Transaction t = transactions.get(i);			
 			
 			if (t.getSourceIBAN() != null) {
@@ -2188,23 +2219,31 @@ public class ServerHandler {
 			tMap.put("date", t.getDateTime());
 			tMap.put("amount", Double.toString(t.getAmount()));
 			tMap.put("description", t.getDescription());
+			// The cursor of the next page, as numbers like the cursor parameters
+			tMap.put("timestamp", t.getDateTimeMilis());
+			tMap.put("id", t.getId());
 			transactionMapsArray[i] = tMap;
-			
-			counter--;
 		}
 			
 		JSONRPC2Response jResp = new JSONRPC2Response(transactionMapsArray, "response-" + java.lang.System.currentTimeMillis());
 		return respond(jResp.toJSONString(), jReq.getMethod());
 	}
 
-	public static HashMap<String, CustomerAccount> getAccounts() {
-		return accounts;
+	/**
+	 * @param authToken the authentication token of a session
+	 * @return the CustomerAccount of the session, or null if there is no such session
+	 */
+	public static CustomerAccount getCustomerAccount(String authToken) {
+		Principal principal = SessionStore.get(authToken);
+		if (principal == null) {
+			return null;
+		}
+		return (CustomerAccount) DataManager.find(CustomerAccount.CLASSNAME, principal.getBSN()).orElse(null);
 	}
 	
 	public static boolean isAdministrativeUser(String authToken) {
-		if (accounts.containsKey(authToken)) {
-			return accounts.get(authToken).getUsername().equals("admin");
-		} else return false;
+		Principal principal = SessionStore.get(authToken);
+		return principal != null && principal.isAdmin();
 	}
 	
 	
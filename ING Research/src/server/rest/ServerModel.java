@@ -14,11 +14,7 @@ public class ServerModel {
 	private static HashMap<String, Integer> previousPinAttempts = new HashMap<>();
 	
 	// Extension 4: 'Time simulation' related
-	private static int simulatedDays = 0;
-	
-	public ServerModel() {
-		simulatedDays = getSimulatedDaysFromFile();
-	}
+	private static volatile int simulatedDays = getSimulatedDaysFromFile();
 
 	/**
 	 * Extension 2: 'PIN block' related.
@@ -52,8 +48,9 @@ public class ServerModel {
 		return simulatedDays;
 	}
 
-	public static void setSimulatedDays(int simulatedDays, boolean write) {
+	public static synchronized void setSimulatedDays(int simulatedDays, boolean write) {
 		ServerModel.simulatedDays = ServerModel.simulatedDays + simulatedDays;
+		SchedulerService.reschedule();
 		
 		if (write) {
 			ServerDataHandler.setServerPropertyValue(ServerDataHandler.SIMULATED_DAYS_LINE, 
@@ -63,14 +60,18 @@ public class ServerModel {
 		}		
 	}
 
+	/**
+	 * @return the number of simulated days as stored in the config file
+	 */
 	public static int getSimulatedDaysFromFile() {
-		return Integer.parseInt(ServerDataHandler.getServerPropertyValue(ServerDataHandler.SIMULATED_DAYS_LINE));		
+		return ServerPropertyStore.getInt(ServerDataHandler.SIMULATED_DAYS_LINE, 0);
 	}
 	
-	public static void reset() {
+	public static synchronized void reset() {
 		ServerDataHandler.setServerPropertyValue(ServerDataHandler.SIMULATED_DAYS_LINE, "0");
 		simulatedDays = 0;
 		previousPinAttempts = new HashMap<>();
+		SchedulerService.reschedule();
 	}
 
 }
@@ -0,0 +1,127 @@
+package server.rest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+import client.Client;
+
+/**
+ * Holds the server properties of <code>config.txt</code> in memory, one property per line.
+ * The file is read once, on first use, and created with default values if it does not exist.
+ * Reads are a volatile read of an immutable array; a change copies the array, publishes the
+ * copy and writes the whole file to a temporary file that is then moved over the old one,
+ * so the file is never left half written.
+ * Changes made to the file by hand while the server is running are not picked up.
+ */
+public class ServerPropertyStore {
+
+	private static final String CONFIG_PATH = Client.DESKTOP_ING_FOLDER_PATH + "config.txt";
+
+	/**
+	 * The values of a newly created config file, per line.
+	 */
+	private static final String[] DEFAULTS = {"0", "0", "0", "0", "0"};
+
+	private static volatile String[] values;
+
+	/**
+	 * @param position The line of the property
+	 * @return The value of the property, or an empty String if it is not set
+	 */
+	public static String get(int position) {
+		String[] current = getValues();
+		return position < current.length ? current[position] : "";
+	}
+
+	/**
+	 * @param position The line of the property
+	 * @param defaultValue The value to return if the property is not set or not a number
+	 * @return The value of the property as an int
+	 */
+	public static int getInt(int position, int defaultValue) {
+		try {
+			return Integer.parseInt(get(position).trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @param position The line of the property
+	 * @param defaultValue The value to return if the property is not set or not a number
+	 * @return The value of the property as a long
+	 */
+	public static long getLong(int position, long defaultValue) {
+		try {
+			return Long.parseLong(get(position).trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Changes a property and writes all properties to the config file.
+	 * @param position The line of the property
+	 * @param value The new value
+	 */
+	public static synchronized void set(int position, String value) {
+		String[] current = getValues();
+		String[] updated = Arrays.copyOf(current, Math.max(current.length, position + 1));
+		for (int i = current.length; i < updated.length; i++) {
+			updated[i] = "";
+		}
+		updated[position] = value;
+		values = updated;
+		write(updated);
+	}
+
+	private static String[] getValues() {
+		String[] current = values;
+		if (current == null) {
+			current = load();
+		}
+		return current;
+	}
+
+	private static synchronized String[] load() {
+		if (values != null) {
+			return values;
+		}
+		Path path = Paths.get(CONFIG_PATH);
+		String[] loaded;
+		if (Files.exists(path)) {
+			try {
+				List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+				loaded = lines.toArray(new String[lines.size()]);
+			} catch (IOException e) {
+				e.printStackTrace();
+				loaded = DEFAULTS.clone();
+			}
+		} else {
+			loaded = DEFAULTS.clone();
+			write(loaded);
+		}
+		values = loaded;
+		return loaded;
+	}
+
+	/**
+	 * Writes the properties to a temporary file and moves it over the config file.
+	 */
+	private static void write(String[] lines) {
+		File temporary = new File(CONFIG_PATH + ".tmp");
+		try {
+			Files.write(temporary.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+			Files.move(temporary.toPath(), Paths.get(CONFIG_PATH), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
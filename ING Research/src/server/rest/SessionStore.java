@@ -0,0 +1,213 @@
+package server.rest;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The sessions of the logged in users, by authentication token. A session holds a small
+ * <code>Principal</code> instead of the <code>CustomerAccount</code> itself; handlers that need
+ * the account load it by BSN. A user has at most one session: logging in again replaces the
+ * session the user had, which is found through an index by BSN rather than by looking at all
+ * sessions. There is no logout on the server, so a client that has dropped its token simply
+ * logs in again.
+ * A session expires when it has not been used for <code>IDLE_TTL_MILLIS</code>, or when it is
+ * older than <code>ABSOLUTE_TTL_MILLIS</code>, whichever comes first. Expired sessions are removed
+ * when they are used and by a <code>sweep()</code> that the <code>SchedulerService</code> runs every
+ * minute. The times are wall clock times, so simulating days does not log anyone out.
+ * The lifetimes can be set with the <code>session.idleTtl</code> and <code>session.absoluteTtl</code>
+ * system properties, in milliseconds.
+ */
+public class SessionStore {
+
+	public static final long IDLE_TTL_MILLIS = Long.getLong("session.idleTtl", 30L * 60 * 1000);
+	public static final long ABSOLUTE_TTL_MILLIS = Long.getLong("session.absoluteTtl", 12L * 3600 * 1000);
+
+	/**
+	 * How often the expired sessions are swept.
+	 */
+	public static final long SWEEP_INTERVAL_MILLIS = 60 * 1000;
+
+	/**
+	 * Who a session belongs to.
+	 */
+	public static final class Principal {
+		private final String BSN;
+		private final String username;
+		private final boolean admin;
+
+		public Principal(String BSN, String username, boolean admin) {
+			this.BSN = BSN;
+			this.username = username;
+			this.admin = admin;
+		}
+
+		public String getBSN() {
+			return BSN;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public boolean isAdmin() {
+			return admin;
+		}
+	}
+
+	private static final class Session {
+		private final String token;
+		private final Principal principal;
+		private final long created;
+		private volatile long lastUsed;
+
+		private Session(String token, Principal principal, long now) {
+			this.token = token;
+			this.principal = principal;
+			this.created = now;
+			this.lastUsed = now;
+		}
+
+		private boolean isAbsoluteExpired(long now) {
+			return now - created >= ABSOLUTE_TTL_MILLIS;
+		}
+
+		private boolean isIdleExpired(long now) {
+			return now - lastUsed >= IDLE_TTL_MILLIS;
+		}
+	}
+
+	private static final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, Session> sessionsByBSN = new ConcurrentHashMap<>();
+
+	private static final AtomicLong opened = new AtomicLong();
+	private static final AtomicLong replaced = new AtomicLong();
+	private static final AtomicLong idleEvictions = new AtomicLong();
+	private static final AtomicLong absoluteEvictions = new AtomicLong();
+
+	/**
+	 * Starts a session. A session the user had already is ended, so its token is no longer valid.
+	 * @param token The authentication token of the new session
+	 * @param principal The user
+	 */
+	public static void open(String token, Principal principal) {
+		long now = System.currentTimeMillis();
+		Session session = new Session(token, principal, now);
+		sessions.put(token, session);
+		Session existing = sessionsByBSN.put(principal.getBSN(), session);
+		if (existing != null && sessions.remove(existing.token, existing) && !existing.isAbsoluteExpired(now)
+				&& !existing.isIdleExpired(now)) {
+			replaced.incrementAndGet();
+		}
+		opened.incrementAndGet();
+	}
+
+	/**
+	 * Looks up a session and marks it as used. A signed token (see <code>SignedTokens</code>) is
+	 * verified instead, if signed tokens are enabled.
+	 * @param token An authentication token
+	 * @return The user of the session, or null if the token is unknown or its session has expired
+	 */
+	public static Principal get(String token) {
+		if (token == null) {
+			return null;
+		}
+		if (SignedTokens.ENABLED && SignedTokens.isSigned(token)) {
+			return SignedTokens.verify(token);
+		}
+		Session session = sessions.get(token);
+		if (session == null) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		if (expire(session, now)) {
+			return null;
+		}
+		session.lastUsed = now;
+		return session.principal;
+	}
+
+	/**
+	 * @param token An authentication token
+	 * @return True if the token belongs to a session that has not expired
+	 */
+	public static boolean isValid(String token) {
+		return get(token) != null;
+	}
+
+	/**
+	 * Ends a session.
+	 * @param token The authentication token of the session
+	 */
+	public static void close(String token) {
+		Session session = sessions.remove(token);
+		if (session != null) {
+			sessionsByBSN.remove(session.principal.getBSN(), session);
+		}
+	}
+
+	/**
+	 * Removes all expired sessions.
+	 * @return The number of removed sessions
+	 */
+	public static int sweep() {
+		long now = System.currentTimeMillis();
+		int removed = 0;
+		for (Iterator<Session> it = sessions.values().iterator(); it.hasNext();) {
+			if (expire(it.next(), now)) {
+				removed++;
+			}
+		}
+		if (removed > 0) {
+			System.out.println("[INFO] Expired " + removed + " session(s): " + getStatistics());
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes a session if it has expired. Only the thread that actually removes it counts it.
+	 * @return True if the session has expired
+	 */
+	private static boolean expire(Session session, long now) {
+		boolean absolute = session.isAbsoluteExpired(now);
+		if (!absolute && !session.isIdleExpired(now)) {
+			return false;
+		}
+		if (sessions.remove(session.token, session)) {
+			(absolute ? absoluteEvictions : idleEvictions).incrementAndGet();
+		}
+		sessionsByBSN.remove(session.principal.getBSN(), session);
+		return true;
+	}
+
+	/**
+	 * @return The number of sessions, including expired ones that have not been removed yet
+	 */
+	public static int getSize() {
+		return sessions.size();
+	}
+
+	public static long getOpenedCount() {
+		return opened.get();
+	}
+
+	/**
+	 * @return How often a user logged in while having a live session, which was then ended
+	 */
+	public static long getReplacedCount() {
+		return replaced.get();
+	}
+
+	public static long getIdleEvictionCount() {
+		return idleEvictions.get();
+	}
+
+	public static long getAbsoluteEvictionCount() {
+		return absoluteEvictions.get();
+	}
+
+	public static String getStatistics() {
+		return String.format("live=%d, opened=%d, replaced=%d, idleEvictions=%d, absoluteEvictions=%d",
+				getSize(), getOpenedCount(), getReplacedCount(), getIdleEvictionCount(), getAbsoluteEvictionCount());
+	}
+}
@@ -0,0 +1,145 @@
+package server.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import server.rest.SessionStore.Principal;
+
+/**
+ * Authentication tokens that carry their own <code>Principal</code>: the BSN, username, role and
+ * expiry of the user, signed with HMAC-SHA256. Any server instance that has the same secret can
+ * verify such a token without looking up a session, so requests can be spread over several
+ * instances. The tokens are used instead of sessions when the <code>auth.tokens</code> system
+ * property is <code>signed</code>; the secret is read from <code>auth.secret</code> and has to be
+ * the same on every instance. Without a secret, a random one is made, which only this instance knows.
+ * A signed token can not be revoked and has no idle timeout: it is valid until it expires, after
+ * <code>SessionStore.ABSOLUTE_TTL_MILLIS</code>. Neither is a user kept from logging in twice,
+ * since that would take shared state.
+ * Format: <code>v1.&lt;payload&gt;.&lt;signature&gt;</code>, both Base64url encoded, where the
+ * payload is <code>BSN|expiry|role|username</code>.
+ */
+public class SignedTokens {
+
+	public static final boolean ENABLED = "signed".equals(System.getProperty("auth.tokens"));
+
+	private static final String PREFIX = "v1.";
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final String ADMIN_ROLE = "admin";
+	private static final String CUSTOMER_ROLE = "customer";
+
+	private static final byte[] secret = readSecret();
+
+	private static final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			try {
+				Mac mac = Mac.getInstance(ALGORITHM);
+				mac.init(new SecretKeySpec(secret, ALGORITHM));
+				return mac;
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private static final AtomicLong issued = new AtomicLong();
+	private static final AtomicLong verified = new AtomicLong();
+	private static final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param principal The user
+	 * @param expiryMillis The wall clock time at which the token expires
+	 * @return A signed token for the user
+	 */
+	public static String issue(Principal principal, long expiryMillis) {
+		String payload = principal.getBSN() + "|" + expiryMillis + "|"
+				+ (principal.isAdmin() ? ADMIN_ROLE : CUSTOMER_ROLE) + "|" + principal.getUsername();
+		byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		issued.incrementAndGet();
+		return PREFIX + encoder.encodeToString(payloadBytes) + "." + encoder.encodeToString(sign(payloadBytes));
+	}
+
+	/**
+	 * @param token An authentication token
+	 * @return True if the token has the format of a signed token; it may still be invalid
+	 */
+	public static boolean isSigned(String token) {
+		return token.startsWith(PREFIX);
+	}
+
+	/**
+	 * @param token A signed token
+	 * @return The user of the token, or null if the signature is wrong, the token is malformed or it has expired
+	 */
+	public static Principal verify(String token) {
+		Principal principal = null;
+		try {
+			principal = parse(token);
+		} catch (IllegalArgumentException e) {
+			// Malformed Base64 or expiry; the token is rejected below
+		}
+		(principal == null ? rejected : verified).incrementAndGet();
+		return principal;
+	}
+
+	private static Principal parse(String token) {
+		int dot = token.indexOf('.', PREFIX.length());
+		if (!isSigned(token) || dot < 0) {
+			return null;
+		}
+		Base64.Decoder decoder = Base64.getUrlDecoder();
+		byte[] payloadBytes = decoder.decode(token.substring(PREFIX.length(), dot));
+		byte[] signature = decoder.decode(token.substring(dot + 1));
+		if (!MessageDigest.isEqual(signature, sign(payloadBytes))) {
+			return null;
+		}
+
+		// The username comes last, so it may contain the separator
+		String[] fields = new String(payloadBytes, StandardCharsets.UTF_8).split("\\|", 4);
+		if (fields.length != 4 || Long.parseLong(fields[1]) <= System.currentTimeMillis()) {
+			return null;
+		}
+		return new Principal(fields[0], fields[3], ADMIN_ROLE.equals(fields[2]));
+	}
+
+	private static byte[] sign(byte[] payload) {
+		return macs.get().doFinal(payload);
+	}
+
+	private static byte[] readSecret() {
+		String configured = System.getProperty("auth.secret");
+		if (configured != null && !configured.isEmpty()) {
+			return configured.getBytes(StandardCharsets.UTF_8);
+		}
+		byte[] random = new byte[32];
+		new SecureRandom().nextBytes(random);
+		if (ENABLED) {
+			System.out.println("[INFO] No auth.secret set; signed tokens are only valid on this instance");
+		}
+		return random;
+	}
+
+	public static long getIssuedCount() {
+		return issued.get();
+	}
+
+	public static long getVerifiedCount() {
+		return verified.get();
+	}
+
+	public static long getRejectedCount() {
+		return rejected.get();
+	}
+
+	public static String getStatistics() {
+		return String.format("issued=%d, verified=%d, rejected=%d", getIssuedCount(), getVerifiedCount(), getRejectedCount());
+	}
+}
@@ -15,6 +15,7 @@ import database.DataManager;
 @Entity
 @Table(name = "timeevents")
 public class TimeEvent implements database.DBObject {
+	private static final long serialVersionUID = 1L;
 
 	public static final String CLASSNAME = "server.rest.TimeEvent";
 	public static final String PRIMARYKEYNAME = "name";
@@ -109,10 +110,18 @@ public class TimeEvent implements database.DBObject {
 
 	public void saveToDB() {
 		DataManager.save(this);
+		EventScheduler.saved(this);
 	}
 
 	public void deleteFromDB() {
 		DataManager.removeEntryFromDB(this);
+		// Events are deleted by name, which may match more than this one
+		DataManager.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				EventScheduler.clear();
+			}
+		});
 	}
 
 }
@@ -1,76 +1,63 @@
 package server.rest;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-import org.hibernate.criterion.Criterion;
-import org.hibernate.criterion.Restrictions;
-
 import accounts.BankAccount;
-import accounts.CreditAccount;
+import accounts.BulkPosting;
+import accounts.BulkPosting.Ledger;
+import accounts.Transaction;
 import cards.CreditCard;
+import client.Client;
 import database.DataManager;
 import database.SQLiteDB;
-import exceptions.IllegalAmountException;
+import database.NamedStatement;
 import exceptions.ObjectDoesNotExistException;
 import logging.Logger;
 
-public class TimeOperator extends Thread {
+public class TimeOperator {
 	
-	public TimeOperator() {
-		start();
-		BankSystemValue.init();
-	}
+	private static final long DAY_MILLIS = 24L * 3600 * 1000;
 
 	/**
-	 * A timer that checks for certain events for specific dates/times AND when it is interrupted.
+	 * Handles the TimeEvents that are due at the given server time. Run by the 
+	 * <code>SchedulerService</code> whenever the next TimeEvent is due.
+	 * @param c the current server time
 	 */
-	@Override
-	public void run() {		
-		while (true) {
-			Calendar c = ServerModel.getServerCalendar();
-
-			// Update events on a daily basis
-			SQLiteDB.connectionLock.lock();
-			System.out.println("[INFO] updating system");
-			updateSystem(c);
-			SQLiteDB.connectionLock.unlock();
-			
-			try {
-				// Sleep for a day
-				Thread.sleep(3600 * 1000 * 24);
-			} catch (InterruptedException e) {
-				
-			}	
-		}
+	static void handleDueEvents(Calendar c) {
+		handleEvents(EventScheduler.pollDue(c.getTimeInMillis() + 1), c.getTimeInMillis());
 	}
 	
+	/**
+	 * Simulates the given number of days. Waits for the job of the <code>SchedulerService</code>
+	 * that is running, if any, and keeps the others from running meanwhile.
+	 * @param newlySimulatedDays the number of days to simulate
+	 */
 	public static void simulateDays(int newlySimulatedDays) {
+		SchedulerService.jobLock.lock();
 		SQLiteDB.connectionLock.lock();
-		Calendar serverCalendar = ServerModel.getServerCalendar();
-		for (int i = 1; i <= newlySimulatedDays; i++) {
-			System.out.println("[INFO] Passing " + serverCalendar.getTime().toString());
-			serverCalendar.add(Calendar.DATE, 1);
-			System.out.println("[INFO] -> handling interest");
-			InterestHandler.handleInterest(serverCalendar);
-			System.out.println("[INFO] -> updating system");
-			updateSystem(serverCalendar);
-		}	
-		SQLiteDB.connectionLock.unlock();
+		try {
+			Calendar serverCalendar = ServerModel.getServerCalendar();
+			System.out.println("[INFO] Simulating " + newlySimulatedDays + " day(s) from " + serverCalendar.getTime().toString());
+			InterestEngine.simulate(serverCalendar, newlySimulatedDays, true);
+		} finally {
+			SQLiteDB.connectionLock.unlock();
+			SchedulerService.jobLock.unlock();
+		}
 	}
 	
 	/**
 	 * Updates the system if there are any TimeEvents with the current given Calendar date.
 	 * @param c the server date that will be used to check for TimeEvents
 	 */
-	private static void updateSystem(Calendar c) {
+	public static void updateSystem(Calendar c) {
 		String date = c.get(Calendar.YEAR) + "-" + (c.get(Calendar.MONTH) + 1) + "-" + c.get(Calendar.DATE);
 		long startMillis = 0;
 		try {
@@ -79,12 +66,50 @@ public class TimeOperator extends Thread {
 			e.printStackTrace();
 			return;
 		}
-		long endMillis = startMillis + 1000 * 3600 * 24;
+		long endMillis = startMillis + DAY_MILLIS;
 		
-		ArrayList<TimeEvent> todaysUnfinishedEvents = getTodaysEvents(startMillis, endMillis);
-		System.out.println("[INFO] Handling " + todaysUnfinishedEvents.size() + " event(s)");
+		// Includes events of earlier days that were somehow left unhandled
+		handleEvents(EventScheduler.pollDue(endMillis), c.getTimeInMillis());
+	}
+	
+	/**
+	 * Handles the given TimeEvents, in order, each in a transaction of its own. An event whose 
+	 * handler fails is rolled back completely and put back into the <code>EventScheduler</code> 
+	 * to be tried again later, and the next events are handled.
+	 * @param events the events that are due
+	 * @param nowMillis the current server time
+	 */
+	private static void handleEvents(List<TimeEvent> events, long nowMillis) {
+		if (events.isEmpty()) {
+			return;
+		}
+		System.out.println("[INFO] Handling " + events.size() + " event(s)");
 		
-		for (TimeEvent t : todaysUnfinishedEvents) {
+		for (TimeEvent t : events) {
+			if (!handleInTransaction(t)) {
+				// The handler may have marked the event executed before it was rolled back
+				t.setExecuted(false);
+				System.out.println("[INFO] Event " + t.getID() + " (" + t.getName() + ") failed; trying again later");
+				EventScheduler.retry(t, nowMillis);
+			}
+		}
+	}
+	
+	/**
+	 * Handles a TimeEvent in one transaction, so a handler that fails half-way leaves nothing
+	 * behind and can simply be run again.
+	 * @param t the event
+	 * @return True if the event was handled and committed, false if it was rolled back
+	 */
+	private static boolean handleInTransaction(TimeEvent t) {
+		try {
+			DataManager.beginTransaction();
+		} catch (IllegalStateException e) {
+			e.printStackTrace();
+			return false;
+		}
+		boolean handled = false;
+		try {
 			switch (t.getName()) {
 			case "BANK_SYSTEM_VALUE_UPDATE":
 				updateBankSystemValue(t);
@@ -102,7 +127,13 @@ public class TimeOperator extends Thread {
 				updateCreditCardAndFee(t);
 				break;
 			}
+			handled = true;
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		} finally {
+			handled = DataManager.endTransaction(handled);
 		}
+		return handled;
 	}
 	
 	private static void activateCreditCard(TimeEvent t) {
@@ -117,6 +148,8 @@ public class TimeOperator extends Thread {
 		} catch (ObjectDoesNotExistException e) {
 			e.printStackTrace();
 		}
+		t.setExecuted(true);
+		t.saveToDB();
 	}
 
 	/**
@@ -126,20 +159,25 @@ public class TimeOperator extends Thread {
 	 */
 	private static void updateAccountType(TimeEvent t) {
 		String[] descriptionArray = t.getDescription().split(":");
-		String IBAN = descriptionArray[1];
+		final String IBAN = descriptionArray[1];
 		
 		BankAccount ingBankAccount;
 		try {
-			Double positiveInterest = ServerDataHandler.getTotalPositiveInterestMap().get(IBAN);
-			
-			// Delete this IBAN's entry from the map
-			HashMap<String, Double> map = ServerDataHandler.getTotalPositiveInterestMap();
-			map.remove(IBAN);
-			ServerDataHandler.setTotalPositiveInterestMap(map);
+			// Take this IBAN's entry from the map
+			final Double positiveInterest = InterestLedger.remove(InterestLedger.Book.TOTAL_POSITIVE_INTEREST, IBAN);
 			
 			// Transfer the money
-			ingBankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, BankAccount.ING_BANK_ACCOUNT_IBAN);
-			ingBankAccount.transfer(IBAN, positiveInterest);
+			if (positiveInterest != null) {
+				// If the transfer is rolled back, the interest is still to be paid
+				DataManager.afterRollback(new Runnable() {
+					@Override
+					public void run() {
+						InterestLedger.add(InterestLedger.Book.TOTAL_POSITIVE_INTEREST, IBAN, positiveInterest);
+					}
+				});
+				ingBankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, BankAccount.ING_BANK_ACCOUNT_IBAN);
+				ingBankAccount.transfer(IBAN, positiveInterest);
+			}
 		} catch (ObjectDoesNotExistException e) {
 			e.printStackTrace();
 		}
@@ -176,20 +214,17 @@ public class TimeOperator extends Thread {
 	}
 	
 	/**
-	 * Updates the transferLimit for each and every bank account that has requested such update.
+	 * Updates the transferLimit for each and every bank account that has requested such update,
+	 * in one batch. Entries of bank accounts that do not exist (anymore) change nothing.
 	 * @param t The TimeEvent that indicates that the transfer limits should be updated
 	 */
 	private static void updateTransferLimit(TimeEvent t) {
 		HashMap<String, Double> updatedTransferLimitMap = ServerDataHandler.getUpdatedTransferLimitMap();
+		List<Object[]> updates = new ArrayList<>(updatedTransferLimitMap.size());
 		for (Map.Entry<String, Double> entry : updatedTransferLimitMap.entrySet()) {
-			try {
-				BankAccount bankAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, entry.getKey());
-				bankAccount.setTransferLimit(entry.getValue());
-				bankAccount.saveToDB();
-			} catch (ObjectDoesNotExistException e) {
-				// Bank account does not exist.. do nothing with the entry
-			}
+			updates.add(new Object[] {entry.getValue(), entry.getKey()});
 		}
+		SQLiteDB.executeBatch(NamedStatement.UPDATE_TRANSFER_LIMIT, updates);
 		
 		// Update events
 		t.setExecuted(true);
@@ -209,37 +244,51 @@ public class TimeOperator extends Thread {
 	}
 	
 	/**
-	 * Updates the transferLimit for each and every bank account that has requested such update.
-	 * @param t The TimeEvent that indicates that the transfer limits should be updated
+	 * Resets the balance of every open credit account that has been used to the default credit,
+	 * with money from its bank account, and charges the monthly fee for it to the ING account.
+	 * All accounts are posted together in one <code>BulkPosting</code>.
+	 * @param t The TimeEvent that indicates that the credit cards should be reset
 	 */
 	private static void updateCreditCardAndFee(TimeEvent t) {
-		ArrayList<Criterion> cr = new ArrayList<>();
-		cr.add(Restrictions.eq("closed", false));
-		@SuppressWarnings("unchecked")
-		ArrayList<CreditAccount> creditCardUsers = (ArrayList<CreditAccount>) DataManager.getObjectsFromDB(CreditAccount.CLASSNAME, cr);
-		
-		for (CreditAccount c : creditCardUsers) {
-			try {			
-				// Equalize balance
-				BankAccount b = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, c.getIBAN());
-				double moneyToTransfer = BankSystemValue.CREDIT_CARD_DEFAULT_CREDIT.getAmount() - c.getBalance();
-				b.credit(moneyToTransfer);
-				c.debit(moneyToTransfer);
+		BankSystemSnapshot values = BankSystemValue.snapshot();
+		double defaultCredit = values.get(BankSystemValue.CREDIT_CARD_DEFAULT_CREDIT);
+		double fee = values.get(BankSystemValue.CREDIT_CARD_MONTHLY_FEE);
+		BulkPosting posting = new BulkPosting();
+		int resets = 0;
+		Connection con = SQLiteDB.openConnection();
+		try {
+			ResultSet rs = SQLiteDB.prepare(con, NamedStatement.OPEN_CREDIT_ACCOUNTS).executeQuery();
+			while (rs.next()) {
+				String IBAN = rs.getString("IBAN");
+				// Equalize balance; credit accounts that were not used are left alone
+				double moneyToTransfer = defaultCredit - rs.getDouble("balance");
+				if (moneyToTransfer <= 0) {
+					continue;
+				}
+				posting.change(Ledger.BANK, IBAN, -moneyToTransfer);
+				posting.change(Ledger.CREDIT, IBAN, moneyToTransfer);
+				resets++;
 
 				// Subtract fee
-				b.credit(BankSystemValue.CREDIT_CARD_MONTHLY_FEE.getAmount());
-				b.saveToDB();
-				c.saveToDB();
-			} catch (IllegalAmountException | ObjectDoesNotExistException e) {
-				e.printStackTrace();
+				if (fee > 0) {
+					posting.change(Ledger.BANK, IBAN, -fee);
+					posting.changeIngBalance(fee);
+					posting.record(feeTransaction(IBAN, fee));
+				}
 			}
+			rs.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			SQLiteDB.closeConnection(con);
 		}
+		posting.post();
 		
 		// Update events
 		t.setExecuted(true);
 		t.saveToDB();
 		
-		System.out.println("[UPDATE] Credit cards reset and fees subtracted for " + creditCardUsers.size() + " users.");
+		System.out.println("[UPDATE] Credit cards reset and fees subtracted for " + resets + " users.");
 		
 		TimeEvent nextMonthUpdate = new TimeEvent();
 		Calendar c = Calendar.getInstance();
@@ -253,34 +302,23 @@ public class TimeOperator extends Thread {
 	}
 
 	/**
-	 * Returns all TimeEvents which are not executed and are between 0:00 23:59 of a day.
-	 * @param startMillis the start of milliseconds
-	 * @param endMillis the end of milliseconds
-	 * @return the list of TimeEvents which should be handled today
+	 * @return the <code>Transaction</code> of the monthly credit card fee of a bank account
 	 */
-	private static ArrayList<TimeEvent> getTodaysEvents(long startMillis, long endMillis) {
-		ArrayList<TimeEvent> result = new ArrayList<>();
-    	Connection c = SQLiteDB.openConnection();	
-		ResultSet rs;
-		try {
-			PreparedStatement s = c.prepareStatement("SELECT * FROM timeevents WHERE timestamp >= ? AND timestamp < ? AND executed = 0");
-			s.setLong(1, startMillis);
-			s.setLong(2, endMillis);
-			rs = s.executeQuery();
-			while (rs.next()) {
-				TimeEvent timeEvent = new TimeEvent();
-				timeEvent.setID(rs.getInt("ID"));
-				timeEvent.setName(rs.getString("name"));
-				timeEvent.setTimestamp(Long.parseLong(rs.getString("timestamp")));
-				timeEvent.setDescription(rs.getString("description"));
-				timeEvent.setExecuted(rs.getBoolean("executed"));
-				result.add(timeEvent);
-			}
-		} catch (NumberFormatException | SQLException e) {
-			e.printStackTrace();
-		}
-		
-		return result;	
+	private static Transaction feeTransaction(String IBAN, double fee) {
+		Calendar c = Calendar.getInstance();
+		// Add simulated days
+		c.add(Calendar.DATE, Client.getSimulatedDays());
+
+		Transaction t = new Transaction();
+		t.setDateTime(c.getTime().toString());
+		t.setDateTimeMilis(c.getTimeInMillis());
+		t.setSourceIBAN(IBAN);
+		t.setDestinationIBAN(BankAccount.ING_BANK_ACCOUNT_IBAN);
+		t.setPinTransaction(false);
+		t.setAmount(fee);
+		t.setDescription("Credit card monthly fee");
+		t.setTargetName("ING");
+		return t;
 	}
 
 }
@@ -0,0 +1,144 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.AccessIndex;
+import accounts.BankAccount;
+import accounts.CustomerAccount;
+import database.DataManager;
+import database.NamedStatement;
+import database.SQLiteDB;
+
+/**
+ * Checks the <code>AccessIndex</code> against the <code>customerbankaccounts</code> table it
+ * replaces lookups in.
+ */
+public class AccessIndexTest {
+	private CustomerAccount holder;
+	private CustomerAccount other;
+	private BankAccount account;
+
+	@Before
+	public void setUp() {
+		DataManager.initIfRequired();
+		String suffix = Long.toString(System.nanoTime());
+		holder = customer("AI" + suffix + "A");
+		other = customer("AI" + suffix + "B");
+		// Load the index first, so it is kept up to date from here on
+		AccessIndex.hasAccess(holder.getBSN(), "NL00INGB0000000000");
+		account = holder.openBankAccount();
+		holder.saveToDB();
+		other.saveToDB();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		holder.SQLdeleteFromDB();
+		other.SQLdeleteFromDB();
+	}
+
+	@Test
+	public void testIndexMatchesTable() throws SQLException {
+		assertMatchesTable();
+		assertTrue(AccessIndex.hasAccess(holder.getBSN(), account.getIBAN()));
+		assertFalse(AccessIndex.hasAccess(other.getBSN(), account.getIBAN()));
+
+		other.addBankAccount(account);
+		other.saveToDB();
+		assertMatchesTable();
+		assertTrue(AccessIndex.hasAccess(other.getBSN(), account.getIBAN()));
+
+		SQLiteDB.executeUpdate(NamedStatement.DELETE_ACCESS, other.getBSN(), account.getIBAN());
+		AccessIndex.revoked(other.getBSN(), account.getIBAN());
+		assertMatchesTable();
+		assertFalse(AccessIndex.hasAccess(other.getBSN(), account.getIBAN()));
+
+		// The same, read from the database
+		AccessIndex.clear();
+		assertMatchesTable();
+	}
+
+	@Test
+	public void testAccessOfTransactionIsSeenByItsThreadOnly() throws Exception {
+		DataManager.beginTransaction();
+		try {
+			other.addBankAccount(account);
+			other.saveToDB();
+			assertTrue(AccessIndex.hasAccess(other.getBSN(), account.getIBAN()));
+			assertFalse(hasAccessOnOtherThread(other.getBSN(), account.getIBAN()));
+		} finally {
+			DataManager.endTransaction(false);
+		}
+		assertFalse(AccessIndex.hasAccess(other.getBSN(), account.getIBAN()));
+		assertMatchesTable();
+
+		// Entities that took part in a rolled back transaction are loaded again, as Hibernate requires
+		other = (CustomerAccount) DataManager.getObjectByPrimaryKey(CustomerAccount.CLASSNAME, other.getBSN());
+		account = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, account.getIBAN());
+		DataManager.beginTransaction();
+		try {
+			other.addBankAccount(account);
+			other.saveToDB();
+		} finally {
+			assertTrue(DataManager.endTransaction(true));
+		}
+		assertTrue(hasAccessOnOtherThread(other.getBSN(), account.getIBAN()));
+		assertMatchesTable();
+	}
+
+	private void assertMatchesTable() throws SQLException {
+		for (CustomerAccount customer : new CustomerAccount[] {holder, other}) {
+			assertEquals(query("SELECT IBAN FROM customerbankaccounts WHERE customer_BSN = ?", customer.getBSN()),
+					AccessIndex.getIBANs(customer.getBSN()));
+		}
+		assertEquals(query("SELECT customer_BSN FROM customerbankaccounts WHERE IBAN = ?", account.getIBAN()),
+				AccessIndex.getBSNs(account.getIBAN()));
+	}
+
+	private static Set<String> query(String sql, String key) throws SQLException {
+		Set<String> result = new HashSet<>();
+		Connection c = SQLiteDB.openConnection();
+		try {
+			PreparedStatement s = c.prepareStatement(sql);
+			s.setString(1, key);
+			ResultSet rs = s.executeQuery();
+			while (rs.next()) {
+				result.add(rs.getString(1));
+			}
+			s.close();
+		} finally {
+			SQLiteDB.closeConnection(c);
+		}
+		return result;
+	}
+
+	private static boolean hasAccessOnOtherThread(final String BSN, final String IBAN) throws InterruptedException {
+		final AtomicBoolean access = new AtomicBoolean();
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				access.set(AccessIndex.hasAccess(BSN, IBAN));
+			}
+		});
+		thread.start();
+		thread.join();
+		return access.get();
+	}
+
+	private static CustomerAccount customer(String BSN) {
+		return new CustomerAccount("Index", "Test", "IT", BSN, "Main Street 1", "+31612345678",
+				"index@test.nl", "1990-01-01", BSN.toLowerCase(), "pw");
+	}
+}
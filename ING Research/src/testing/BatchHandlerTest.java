@@ -0,0 +1,183 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import server.rest.BatchHandler;
+import server.rest.ServerHandler;
+
+/**
+ * Sends batches to <code>ServerHandler</code> and checks the order of the responses and what is
+ * left of a batch that is rolled back.
+ */
+public class BatchHandlerTest {
+	private String IBAN;
+	private String authToken;
+	private String deposit;
+
+	@Before
+	public void setUp() throws Exception {
+		String username = username();
+		JSONObject account = (JSONObject) single("openAccount", openAccountParams(username));
+		IBAN = (String) account.get("iBAN");
+		authToken = (String) ((JSONObject) single("getAuthToken", "{\"username\":\"" + username + "\",\"password\":\"cake\"}")).get("authToken");
+		deposit = "{\"iBAN\":\"" + IBAN + "\",\"pinCard\":\"" + account.get("pinCard")
+				+ "\",\"pinCode\":\"" + account.get("pinCode") + "\",\"amount\":10.0}";
+	}
+
+	@Test
+	public void testMixedBatchIsAnsweredInOrder() throws Exception {
+		String balance = "{\"authToken\":\"" + authToken + "\",\"iBAN\":\"" + IBAN + "\"}";
+		JSONArray responses = batch(false,
+				request(1, "getBalance", balance),
+				request(2, "depositIntoAccount", deposit),
+				request(3, "getBalance", balance),
+				request(4, "getBalance", balance),
+				request(5, "depositIntoAccount", deposit),
+				request(6, "getBalance", balance),
+				request(7, "getDate", "{}"));
+		assertEquals(7, responses.size());
+		for (int i = 0; i < responses.size(); i++) {
+			assertNull(get(responses, i).get("error"));
+			assertEquals(i + 1, ((Number) get(responses, i).get("id")).intValue());
+		}
+		// The reads see the writes before them in the batch, and none after them
+		assertEquals(0, balance(get(responses, 0).get("result")), 0.001);
+		assertEquals(10, balance(get(responses, 2).get("result")), 0.001);
+		assertEquals(10, balance(get(responses, 3).get("result")), 0.001);
+		assertEquals(20, balance(get(responses, 5).get("result")), 0.001);
+	}
+
+	@Test
+	public void testFailedRequestRollsBackTransaction() throws Exception {
+		String username = username();
+		JSONArray responses = batch(true,
+				request(1, "depositIntoAccount", deposit),
+				request(2, "openAccount", openAccountParams(username)),
+				request(3, "getBalance", "{\"authToken\":\"invalid\",\"iBAN\":\"" + IBAN + "\"}"),
+				request(4, "depositIntoAccount", deposit));
+
+		// The requests before the failed one succeeded, but were rolled back
+		assertEquals(BatchHandler.ROLLED_BACK, errorCode(get(responses, 0)));
+		assertEquals(BatchHandler.ROLLED_BACK, errorCode(get(responses, 1)));
+		int code = errorCode(get(responses, 2));
+		assertNotEquals(BatchHandler.ROLLED_BACK, code);
+		// The requests after it were not done at all
+		assertEquals(BatchHandler.ROLLED_BACK, errorCode(get(responses, 3)));
+		for (int i = 0; i < responses.size(); i++) {
+			assertEquals(i + 1, ((Number) get(responses, i).get("id")).intValue());
+		}
+
+		assertEquals(0, balance(single("getBalance", "{\"authToken\":\"" + authToken + "\",\"iBAN\":\"" + IBAN + "\"}")), 0.001);
+		assertNotNull(call("getAuthToken", "{\"username\":\"" + username + "\",\"password\":\"cake\"}").get("error"));
+	}
+
+	@Test
+	public void testTransactionIsCommitted() throws Exception {
+		JSONArray responses = batch(true,
+				request(1, "depositIntoAccount", deposit),
+				request(2, "depositIntoAccount", deposit));
+		assertNull(get(responses, 0).get("error"));
+		assertNull(get(responses, 1).get("error"));
+		assertEquals(20, balance(single("getBalance", "{\"authToken\":\"" + authToken + "\",\"iBAN\":\"" + IBAN + "\"}")), 0.001);
+	}
+
+	@Test
+	public void testNonTransactionalMethodIsRejected() throws Exception {
+		JSONArray responses = batch(true,
+				request(1, "depositIntoAccount", deposit),
+				request(2, "simulateTime", "{\"nrOfDays\":1}"));
+		assertEquals(BatchHandler.ROLLED_BACK, errorCode(get(responses, 0)));
+		assertEquals(-32600, errorCode(get(responses, 1)));
+		// Nothing was done
+		assertEquals(0, balance(single("getBalance", "{\"authToken\":\"" + authToken + "\",\"iBAN\":\"" + IBAN + "\"}")), 0.001);
+	}
+
+	@Test
+	public void testInvalidBatch() throws Exception {
+		JSONObject response = (JSONObject) JSONValue.parse(post("[]", false));
+		assertEquals(-32600, errorCode(response));
+		response = (JSONObject) JSONValue.parse(post("[{\"jsonrpc\":\"2.0\"", false));
+		assertEquals(-32700, errorCode(response));
+	}
+
+	private static String username() {
+		return "batch" + Long.toString(System.nanoTime(), 26).replaceAll("[0-9]", "x");
+	}
+
+	private static String openAccountParams(String username) {
+		String ssn = String.valueOf(10000000 + System.nanoTime() % 80000000);
+		return "{\"name\":\"John\",\"surname\":\"Test\",\"initials\":\"JT\",\"dob\":\"1990-01-01\","
+				+ "\"ssn\":\"" + ssn + "\",\"address\":\"103 Testings Ave.\",\"telephoneNumber\":\"+31612345678\","
+				+ "\"email\":\"johntest@testing.nl\",\"username\":\"" + username + "\",\"password\":\"cake\"}";
+	}
+
+	private static String request(int id, String method, String params) {
+		return "{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"method\":\"" + method + "\",\"params\":" + params + "}";
+	}
+
+	private static JSONObject get(JSONArray responses, int i) {
+		return (JSONObject) responses.get(i);
+	}
+
+	/**
+	 * @param result The result of <code>getBalance</code>
+	 */
+	private static double balance(Object result) {
+		return ((Number) ((JSONObject) result).get("result")).doubleValue();
+	}
+
+	private static int errorCode(JSONObject response) {
+		JSONObject error = (JSONObject) response.get("error");
+		assertNotNull("no error in " + response, error);
+		return ((Number) error.get("code")).intValue();
+	}
+
+	private static JSONArray batch(boolean transaction, String... requests) throws Exception {
+		StringBuilder body = new StringBuilder("[");
+		for (int i = 0; i < requests.length; i++) {
+			body.append(i == 0 ? "" : ",").append(requests[i]);
+		}
+		return (JSONArray) JSONValue.parse(post(body.append("]").toString(), transaction));
+	}
+
+	private static Object single(String method, String params) throws Exception {
+		JSONObject response = call(method, params);
+		assertNull(method + " failed: " + response, response.get("error"));
+		return response.get("result");
+	}
+
+	private static JSONObject call(String method, String params) throws Exception {
+		return (JSONObject) JSONValue.parse(post(request(1, method, params), false));
+	}
+
+	private static String post(String body, boolean transaction) throws Exception {
+		final CompletableFuture<Response> response = new CompletableFuture<>();
+		AsyncResponse asyncResponse = (AsyncResponse) Proxy.newProxyInstance(AsyncResponse.class.getClassLoader(),
+				new Class<?>[] {AsyncResponse.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method m, Object[] args) {
+						if (m.getName().equals("resume")) {
+							response.complete((Response) args[0]);
+							return true;
+						}
+						return null;
+					}
+				});
+		ServerHandler.parseJSONRequest(body, transaction, asyncResponse);
+		return (String) response.get().getEntity();
+	}
+}
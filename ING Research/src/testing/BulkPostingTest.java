@@ -0,0 +1,142 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.BankAccount;
+import accounts.BulkPosting;
+import accounts.BulkPosting.Ledger;
+import accounts.CustomerAccount;
+import accounts.HouseAccount;
+import accounts.Transaction;
+import database.DataManager;
+import database.SQLiteDB;
+
+/**
+ * Checks that a <code>BulkPosting</code> leaves the balances and <code>transactions</code> as
+ * the transfers it replaces would have, also when an account occurs more than once.
+ */
+public class BulkPostingTest {
+	private CustomerAccount holder;
+	private String first;
+	private String second;
+	private double houseBefore;
+
+	@Before
+	public void setUp() {
+		DataManager.initIfRequired();
+		String BSN = "BP" + System.nanoTime();
+		holder = new CustomerAccount("Bulk", "Test", "BT", BSN, "Main Street 1", "+31612345678",
+				"bulk@test.nl", "1990-01-01", BSN.toLowerCase(), "pw");
+		first = holder.openBankAccount().getIBAN();
+		second = holder.openBankAccount().getIBAN();
+		holder.saveToDB();
+		houseBefore = HouseAccount.getBalance();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		SQLiteDB.connectionLock.lock();
+		Connection c = SQLiteDB.openConnection();
+		try {
+			HouseAccount.post(c, houseBefore - HouseAccount.getBalance());
+			PreparedStatement s = c.prepareStatement("DELETE FROM transactions WHERE destination_IBAN IN (?, ?)");
+			s.setString(1, first);
+			s.setString(2, second);
+			s.executeUpdate();
+			s.close();
+		} finally {
+			SQLiteDB.closeConnection(c);
+			SQLiteDB.connectionLock.unlock();
+		}
+		holder.SQLdeleteFromDB();
+	}
+
+	@Test
+	public void testPostingMatchesTransfers() throws Exception {
+		BulkPosting posting = new BulkPosting();
+		pay(posting, first, 10);
+		pay(posting, second, 2.5);
+		BulkPosting other = new BulkPosting();
+		pay(other, first, 4);
+		posting.addAll(other);
+		assertEquals(-16.5, posting.getIngChange(), 0.001);
+		assertEquals(3, posting.getTransactionCount());
+
+		assertTrue(posting.post());
+		// Loaded again, as the posting cleared the cached copies
+		assertEquals(14, balance(first), 0.001);
+		assertEquals(2.5, balance(second), 0.001);
+		assertEquals(houseBefore - 16.5, HouseAccount.getBalance(), 0.01);
+		assertEquals(2, count(first));
+		assertEquals(1, count(second));
+	}
+
+	@Test
+	public void testEmptyPostingWritesNothing() throws Exception {
+		BulkPosting posting = new BulkPosting();
+		assertTrue(posting.isEmpty());
+		assertTrue(posting.post());
+		posting.change(Ledger.BANK, BankAccount.ING_BANK_ACCOUNT_IBAN, 0);
+		assertTrue(posting.isEmpty());
+		assertEquals(0, balance(first), 0.001);
+	}
+
+	@Test
+	public void testPostingIsRolledBackWithTransaction() throws Exception {
+		BulkPosting posting = new BulkPosting();
+		pay(posting, first, 10);
+		DataManager.beginTransaction();
+		try {
+			assertTrue(posting.post());
+			assertEquals(10, balance(first), 0.001);
+		} finally {
+			DataManager.endTransaction(false);
+		}
+		assertEquals(0, balance(first), 0.001);
+		assertEquals(0, count(first));
+		assertEquals(houseBefore, HouseAccount.getBalance(), 0.01);
+	}
+
+	/**
+	 * Adds what a transfer from the ING account to an account would change.
+	 */
+	private static void pay(BulkPosting posting, String IBAN, double amount) {
+		posting.change(Ledger.BANK, IBAN, amount);
+		posting.change(Ledger.BANK, BankAccount.ING_BANK_ACCOUNT_IBAN, -amount);
+		Transaction t = new Transaction();
+		t.setDateTime("test");
+		t.setDateTimeMilis(System.currentTimeMillis());
+		t.setSourceIBAN(BankAccount.ING_BANK_ACCOUNT_IBAN);
+		t.setDestinationIBAN(IBAN);
+		t.setAmount(amount);
+		t.setDescription("Bulk test");
+		posting.record(t);
+	}
+
+	private static double balance(String IBAN) throws Exception {
+		return ((BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBAN)).getBalance();
+	}
+
+	private static int count(String IBAN) throws SQLException {
+		Connection c = SQLiteDB.openConnection();
+		try {
+			PreparedStatement s = c.prepareStatement("SELECT count(*) FROM transactions WHERE destination_IBAN = ?");
+			s.setString(1, IBAN);
+			ResultSet rs = s.executeQuery();
+			int result = rs.getInt(1);
+			s.close();
+			return result;
+		} finally {
+			SQLiteDB.closeConnection(c);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import database.ConnectionPool;
+
+public class ConnectionPoolTest {
+	private File file;
+	private ConnectionPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("pool", ".db");
+		// One physical connection, so every borrow gets the same one
+		pool = new ConnectionPool("jdbc:sqlite:" + file.getAbsolutePath(), 1, 200, 0, "PRAGMA journal_mode=WAL");
+		Connection c = pool.borrow();
+		Statement s = c.createStatement();
+		s.execute("CREATE TABLE items (name TEXT)");
+		s.close();
+		c.close();
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+		file.delete();
+		new File(file.getPath() + "-wal").delete();
+		new File(file.getPath() + "-shm").delete();
+	}
+
+	@Test
+	public void testClosingTwiceDoesNotReturnTheNextLease() throws SQLException {
+		Connection first = pool.borrow();
+		first.close();
+		Connection second = pool.borrow();
+		assertEquals(1, pool.getSize());
+
+		first.close();
+		assertTrue(first.isClosed());
+		assertFalse(second.isClosed());
+		assertEquals(1, pool.getActiveCount());
+		try {
+			pool.borrow();
+			fail("The connection of the second borrower was handed out again");
+		} catch (SQLException e) {
+			// Expected: the only connection is still borrowed
+		}
+		second.close();
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	public void testClosedLeaseCanNotBeUsed() throws SQLException {
+		Connection first = pool.borrow();
+		first.close();
+		Connection second = pool.borrow();
+		try {
+			first.createStatement();
+			fail("A closed connection could still be used");
+		} catch (SQLException e) {
+			// Expected
+		}
+		assertEquals(0, count(second));
+		second.close();
+	}
+
+	@Test
+	public void testReturnedConnectionIsReset() throws SQLException {
+		Connection c = pool.borrow();
+		c.setAutoCommit(false);
+		Statement s = c.createStatement();
+		s.executeUpdate("INSERT INTO items VALUES ('uncommitted')");
+		c.close();
+		assertTrue(s.isClosed());
+
+		c = pool.borrow();
+		assertTrue(c.getAutoCommit());
+		assertEquals(0, count(c));
+		c.close();
+	}
+
+	@Test
+	public void testBoundTransaction() throws SQLException {
+		pool.bindToThread();
+		assertTrue(pool.isBound());
+		Connection first = pool.borrow();
+		insert(first);
+		// Commits and closes of borrowers are deferred to the end of the transaction
+		first.commit();
+		first.close();
+		Connection second = pool.borrow();
+		assertSame(first, second);
+		assertEquals(1, count(second));
+		assertFalse(pool.unbindFromThread(false));
+		assertFalse(pool.isBound());
+
+		Connection c = pool.borrow();
+		assertEquals(0, count(c));
+		c.close();
+
+		pool.bindToThread();
+		insert(pool.borrow());
+		assertTrue(pool.unbindFromThread(true));
+		c = pool.borrow();
+		assertEquals(1, count(c));
+		c.close();
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	private static void insert(Connection c) throws SQLException {
+		Statement s = c.createStatement();
+		s.executeUpdate("INSERT INTO items VALUES ('item')");
+		s.close();
+	}
+
+	private static int count(Connection c) throws SQLException {
+		Statement s = c.createStatement();
+		ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM items");
+		int count = rs.getInt(1);
+		s.close();
+		return count;
+	}
+}
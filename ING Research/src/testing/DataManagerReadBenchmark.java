@@ -0,0 +1,114 @@
+package testing;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import accounts.BankAccount;
+import accounts.CustomerAccount;
+import database.DataManager;
+import database.EntityCache;
+import database.SQLiteDB;
+import exceptions.ObjectDoesNotExistException;
+import logging.Log.Type;
+import logging.Logger;
+
+/**
+ * Measures how read throughput of <code>DataManager</code> scales with the number of
+ * reading threads. Optionally runs a writer next to the readers to show that reads no
+ * longer queue behind writes.
+ * Usage: <code>DataManagerReadBenchmark [secondsPerRun] [--with-writer]</code>
+ */
+public class DataManagerReadBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int seconds = 5;
+		boolean withWriter = false;
+		for (String arg : args) {
+			if (arg.equals("--with-writer")) {
+				withWriter = true;
+			} else {
+				seconds = Integer.parseInt(arg);
+			}
+		}
+
+		if (DataManager.isPrimaryKeyUnique(BankAccount.CLASSNAME, "IBAN", BankAccount.ING_BANK_ACCOUNT_IBAN)) {
+			BankAccount.setUpINGaccount();
+		}
+
+		// Warm up Hibernate and the connection pool
+		runReaders(1, 1, false);
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println("[INFO] " + cores + " cores, " + seconds + "s per run" + (withWriter ? ", with concurrent writer" : ""));
+		System.out.println("threads\tops/s\tspeedup");
+		double base = 0;
+		for (int threads = 1; threads <= cores * 2; threads *= 2) {
+			double opsPerSecond = runReaders(threads, seconds, withWriter);
+			if (base == 0) {
+				base = opsPerSecond;
+			}
+			System.out.println(String.format("%d\t%.0f\t%.2fx", threads, opsPerSecond, opsPerSecond / base));
+		}
+		System.out.println("[INFO] Connection pool: " + SQLiteDB.getConnectionPool());
+		System.out.println("[INFO] Entity cache: " + EntityCache.getStatistics());
+		System.exit(0);
+	}
+
+	/**
+	 * Lets the given number of threads look up accounts for a fixed amount of time.
+	 * @return The number of completed reads per second
+	 */
+	private static double runReaders(int threads, int seconds, boolean withWriter) throws InterruptedException {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicLong reads = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int i = 0; i < threads; i++) {
+			Thread reader = new Thread("reader-" + i) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						while (running.get()) {
+							BankAccount bAcc = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, BankAccount.ING_BANK_ACCOUNT_IBAN);
+							DataManager.getObjectByPrimaryKey(CustomerAccount.CLASSNAME, bAcc.getMainHolderBSN());
+							reads.incrementAndGet();
+						}
+					} catch (InterruptedException | ObjectDoesNotExistException e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			reader.start();
+		}
+
+		Thread writer = null;
+		if (withWriter) {
+			writer = new Thread("writer") {
+				@Override
+				public void run() {
+					while (running.get()) {
+						Logger.addLogToDB(System.currentTimeMillis(), Type.INFO, "Read benchmark write");
+					}
+				}
+			};
+			writer.start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		Thread.sleep(seconds * 1000L);
+		running.set(false);
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		if (writer != null) {
+			writer.join();
+		}
+
+		return reads.get() / (elapsed / 1e9);
+	}
+}
@@ -0,0 +1,117 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.BankAccount;
+import accounts.CustomerAccount;
+import accounts.SavingsAccount;
+import database.EntityCache;
+
+public class EntityCacheTest {
+	public static CustomerAccount cust;
+	public static BankAccount bAcc;
+	public static String customerBSN = "CACHETEST";
+	public static String IBAN = "NL00INGB0000000001";
+
+	@Before
+	public void setUp() throws Exception {
+		EntityCache.clear();
+		cust = new CustomerAccount();
+		cust.setBSN(customerBSN);
+		bAcc = new BankAccount();
+		bAcc.setIBAN(IBAN);
+		Set<CustomerAccount> owners = new HashSet<>();
+		owners.add(cust);
+		bAcc.setOwners(owners);
+		cust.getBankAccounts().add(bAcc);
+	}
+
+	@Test
+	public void testSavedEntityIsServedFromCache() {
+		long hits = EntityCache.getHitCount();
+		long misses = EntityCache.getMissCount();
+		assertNull(EntityCache.get(BankAccount.CLASSNAME, IBAN));
+		EntityCache.saved(bAcc);
+		BankAccount cached = (BankAccount) EntityCache.get(BankAccount.CLASSNAME, IBAN);
+		assertEquals(IBAN, cached.getIBAN());
+		assertEquals(hits + 1, EntityCache.getHitCount());
+		assertEquals(misses + 1, EntityCache.getMissCount());
+	}
+
+	@Test
+	public void testCallersGetTheirOwnCopy() {
+		EntityCache.saved(bAcc);
+		BankAccount first = (BankAccount) EntityCache.get(BankAccount.CLASSNAME, IBAN);
+		BankAccount second = (BankAccount) EntityCache.get(BankAccount.CLASSNAME, IBAN);
+		assertNotSame(first, second);
+		assertNotSame(bAcc, first);
+		assertEquals(first.getIBAN(), second.getIBAN());
+		assertEquals(first.getBalance(), second.getBalance(), 0);
+		assertEquals(customerBSN, second.getOwners().iterator().next().getBSN());
+
+		// A change to one copy, e.g. a transfer that is not committed yet, is not seen by others
+		first.setBalance(100f);
+		first.getOwners().clear();
+		BankAccount third = (BankAccount) EntityCache.get(BankAccount.CLASSNAME, IBAN);
+		assertEquals(0, third.getBalance(), 0);
+		assertEquals(1, third.getOwners().size());
+	}
+
+	@Test
+	public void testSavingBankAccountInvalidatesOwners() {
+		EntityCache.saved(cust);
+		assertNotNull(EntityCache.get(CustomerAccount.CLASSNAME, customerBSN));
+		EntityCache.saved(bAcc);
+		assertNull(EntityCache.get(CustomerAccount.CLASSNAME, customerBSN));
+	}
+
+	@Test
+	public void testSavingCustomerInvalidatesIndirectCopies() {
+		SavingsAccount savings = new SavingsAccount(bAcc);
+		EntityCache.saved(savings);
+		EntityCache.putIfUnchanged(CustomerAccount.CLASSNAME, "OTHER", new CustomerAccount(), EntityCache.stamp());
+		// The savings account embeds the customer through the owners of its bank account
+		EntityCache.saved(cust);
+		assertNull(EntityCache.get(SavingsAccount.CLASSNAME, IBAN));
+		assertNotNull(EntityCache.get(CustomerAccount.CLASSNAME, customerBSN));
+		assertNotNull(EntityCache.get(CustomerAccount.CLASSNAME, "OTHER"));
+	}
+
+	@Test
+	public void testStaleLoadIsNotCached() {
+		long stamp = EntityCache.stamp();
+		EntityCache.saved(bAcc);
+		EntityCache.putIfUnchanged(BankAccount.CLASSNAME, IBAN, new BankAccount(), stamp);
+		assertEquals(IBAN, ((BankAccount) EntityCache.get(BankAccount.CLASSNAME, IBAN)).getIBAN());
+	}
+
+	@Test
+	public void testInvalidatePrimaryKeyRemovesAllTypes() {
+		EntityCache.saved(bAcc);
+		EntityCache.invalidatePrimaryKey(IBAN);
+		assertNull(EntityCache.get(BankAccount.CLASSNAME, IBAN));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		long evictions = EntityCache.getEvictionCount();
+		EntityCache.saved(bAcc);
+		for (int i = 0; i < EntityCache.MAX_SIZE; i++) {
+			EntityCache.putIfUnchanged(CustomerAccount.CLASSNAME, "BSN" + i, cust, EntityCache.stamp());
+			if (i == EntityCache.MAX_SIZE / 2) {
+				// Touch the bank account so that it is not the eldest entry anymore
+				EntityCache.get(BankAccount.CLASSNAME, IBAN);
+			}
+		}
+		assertEquals(EntityCache.MAX_SIZE, EntityCache.getSize());
+		assertEquals(evictions + 1, EntityCache.getEvictionCount());
+		assertNull(EntityCache.get(CustomerAccount.CLASSNAME, "BSN0"));
+		assertNotNull(EntityCache.get(BankAccount.CLASSNAME, IBAN));
+	}
+}
@@ -0,0 +1,165 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import database.DataManager;
+import database.SQLiteDB;
+import server.rest.EventScheduler;
+import server.rest.TimeEvent;
+
+/**
+ * Checks that the queue of the <code>EventScheduler</code> holds the same events, in the same
+ * order, as the query on the <code>timeevents</code> table it replaces.
+ */
+public class EventSchedulerTest {
+	/**
+	 * Far in the future, so no real event is due after it.
+	 */
+	private static final long START = 4102444800000L;
+	private static final long HOUR = 3600L * 1000;
+
+	private String name;
+
+	@Before
+	public void setUp() {
+		DataManager.initIfRequired();
+		name = "TEST_EVENT_" + System.nanoTime();
+	}
+
+	@After
+	public void tearDown() {
+		new TimeEvent(name, START, "", false).deleteFromDB();
+		EventScheduler.clear();
+	}
+
+	@Test
+	public void testQueueMatchesQuery() throws SQLException {
+		save(START + 3 * HOUR, false);
+		save(START + HOUR, false);
+		save(START + 2 * HOUR, false);
+		save(START + HOUR, false);
+		save(START + HOUR / 2, true);
+
+		// Once when updated by saved(), once when read from the database
+		assertEquals(query(), ids(pollTestEvents()));
+		EventScheduler.clear();
+		assertEquals(query(), ids(pollTestEvents()));
+	}
+
+	@Test
+	public void testExecutedEventLeavesQueue() throws SQLException {
+		TimeEvent t = save(START + HOUR, false);
+		assertEquals(START + HOUR, EventScheduler.nextTimestamp(START));
+		t.setExecuted(true);
+		t.saveToDB();
+		assertEquals(Long.MAX_VALUE, EventScheduler.nextTimestamp(START));
+		assertEquals(query(), ids(pollTestEvents()));
+	}
+
+	@Test
+	public void testRetriedEventsAreDueLater() {
+		TimeEvent first = save(START + HOUR, false);
+		TimeEvent second = save(START + 2 * HOUR, false);
+		TimeEvent third = save(START + 3 * HOUR, false);
+
+		List<TimeEvent> due = pollTestEvents();
+		assertEquals(3, due.size());
+		// The first two fail at the time of the second; the first one is retried an hour later,
+		// at the same time as the second one, and goes first as it was saved first
+		EventScheduler.retry(due.get(1), START + HOUR);
+		EventScheduler.retry(due.get(0), START + HOUR);
+		EventScheduler.retry(due.get(2), START + HOUR);
+		assertEquals(START + 2 * HOUR, EventScheduler.nextTimestamp(START));
+
+		due = pollTestEvents();
+		assertEquals(first.getID(), due.get(0).getID());
+		assertEquals(second.getID(), due.get(1).getID());
+		assertEquals(third.getID(), due.get(2).getID());
+
+		// A retry is never due before the event itself
+		EventScheduler.retry(due.get(2), START);
+		assertEquals(START + 3 * HOUR, EventScheduler.nextTimestamp(START));
+		// Executed events are not retried
+		due.get(1).setExecuted(true);
+		EventScheduler.retry(due.get(1), START + HOUR);
+		assertEquals(1, pollTestEvents().size());
+	}
+
+	@Test
+	public void testEventOfTransactionIsQueuedOnCommit() {
+		DataManager.beginTransaction();
+		try {
+			save(START + HOUR, false);
+			assertEquals(Long.MAX_VALUE, EventScheduler.nextTimestamp(START));
+		} finally {
+			DataManager.endTransaction(false);
+		}
+		assertEquals(Long.MAX_VALUE, EventScheduler.nextTimestamp(START));
+
+		DataManager.beginTransaction();
+		try {
+			save(START + HOUR, false);
+		} finally {
+			assertTrue(DataManager.endTransaction(true));
+		}
+		assertEquals(START + HOUR, EventScheduler.nextTimestamp(START));
+	}
+
+	private TimeEvent save(long timestamp, boolean executed) {
+		TimeEvent t = new TimeEvent(name, timestamp, "", executed);
+		t.saveToDB();
+		return t;
+	}
+
+	/**
+	 * Takes the test events out of the queue, together with all real events that are due.
+	 */
+	private List<TimeEvent> pollTestEvents() {
+		List<TimeEvent> result = new ArrayList<>();
+		for (TimeEvent t : EventScheduler.pollDue(Long.MAX_VALUE)) {
+			if (t.getName().equals(name)) {
+				result.add(t);
+			}
+		}
+		return result;
+	}
+
+	private static List<Integer> ids(List<TimeEvent> events) {
+		List<Integer> result = new ArrayList<>();
+		for (TimeEvent t : events) {
+			result.add(t.getID());
+		}
+		return result;
+	}
+
+	/**
+	 * @return The IDs of the unexecuted test events as the scheduler used to find them
+	 */
+	private List<Integer> query() throws SQLException {
+		List<Integer> result = new ArrayList<>();
+		Connection c = SQLiteDB.openConnection();
+		try {
+			PreparedStatement s = c.prepareStatement("SELECT ID FROM timeevents WHERE executed = 0 AND name = ? ORDER BY timestamp, ID");
+			s.setString(1, name);
+			ResultSet rs = s.executeQuery();
+			while (rs.next()) {
+				result.add(rs.getInt("ID"));
+			}
+			s.close();
+		} finally {
+			SQLiteDB.closeConnection(c);
+		}
+		return result;
+	}
+}
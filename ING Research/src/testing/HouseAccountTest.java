@@ -0,0 +1,133 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.BankAccount;
+import accounts.CustomerAccount;
+import accounts.HouseAccount;
+import accounts.Transaction;
+import database.DataManager;
+import database.SQLiteDB;
+
+/**
+ * Checks that the balance of the ING bank account, split over its row and the shards, follows
+ * the transfers to and from it, and that writing a stale copy of the account loses nothing.
+ */
+public class HouseAccountTest {
+	private static final String ING_CUSTOMER_BSN = "00000000";
+
+	private String sourceIBAN;
+	private double before;
+
+	@Before
+	public void setUp() {
+		DataManager.initIfRequired();
+		sourceIBAN = "NLHOUSE" + System.nanoTime();
+		before = HouseAccount.getBalance();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		// Undo what the test moved to the ING account, and the transfers that did
+		SQLiteDB.connectionLock.lock();
+		Connection c = SQLiteDB.openConnection();
+		try {
+			HouseAccount.post(c, before - HouseAccount.getBalance());
+			PreparedStatement s = c.prepareStatement("DELETE FROM transactions WHERE source_IBAN = ?");
+			s.setString(1, sourceIBAN);
+			s.executeUpdate();
+			s.close();
+		} finally {
+			SQLiteDB.closeConnection(c);
+			SQLiteDB.connectionLock.unlock();
+		}
+	}
+
+	@Test
+	public void testBalanceFollowsTransfers() throws SQLException {
+		transfer(5);
+		transfer(2.5);
+		assertEquals(before + 7.5, HouseAccount.getBalance(), 0.01);
+		assertEquals(rowBalance() + shardSum(), HouseAccount.getBalance(), 0.01);
+
+		HouseAccount.consolidate();
+		assertEquals(0, shardSum(), 0.001);
+		assertEquals(before + 7.5, rowBalance(), 0.01);
+		assertEquals(before + 7.5, HouseAccount.getBalance(), 0.01);
+	}
+
+	@Test
+	public void testStaleCopyDoesNotOverwriteBalance() throws Exception {
+		BankAccount copy = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, BankAccount.ING_BANK_ACCOUNT_IBAN);
+		// The row of the copy is stale once the transfer has been consolidated into it
+		transfer(5);
+		HouseAccount.consolidate();
+		transfer(1);
+		copy.saveToDB();
+		assertEquals(before + 6, HouseAccount.getBalance(), 0.01);
+		// Writing the copy brought it up to date, as far as a float can hold it
+		assertEquals(before + 6, copy.getBalance(), 0.1);
+		assertEquals(0, shardSum(), 0.001);
+	}
+
+	@Test
+	public void testStaleCopyOfCustomerDoesNotOverwriteBalance() throws Exception {
+		CustomerAccount ing = (CustomerAccount) DataManager.getObjectByPrimaryKey(CustomerAccount.CLASSNAME, ING_CUSTOMER_BSN);
+		transfer(5);
+		HouseAccount.consolidate();
+		ing.saveToDB();
+		assertEquals(before + 5, HouseAccount.getBalance(), 0.01);
+
+		// Also in a transaction, and not when the transaction is rolled back
+		transfer(3);
+		HouseAccount.consolidate();
+		DataManager.beginTransaction();
+		try {
+			ing.saveToDB();
+		} finally {
+			DataManager.endTransaction(false);
+		}
+		assertEquals(before + 8, HouseAccount.getBalance(), 0.01);
+	}
+
+	private void transfer(double amount) {
+		Transaction t = new Transaction();
+		t.setDateTime("test");
+		t.setDateTimeMilis(System.currentTimeMillis());
+		t.setSourceIBAN(sourceIBAN);
+		t.setDestinationIBAN(BankAccount.ING_BANK_ACCOUNT_IBAN);
+		t.setAmount(amount);
+		t.setDescription("House test");
+		DataManager.saveAll(t);
+	}
+
+	private static double rowBalance() throws SQLException {
+		return query("SELECT balance FROM bankaccounts WHERE IBAN = '" + BankAccount.ING_BANK_ACCOUNT_IBAN + "'");
+	}
+
+	private static double shardSum() throws SQLException {
+		return query("SELECT coalesce(sum(balance), 0) FROM houseshards");
+	}
+
+	private static double query(String sql) throws SQLException {
+		Connection c = SQLiteDB.openConnection();
+		try {
+			PreparedStatement s = c.prepareStatement(sql);
+			ResultSet rs = s.executeQuery();
+			double result = rs.getDouble(1);
+			s.close();
+			return result;
+		} finally {
+			SQLiteDB.closeConnection(c);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import accounts.BankAccount;
+import accounts.CustomerAccount;
+import accounts.SavingsAccount;
+import database.DataManager;
+import database.SQLiteDB;
+import exceptions.ObjectDoesNotExistException;
+import server.rest.BankSystemValue;
+import server.rest.InterestEngine;
+import server.rest.InterestHandler;
+import server.rest.ServerDataHandler;
+import server.rest.ServerModel;
+import server.rest.TimeEvent;
+import server.rest.TimeOperator;
+
+/**
+ * Checks that <code>InterestEngine</code> gives the same balances and interest totals as
+ * simulating the same days one by one with <code>InterestHandler.handleInterest</code>.
+ * WARNING: Resets all data
+ */
+public class InterestEngineTest {
+
+	// 2017-12-20 12:00, so the simulation crosses two year and thirteen month boundaries
+	private static final long START_MILLIS = 1513771200000L;
+	private static final int DAYS = 400;
+	private static final long DAY_MILLIS = 24L * 3600 * 1000;
+
+	private static final double[] BALANCES = {-1000, -2000, 500, 200, 3000};
+	private static final double[] SAVINGS_BALANCES = {0, 1000, 30000, 100000, 0};
+	private static final boolean[] CHILD = {false, false, false, false, true};
+
+	// Pending events, in days after the start: the child account becomes a regular account
+	// in the middle of a month, and two interest rates change later on
+	private static final int ACCOUNT_TYPE_CHANGE_DAY = 45;
+	private static final int[] RATE_CHANGE_DAYS = {100, 230};
+	private static final String[] RATE_CHANGES = {"INTEREST_RATE_1:0.003", "OVERDRAFT_INTEREST_RATE:0.02"};
+
+	@Test
+	public void sameResultsAsDayByDay() {
+		assertSameResults(simulate(false, false), simulate(true, false));
+	}
+
+	@Test
+	public void sameResultsAsDayByDayWithEvents() {
+		double[] dayByDay = simulate(false, true);
+		double[] engine = simulate(true, true);
+		assertSameResults(dayByDay, engine);
+		// The events did change something
+		assertNotEquals(simulate(true, false)[BALANCES.length * 4 - 1], engine[BALANCES.length * 4 - 1], 0.001);
+	}
+
+	private static void assertSameResults(double[] dayByDay, double[] engine) {
+		assertEquals(dayByDay.length, engine.length);
+		for (int i = 0; i < dayByDay.length; i++) {
+			assertEquals("value " + i, dayByDay[i], engine[i], 0.001);
+		}
+	}
+
+	/**
+	 * Sets up the accounts, simulates <code>DAYS</code> days and collects the results.
+	 * @param useEngine whether to use the engine or the day-by-day loop
+	 * @param handleEvents whether to schedule and handle the pending <code>TimeEvent</code>s
+	 * @return per account: the balance, the savings balance and both interest totals
+	 */
+	private double[] simulate(boolean useEngine, boolean handleEvents) {
+		InterestHandler.reset();
+		ServerModel.reset();
+		BankSystemValue.reset();
+		DataManager.wipeAllData();
+
+		CustomerAccount cAccount = new CustomerAccount("John", "Test", "JT", "2020202020", "103 Testings Ave.", "000-TEST", "johntest@testing.test", "TESTDATE", "blah", "blah");
+		String[] IBANs = new String[BALANCES.length];
+		for (int i = 0; i < BALANCES.length; i++) {
+			BankAccount bAccount = cAccount.openBankAccount();
+			bAccount.setBalance((float) BALANCES[i]);
+			if (CHILD[i]) {
+				bAccount.setAccountType("child");
+			}
+			bAccount.saveToDB();
+			SavingsAccount savings = bAccount.getSavingsAccount();
+			savings.setBalance((float) SAVINGS_BALANCES[i]);
+			savings.saveToDB();
+			IBANs[i] = bAccount.getIBAN();
+		}
+		cAccount.saveToDB();
+
+		if (handleEvents) {
+			for (int i = 0; i < BALANCES.length; i++) {
+				if (CHILD[i]) {
+					new TimeEvent("ACCOUNT_TYPE_CHANGE", START_MILLIS + ACCOUNT_TYPE_CHANGE_DAY * DAY_MILLIS, "FOR:" + IBANs[i], false).saveToDB();
+				}
+			}
+			for (int i = 0; i < RATE_CHANGES.length; i++) {
+				new TimeEvent("BANK_SYSTEM_VALUE_UPDATE", START_MILLIS + RATE_CHANGE_DAYS[i] * DAY_MILLIS, RATE_CHANGES[i], false).saveToDB();
+			}
+		}
+
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(START_MILLIS);
+		SQLiteDB.connectionLock.lock();
+		try {
+			if (useEngine) {
+				InterestEngine.simulate(c, DAYS, handleEvents);
+			} else {
+				for (int i = 1; i <= DAYS; i++) {
+					c.add(Calendar.DATE, 1);
+					InterestHandler.handleInterest(c);
+					if (handleEvents) {
+						TimeOperator.updateSystem(c);
+					}
+				}
+			}
+		} finally {
+			SQLiteDB.connectionLock.unlock();
+		}
+
+		HashMap<String, Double> negativeTotals = ServerDataHandler.getTotalNegativeInterestMap();
+		HashMap<String, Double> positiveTotals = ServerDataHandler.getTotalPositiveInterestMap();
+		double[] result = new double[IBANs.length * 4];
+		for (int i = 0; i < IBANs.length; i++) {
+			try {
+				BankAccount bAccount = (BankAccount) DataManager.getObjectByPrimaryKey(BankAccount.CLASSNAME, IBANs[i]);
+				result[i * 4] = bAccount.getBalance();
+				result[i * 4 + 1] = bAccount.getSavingsAccount().getBalance();
+				if (handleEvents && CHILD[i]) {
+					assertEquals("regular", bAccount.getAccountType());
+				}
+			} catch (ObjectDoesNotExistException e) {
+				fail(e.toString());
+			}
+			result[i * 4 + 2] = valueOrZero(negativeTotals.get(IBANs[i]));
+			result[i * 4 + 3] = valueOrZero(positiveTotals.get(IBANs[i]));
+		}
+		return result;
+	}
+
+	private static double valueOrZero(Double value) {
+		return value == null ? 0 : value;
+	}
+
+	@After
+	public void reset() {
+		// Reset all data
+		InterestHandler.reset();
+		ServerModel.reset();
+		BankSystemValue.reset();
+		DataManager.wipeAllData();
+	}
+}
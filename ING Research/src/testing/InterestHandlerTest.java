@@ -17,6 +17,7 @@ import exceptions.ObjectDoesNotExistException;
 import server.rest.InterestHandler;
 import server.rest.ServerDataHandler;
 import server.rest.ServerModel;
+import server.rest.TimeOperator;
 
 /**
  * WARNING: Resets all data
@@ -25,9 +26,6 @@ import server.rest.ServerModel;
  */
 public class InterestHandlerTest {
 	
-	// Calendar for 2017-01-01 00:00
-	Calendar startOfYear = Calendar.getInstance();
-	
 	// startValues
 	double startValue1, startValue2, startValue3;
 	
@@ -43,7 +41,6 @@ public class InterestHandlerTest {
 		DataManager.wipeAllData();	
 		
 		// Set up necessary data
-		startOfYear.setTimeInMillis(1483225320000L);
 		startValue1 = -1000;
 		startValue2 = -2000;
 		startValue3 = -4000;
@@ -63,35 +60,6 @@ public class InterestHandlerTest {
 		InterestHandler.setPreviousPositiveInterestExecutionDate();
 	}
 	
-	@Test
-	public void calculateShortestSleep() {
-		long actualMilliDifference;
-		long calculatedMilliSleep;
-		
-		// Milli seconds of difference between 2017-01-02 00:02 and 2017-01-01 0:00
-		actualMilliDifference = 1483311600000L - 1483225320000L;
-		calculatedMilliSleep = InterestHandler.calculateShortestSleep(startOfYear);
-		assertEquals(actualMilliDifference, calculatedMilliSleep);
-
-		// Milli seconds of difference between 2017-01-01 13:46 and 2017-01-01 23:46
-		startOfYear.setTimeInMillis(1483274760000L);
-		actualMilliDifference = 1483311600000L - 1483274760000L;
-		calculatedMilliSleep = InterestHandler.calculateShortestSleep(startOfYear);
-		assertEquals(actualMilliDifference, calculatedMilliSleep);
-
-		// Milli seconds of difference between 2017-01-01 23:43 and 2017-01-01 23:46
-		startOfYear.setTimeInMillis(1483310580000L);
-		actualMilliDifference = 1483311600000L - 1483310580000L;
-		calculatedMilliSleep = InterestHandler.calculateShortestSleep(startOfYear);
-		assertEquals(actualMilliDifference, calculatedMilliSleep);
-		
-		// Milli seconds of difference between 2017-01-01 23:44 and 2017-01-02 23:46
-		startOfYear.setTimeInMillis(1483311540000L);
-		actualMilliDifference = 1483311600000L - 1483311540000L;
-		calculatedMilliSleep = InterestHandler.calculateShortestSleep(startOfYear);
-		assertEquals(actualMilliDifference, calculatedMilliSleep);		
-	}
-	
 	@Test
 	public void calculateInterestTest() {
 		bAccount1.setBalance((float) startValue1);
@@ -140,9 +108,7 @@ public class InterestHandlerTest {
 		savings3.setBalance(100000);
 		savings3.saveToDB();
 		
-		InterestHandler interestHandler = new InterestHandler();
-		interestHandler.newlySimulatedDays = 365;
-		interestHandler.interrupt();
+		TimeOperator.simulateDays(365);
 		
 		// Wait for the interest handler to finish...
 		try {
@@ -178,9 +144,7 @@ public class InterestHandlerTest {
 		bAccount2.saveToDB();
 		bAccount3.saveToDB();
 		
-		InterestHandler interestHandler = new InterestHandler();
-		interestHandler.newlySimulatedDays = 365;
-		interestHandler.interrupt();
+		TimeOperator.simulateDays(365);
 		
 		// Wait for the interest handler to finish...
 		try {
@@ -216,17 +180,8 @@ public class InterestHandlerTest {
 		bAccount2.saveToDB();
 		bAccount3.saveToDB();
 		
-		InterestHandler interestHandler = new InterestHandler();
-		
-		// Sleep to give interestHandler some time to set up
-		try {
-			Thread.sleep(500);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
 		
-		interestHandler.newlySimulatedDays = 32;
-		interestHandler.interrupt();
+		TimeOperator.simulateDays(32);
 		
 		try {
 			Thread.sleep(3000);
@@ -265,9 +220,7 @@ public class InterestHandlerTest {
 		bAccount2.saveToDB();
 		bAccount3.saveToDB();
 		
-		InterestHandler interestHandler = new InterestHandler();
-		interestHandler.newlySimulatedDays = 1;
-		interestHandler.interrupt();
+		TimeOperator.simulateDays(1);
 		
 		try {
 			Thread.sleep(500);
@@ -311,27 +264,6 @@ public class InterestHandlerTest {
 		
 	}
 	
-	@Test
-	public void isTimeToAddBalancesTest() {
-		Calendar c = Calendar.getInstance();
-
-		// 15:30, 01/01/2018
-		c.setTimeInMillis(1514817180000L);
-		assertFalse(InterestHandler.isTimeToAddBalances(c));
-
-		// 23:44, 01/01/2018
-		c.setTimeInMillis(1514846640000L);
-		assertFalse(InterestHandler.isTimeToAddBalances(c));
-
-		// 23:46, 01/01/2018
-		c.setTimeInMillis(1514846760000L);
-		assertFalse(InterestHandler.isTimeToAddBalances(c));
-
-		// 0:00, 01/02/2018
-		c.setTimeInMillis(1514847600000L);
-		assertTrue(InterestHandler.isTimeToAddBalances(c));
-	}
-	
 	@Test
 	public void setTotalInterestMapTest() {
 		HashMap<String, Double> map = new HashMap<>();
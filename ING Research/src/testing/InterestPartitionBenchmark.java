@@ -0,0 +1,100 @@
+package testing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import accounts.BankAccount;
+import database.DataManager;
+import server.rest.InterestHandler;
+import server.rest.InterestLedger;
+import server.rest.InterestLedger.Book;
+import server.rest.InterestPartitions;
+
+/**
+ * Measures how the daily positive interest step of <code>InterestHandler</code> scales with the
+ * number of threads of <code>InterestPartitions</code>. Every partition does what the handler
+ * does: it looks up its bank accounts with <code>DataManager.findAll()</code>, calculates their
+ * interest and adds it to the <code>InterestLedger</code>. The IBANs have no account in the
+ * database, so every round reads from the database instead of the entity cache, and they count
+ * as regular accounts. The ledger is restored afterwards.
+ * Usage: <code>InterestPartitionBenchmark [accounts...]</code>
+ */
+public class InterestPartitionBenchmark {
+	private static final int ROUNDS = 3;
+
+	public static void main(String[] args) {
+		int[] sizes = {10000, 100000, 1000000};
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		DataManager.initIfRequired();
+		HashMap<String, Double> saved = InterestLedger.copy(Book.TOTAL_POSITIVE_INTEREST);
+		try {
+			int cores = Runtime.getRuntime().availableProcessors();
+			System.out.println("[INFO] " + cores + " cores, best of " + ROUNDS + " rounds");
+			System.out.println("accounts\tthreads\tms\tspeedup");
+			for (int size : sizes) {
+				run(size, cores);
+			}
+		} finally {
+			InterestLedger.replace(Book.TOTAL_POSITIVE_INTEREST, saved);
+			InterestLedger.flush();
+		}
+		System.exit(0);
+	}
+
+	private static void run(int size, int cores) {
+		List<String> IBANs = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			IBANs.add("NLBENCH" + i);
+		}
+
+		double base = 0;
+		for (int threads = 1; threads <= cores; threads *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			double millis = Double.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				InterestLedger.replace(Book.TOTAL_POSITIVE_INTEREST, new HashMap<String, Double>());
+				long start = System.nanoTime();
+				InterestPartitions.run(pool, threads * 4, IBANs, new InterestPartitions.Task<Void>() {
+					@Override
+					public Void run(List<String> partition) {
+						HashMap<String, Double> interest = new HashMap<>();
+						List<BankAccount> bankAccounts = DataManager.findAll(BankAccount.CLASSNAME, partition);
+						for (int i = 0; i < partition.size(); i++) {
+							BankAccount b = bankAccounts.get(i);
+							boolean isChild = b != null && b.getAccountType().equals("child");
+							interest.put(partition.get(i), InterestHandler.calculatePositiveInterest(balance(i), isChild));
+						}
+						InterestLedger.addAll(Book.TOTAL_POSITIVE_INTEREST, interest);
+						return null;
+					}
+				});
+				millis = Math.min(millis, (System.nanoTime() - start) / 1e6);
+
+				if (InterestLedger.size(Book.TOTAL_POSITIVE_INTEREST) != size) {
+					throw new IllegalStateException("Added the interest of " + InterestLedger.size(Book.TOTAL_POSITIVE_INTEREST)
+							+ " of " + size + " accounts.");
+				}
+			}
+			pool.shutdown();
+			if (base == 0) {
+				base = millis;
+			}
+			System.out.println(String.format("%d\t%d\t%.1f\t%.2fx", size, threads, millis, base / millis));
+		}
+	}
+
+	/**
+	 * A positive balance below 150000 that depends on the position of an IBAN in its partition.
+	 */
+	private static double balance(int i) {
+		return (i * 7919L) % 150000;
+	}
+}
@@ -0,0 +1,138 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import database.DataManager;
+import database.SQLiteDB;
+import logging.Log;
+import logging.Log.Type;
+import logging.LogWriter;
+import logging.LogWriter.OverflowPolicy;
+
+/**
+ * Checks that the records of a <code>LogWriter</code> end up in the <code>logs</code> table as
+ * they did when every record was inserted right away.
+ */
+public class LogWriterTest {
+	/**
+	 * Far in the future, so no real record has the same timestamp.
+	 */
+	private static final long START = 4102444800000L;
+	/**
+	 * Long enough for the background thread to never write on its own during a test.
+	 */
+	private static final long FLUSH_INTERVAL_MILLIS = 60000;
+
+	private String prefix;
+	private LogWriter writer;
+
+	@Before
+	public void setUp() {
+		DataManager.initIfRequired();
+		prefix = "LogWriterTest " + System.nanoTime() + " ";
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		if (writer != null) {
+			writer.shutdown();
+		}
+		SQLiteDB.connectionLock.lock();
+		Connection c = SQLiteDB.openConnection();
+		try {
+			PreparedStatement s = c.prepareStatement("DELETE FROM logs WHERE message LIKE ?");
+			s.setString(1, prefix + "%");
+			s.executeUpdate();
+			s.close();
+		} finally {
+			SQLiteDB.closeConnection(c);
+			SQLiteDB.connectionLock.unlock();
+		}
+	}
+
+	@Test
+	public void testFlushWritesAllInOrder() throws SQLException {
+		writer = new LogWriter(100, 10, FLUSH_INTERVAL_MILLIS, OverflowPolicy.DROP);
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 25; i++) {
+			Type type = Type.values()[i % Type.values().length];
+			writer.add(new Log(START + i, type, prefix + i));
+			expected.add((START + i) + " " + type + " " + prefix + i);
+		}
+		writer.flush();
+		assertEquals(expected, written());
+		assertEquals(0, writer.getQueueDepth());
+		assertEquals(25, writer.getWrittenCount());
+		assertTrue(writer.getBatchCount() >= 3);
+	}
+
+	@Test
+	public void testDropPolicy() throws SQLException {
+		writer = new LogWriter(5, 100, FLUSH_INTERVAL_MILLIS, OverflowPolicy.DROP);
+		for (int i = 0; i < 8; i++) {
+			writer.add(new Log(START + i, Type.INFO, prefix + i));
+		}
+		assertEquals(3, writer.getDroppedCount());
+		writer.flush();
+		assertEquals(5, written().size());
+	}
+
+	@Test
+	public void testWriteThroughPolicy() throws SQLException {
+		writer = new LogWriter(5, 100, FLUSH_INTERVAL_MILLIS, OverflowPolicy.WRITE_THROUGH);
+		for (int i = 0; i < 6; i++) {
+			writer.add(new Log(START + i, Type.INFO, prefix + i));
+		}
+		// The record that did not fit was written together with the queue
+		assertEquals(1, writer.getWriteThroughCount());
+		assertEquals(6, written().size());
+		assertEquals(0, writer.getDroppedCount());
+	}
+
+	@Test
+	public void testRecordsOfTransactionSurviveRollback() throws SQLException {
+		writer = new LogWriter(1, 100, FLUSH_INTERVAL_MILLIS, OverflowPolicy.WRITE_THROUGH);
+		DataManager.beginTransaction();
+		try {
+			for (int i = 0; i < 3; i++) {
+				writer.add(new Log(START + i, Type.ERROR, prefix + i));
+			}
+			writer.flush();
+		} finally {
+			DataManager.endTransaction(false);
+		}
+		writer.flush();
+		assertEquals(3, written().size());
+	}
+
+	/**
+	 * @return The records of this test in the table, in the order in which they were inserted
+	 */
+	private List<String> written() throws SQLException {
+		List<String> result = new ArrayList<>();
+		Connection c = SQLiteDB.openConnection();
+		try {
+			PreparedStatement s = c.prepareStatement("SELECT timestamp, type, message FROM logs WHERE message LIKE ? ORDER BY ID");
+			s.setString(1, prefix + "%");
+			ResultSet rs = s.executeQuery();
+			while (rs.next()) {
+				result.add(rs.getLong(1) + " " + rs.getString(2) + " " + rs.getString(3));
+			}
+			s.close();
+		} finally {
+			SQLiteDB.closeConnection(c);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,127 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import database.MigrationRunner;
+
+/**
+ * Applies the migrations to a new database with the tables as Hibernate used to create them,
+ * and checks that the data stays the same and every script is applied exactly once.
+ */
+public class MigrationRunnerTest {
+	private File file;
+	private Connection c;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		file = File.createTempFile("migrations", ".db");
+		c = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+		execute("CREATE TABLE transactions (ID INTEGER PRIMARY KEY, source_IBAN VARCHAR, destination_IBAN VARCHAR NOT NULL, "
+				+ "date_time VARCHAR NOT NULL, amount NUMERIC NOT NULL, description VARCHAR NOT NULL, target_name VARCHAR, "
+				+ "date_time_milis BIGINT NOT NULL, pin_transaction BOOLEAN)");
+		// Before migration 003, the timestamp was the key of a log
+		execute("CREATE TABLE logs (timestamp BIGINT PRIMARY KEY, message VARCHAR, type VARCHAR)");
+		execute("CREATE TABLE timeevents (ID INTEGER PRIMARY KEY, name VARCHAR, timestamp BIGINT, description VARCHAR, executed BOOLEAN)");
+		execute("INSERT INTO logs (timestamp, message, type) VALUES (2, 'second', 'INFO'), (1, 'first', 'ERROR')");
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		c.close();
+		file.delete();
+	}
+
+	@Test
+	public void testMigrateKeepsData() throws SQLException {
+		List<String> before = query("SELECT timestamp, type, message FROM logs ORDER BY timestamp");
+		assertEquals(MigrationRunner.MIGRATIONS.length, MigrationRunner.migrate(c));
+		assertEquals(MigrationRunner.MIGRATIONS.length, MigrationRunner.getVersion(c));
+		assertEquals(before, query("SELECT timestamp, type, message FROM logs ORDER BY timestamp"));
+		// The logs got an ID in timestamp order, and new ones get the next
+		assertEquals(list("1", "2"), query("SELECT ID FROM logs ORDER BY timestamp"));
+		execute("INSERT INTO logs (timestamp, message, type) VALUES (2, 'same millisecond', 'INFO')");
+		assertEquals(list("3"), query("SELECT ID FROM logs WHERE message = 'same millisecond'"));
+
+		List<String> indexes = query("SELECT name FROM sqlite_master WHERE type = 'index' AND name LIKE 'idx_%' ORDER BY name");
+		assertEquals(list("idx_logs_timestamp", "idx_timeevents_executed_name_time", "idx_timeevents_executed_time",
+				"idx_transactions_destination_time", "idx_transactions_source_time", "idx_transactions_time"), indexes);
+		assertEquals(list("houseshards"), query("SELECT name FROM sqlite_master WHERE type = 'table' AND name = 'houseshards'"));
+	}
+
+	@Test
+	public void testMigrateAppliesEveryScriptOnce() throws SQLException {
+		assertEquals(MigrationRunner.MIGRATIONS.length, MigrationRunner.migrate(c));
+		assertEquals(0, MigrationRunner.migrate(c));
+		assertEquals(list(Integer.toString(MigrationRunner.MIGRATIONS.length)), query("SELECT count(*) FROM schema_version"));
+	}
+
+	@Test
+	public void testFailedScriptIsRolledBack() throws SQLException {
+		// Makes migration 003 fail halfway, after the new table would have been filled
+		execute("CREATE TABLE logs_new (ID INTEGER PRIMARY KEY)");
+		try {
+			MigrationRunner.migrate(c);
+			fail("Migration 003 should have failed");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("003"));
+		}
+		assertEquals(2, MigrationRunner.getVersion(c));
+		// The scripts before it were kept, and the logs are as they were
+		assertEquals(list("idx_timeevents_executed_time"), query("SELECT name FROM sqlite_master WHERE name = 'idx_timeevents_executed_time'"));
+		assertEquals(list("first", "second"), query("SELECT message FROM logs ORDER BY timestamp"));
+		assertTrue(c.getAutoCommit());
+
+		execute("DROP TABLE logs_new");
+		assertEquals(MigrationRunner.MIGRATIONS.length - 2, MigrationRunner.migrate(c));
+	}
+
+	private void execute(String sql) throws SQLException {
+		Statement s = c.createStatement();
+		try {
+			s.executeUpdate(sql);
+		} finally {
+			s.close();
+		}
+	}
+
+	private List<String> query(String sql) throws SQLException {
+		List<String> result = new ArrayList<>();
+		Statement s = c.createStatement();
+		try {
+			ResultSet rs = s.executeQuery(sql);
+			int columns = rs.getMetaData().getColumnCount();
+			while (rs.next()) {
+				StringBuilder row = new StringBuilder(rs.getString(1));
+				for (int i = 2; i <= columns; i++) {
+					row.append(" ").append(rs.getString(i));
+				}
+				result.add(row.toString());
+			}
+		} finally {
+			s.close();
+		}
+		return result;
+	}
+
+	private static List<String> list(String... values) {
+		List<String> result = new ArrayList<>();
+		for (String value : values) {
+			result.add(value);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,91 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import server.rest.SessionStore;
+import server.rest.SessionStore.Principal;
+import server.rest.SignedTokens;
+
+public class SessionStoreTest {
+
+	private static String token(String name) {
+		return name + "/" + System.nanoTime();
+	}
+
+	@Test
+	public void testSessionLifecycle() {
+		Principal principal = new Principal("SESSION1", "session1", false);
+		String token = token("A");
+		SessionStore.open(token, principal);
+		assertTrue(SessionStore.isValid(token));
+		assertSame(principal, SessionStore.get(token));
+		assertNull(SessionStore.get(token("unknown")));
+		assertNull(SessionStore.get(null));
+
+		// Live sessions survive a sweep
+		SessionStore.sweep();
+		assertTrue(SessionStore.isValid(token));
+
+		SessionStore.close(token);
+		assertFalse(SessionStore.isValid(token));
+	}
+
+	@Test
+	public void testLoggingInAgainReplacesTheSession() {
+		Principal principal = new Principal("SESSION2", "session2", false);
+		String first = token("A");
+		String second = token("B");
+		long replaced = SessionStore.getReplacedCount();
+		SessionStore.open(first, principal);
+		SessionStore.open(second, principal);
+		assertFalse(SessionStore.isValid(first));
+		assertTrue(SessionStore.isValid(second));
+		assertEquals(replaced + 1, SessionStore.getReplacedCount());
+
+		// Closing the replaced token does not end the new session
+		SessionStore.close(first);
+		assertTrue(SessionStore.isValid(second));
+
+		// After logging out on the client only, logging in works again
+		String third = token("C");
+		SessionStore.open(third, principal);
+		assertTrue(SessionStore.isValid(third));
+		SessionStore.close(third);
+		assertFalse(SessionStore.isValid(second));
+	}
+
+	@Test
+	public void testSessionsOfOtherUsersAreKept() {
+		String first = token("A");
+		String second = token("B");
+		SessionStore.open(first, new Principal("SESSION3", "session3", false));
+		SessionStore.open(second, new Principal("SESSION4", "session4", false));
+		assertTrue(SessionStore.isValid(first));
+		assertTrue(SessionStore.isValid(second));
+		SessionStore.close(first);
+		SessionStore.close(second);
+	}
+
+	@Test
+	public void testSignedTokens() {
+		Principal principal = new Principal("SIGNED1", "signed|user", true);
+		String token = SignedTokens.issue(principal, System.currentTimeMillis() + 60000);
+		assertTrue(SignedTokens.isSigned(token));
+		Principal verified = SignedTokens.verify(token);
+		assertEquals("SIGNED1", verified.getBSN());
+		assertEquals("signed|user", verified.getUsername());
+		assertTrue(verified.isAdmin());
+
+		// A changed payload or signature is rejected
+		int dot = token.lastIndexOf('.');
+		char last = token.charAt(dot - 1);
+		assertNull(SignedTokens.verify(token.substring(0, dot - 1) + (last == 'A' ? 'B' : 'A') + token.substring(dot)));
+		assertNull(SignedTokens.verify(token.substring(0, token.length() - 2)));
+		assertNull(SignedTokens.verify("v1.garbage"));
+
+		String expired = SignedTokens.issue(principal, System.currentTimeMillis() - 1);
+		assertNull(SignedTokens.verify(expired));
+	}
+}
@@ -0,0 +1,208 @@
+package testing;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import database.MigrationRunner;
+import database.NamedStatement;
+
+/**
+ * Measures the hot transaction, log and time event queries on a scratch database with a
+ * large number of transactions, before and after the migrations of <code>MigrationRunner</code>
+ * have added their indexes. Prints the query plan of every query in both situations.
+ * Usage: <code>TransactionIndexBenchmark [transactions] [queriesPerShape]</code>
+ */
+public class TransactionIndexBenchmark {
+	private static final int ACCOUNTS = 2000;
+	private static final long YEAR_MILLIS = 365L * 24 * 3600 * 1000;
+
+	private static final int PAGE_SIZE = 20;
+
+	public static void main(String[] args) throws Exception {
+		int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		Class.forName("org.sqlite.JDBC");
+		File db = File.createTempFile("index-benchmark", ".db");
+		db.deleteOnExit();
+		Connection c = DriverManager.getConnection("jdbc:sqlite:" + db.getAbsolutePath());
+		try {
+			long start = System.nanoTime();
+			createTables(c);
+			fill(c, transactions);
+			System.out.println(String.format("[INFO] Inserted %d transactions in %.1fs", transactions, (System.nanoTime() - start) / 1e9));
+
+			System.out.println("== Without indexes ==");
+			double[] before = runQueries(c, queries);
+
+			start = System.nanoTime();
+			MigrationRunner.migrate(c);
+			System.out.println(String.format("[INFO] Migrated to version %d in %.1fs", MigrationRunner.getVersion(c), (System.nanoTime() - start) / 1e9));
+
+			System.out.println("== With indexes ==");
+			double[] after = runQueries(c, queries);
+
+			System.out.println("== Speedup ==");
+			String[] names = {NamedStatement.OUTGOING_TRANSFERS_SINCE.name(), NamedStatement.TRANSACTIONS_PAGE.name(),
+					NamedStatement.UNEXECUTED_EVENTS.name(), NamedStatement.LOGS_BETWEEN.name()};
+			for (int i = 0; i < names.length; i++) {
+				System.out.println(String.format("%-30s %10.3fms -> %8.3fms  (%.0fx)", names[i], before[i], after[i], before[i] / after[i]));
+			}
+		} finally {
+			c.close();
+			db.delete();
+		}
+	}
+
+	private static void createTables(Connection c) throws SQLException {
+		Statement s = c.createStatement();
+		s.executeUpdate("CREATE TABLE transactions (ID INTEGER PRIMARY KEY, source_IBAN VARCHAR, destination_IBAN VARCHAR NOT NULL, "
+				+ "date_time VARCHAR NOT NULL, amount NUMERIC NOT NULL, description VARCHAR NOT NULL, target_name VARCHAR, "
+				+ "date_time_milis BIGINT NOT NULL, pin_transaction BOOLEAN)");
+		// With the ID of migration 003 already, so the log query can be measured without indexes too
+		s.executeUpdate("CREATE TABLE logs (ID INTEGER PRIMARY KEY, timestamp BIGINT NOT NULL, message VARCHAR, type VARCHAR)");
+		s.executeUpdate("CREATE TABLE timeevents (ID INTEGER PRIMARY KEY, name VARCHAR, timestamp BIGINT, description VARCHAR, executed BOOLEAN)");
+		s.close();
+	}
+
+	/**
+	 * Inserts transactions between random accounts spread over the past year, one log entry
+	 * per ten transactions and one time event per hundred.
+	 */
+	private static void fill(Connection c, int transactions) throws SQLException {
+		Random random = new Random(42);
+		long now = System.currentTimeMillis();
+		c.setAutoCommit(false);
+		PreparedStatement t = c.prepareStatement("INSERT INTO transactions (source_IBAN, destination_IBAN, date_time, amount, description, "
+				+ "date_time_milis, pin_transaction) VALUES (?, ?, ?, ?, ?, ?, ?)");
+		PreparedStatement l = c.prepareStatement("INSERT INTO logs (timestamp, message, type) VALUES (?, ?, ?)");
+		PreparedStatement e = c.prepareStatement("INSERT INTO timeevents (name, timestamp, description, executed) VALUES (?, ?, ?, ?)");
+		for (int i = 0; i < transactions; i++) {
+			long millis = now - (long) (random.nextDouble() * YEAR_MILLIS);
+			t.setString(1, iban(random.nextInt(ACCOUNTS)));
+			t.setString(2, iban(random.nextInt(ACCOUNTS)));
+			t.setString(3, new java.util.Date(millis).toString());
+			t.setDouble(4, random.nextInt(10000) / 100.0);
+			t.setString(5, "Benchmark transfer " + i);
+			t.setLong(6, millis);
+			t.setBoolean(7, random.nextInt(4) == 0);
+			t.addBatch();
+			if (i % 10 == 0) {
+				l.setLong(1, now - YEAR_MILLIS + i);
+				l.setString(2, "Benchmark log " + i);
+				l.setString(3, "INFO");
+				l.addBatch();
+			}
+			if (i % 100 == 0) {
+				e.setString(1, "TRANSFER_LIMIT_UPDATE");
+				e.setLong(2, millis);
+				e.setString(3, "Benchmark event " + i);
+				e.setBoolean(4, random.nextBoolean());
+				e.addBatch();
+			}
+			if (i % 10000 == 0) {
+				t.executeBatch();
+				l.executeBatch();
+				e.executeBatch();
+			}
+		}
+		t.executeBatch();
+		l.executeBatch();
+		e.executeBatch();
+		c.commit();
+		c.setAutoCommit(true);
+		Statement s = c.createStatement();
+		s.executeUpdate("ANALYZE");
+		s.close();
+	}
+
+	/**
+	 * Runs every query shape a number of times with random parameters.
+	 * @return The average time per query shape, in milliseconds
+	 */
+	private static double[] runQueries(Connection c, int queries) throws SQLException {
+		Random random = new Random(7);
+		long now = System.currentTimeMillis();
+		PreparedStatement[] statements = {
+				c.prepareStatement(NamedStatement.OUTGOING_TRANSFERS_SINCE.getSQL()),
+				c.prepareStatement(NamedStatement.TRANSACTIONS_PAGE.getSQL()),
+				c.prepareStatement(NamedStatement.UNEXECUTED_EVENTS.getSQL()),
+				c.prepareStatement(NamedStatement.LOGS_BETWEEN.getSQL())
+		};
+		String[] sql = {NamedStatement.OUTGOING_TRANSFERS_SINCE.getSQL(), NamedStatement.TRANSACTIONS_PAGE.getSQL(),
+				NamedStatement.UNEXECUTED_EVENTS.getSQL(), NamedStatement.LOGS_BETWEEN.getSQL()};
+		for (String query : sql) {
+			printPlan(c, query);
+		}
+
+		double[] averages = new double[statements.length];
+		for (int shape = 0; shape < statements.length; shape++) {
+			PreparedStatement s = statements[shape];
+			long total = 0;
+			for (int i = 0; i < queries; i++) {
+				String iban = iban(random.nextInt(ACCOUNTS));
+				switch (shape) {
+				case 0:
+					// The rebuild of the transfer limit windows: the last eight days
+					s.setLong(1, now - 8L * 24 * 3600 * 1000);
+					break;
+				case 1:
+					String[] ibans = {iban, iban, iban + "S", iban + "S"};
+					int parameter = 1;
+					for (String account : ibans) {
+						s.setString(parameter++, account);
+						s.setLong(parameter++, Long.MAX_VALUE);
+						s.setLong(parameter++, Long.MAX_VALUE);
+						s.setLong(parameter++, Long.MAX_VALUE);
+						s.setInt(parameter++, PAGE_SIZE);
+					}
+					s.setInt(parameter, PAGE_SIZE);
+					break;
+				case 2:
+					// The pending events are read once, when the EventScheduler starts
+					break;
+				default:
+					long from = now - YEAR_MILLIS + random.nextInt(900000);
+					s.setLong(1, from);
+					s.setLong(2, from + 10000);
+				}
+				long start = System.nanoTime();
+				ResultSet rs = s.executeQuery();
+				while (rs.next()) {
+					rs.getObject(1);
+				}
+				rs.close();
+				total += System.nanoTime() - start;
+			}
+			averages[shape] = total / (queries * 1e6);
+			s.close();
+		}
+		return averages;
+	}
+
+	private static void printPlan(Connection c, String query) throws SQLException {
+		PreparedStatement s = c.prepareStatement("EXPLAIN QUERY PLAN " + query);
+		int parameters = query.length() - query.replace("?", "").length();
+		for (int i = 1; i <= parameters; i++) {
+			s.setString(i, "x");
+		}
+		ResultSet rs = s.executeQuery();
+		StringBuilder plan = new StringBuilder();
+		while (rs.next()) {
+			plan.append(rs.getString("detail")).append("; ");
+		}
+		rs.close();
+		s.close();
+		System.out.println(query.substring(0, Math.min(60, query.length())) + "...\n\t" + plan);
+	}
+
+	private static String iban(int account) {
+		return String.format("NL00INGB%010d", account);
+	}
+}
@@ -0,0 +1,100 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+import net.minidev.json.JSONValue;
+import server.rest.ServerHandler;
+
+/**
+ * Pages through the transactions of an account with <code>getTransactionsOverview</code>,
+ * passing the cursor of the last transaction of a page on to get the next page.
+ */
+public class TransactionsOverviewPagingTest {
+
+	private static final int DEPOSITS = 5;
+	private static final int PAGE_SIZE = 2;
+
+	@Test
+	public void secondPageContinuesBelowFirstPage() throws Exception {
+		String username = "paging" + Long.toString(System.nanoTime(), 26).replaceAll("[0-9]", "x");
+		String ssn = String.valueOf(10000000 + System.nanoTime() % 80000000);
+		JSONObject account = result("openAccount", "{\"name\":\"John\",\"surname\":\"Test\",\"initials\":\"JT\",\"dob\":\"1990-01-01\","
+				+ "\"ssn\":\"" + ssn + "\",\"address\":\"103 Testings Ave.\",\"telephoneNumber\":\"+31612345678\","
+				+ "\"email\":\"johntest@testing.nl\",\"username\":\"" + username + "\",\"password\":\"cake\"}");
+		String IBAN = (String) account.get("iBAN");
+		String authToken = (String) result("getAuthToken", "{\"username\":\"" + username + "\",\"password\":\"cake\"}").get("authToken");
+		for (int i = 0; i < DEPOSITS; i++) {
+			result("depositIntoAccount", "{\"iBAN\":\"" + IBAN + "\",\"pinCard\":\"" + account.get("pinCard")
+					+ "\",\"pinCode\":\"" + account.get("pinCode") + "\",\"amount\":10.0}");
+		}
+
+		String overview = "{\"authToken\":\"" + authToken + "\",\"iBAN\":\"" + IBAN + "\",\"nrOfTransactions\":" + PAGE_SIZE;
+		JSONArray first = (JSONArray) call("getTransactionsOverview", overview + "}").get("result");
+		assertEquals(PAGE_SIZE, first.size());
+
+		JSONObject last = (JSONObject) first.get(first.size() - 1);
+		assertTrue(last.get("timestamp") instanceof Number);
+		assertTrue(last.get("id") instanceof Number);
+		JSONObject secondResponse = call("getTransactionsOverview", overview
+				+ ",\"beforeTimestamp\":" + last.get("timestamp") + ",\"beforeId\":" + last.get("id") + "}");
+		assertNull(secondResponse.get("error"));
+		JSONArray second = (JSONArray) secondResponse.get("result");
+		assertEquals(PAGE_SIZE, second.size());
+
+		Set<Object> ids = new HashSet<>();
+		for (Object transaction : first) {
+			ids.add(((JSONObject) transaction).get("id"));
+		}
+		for (Object transaction : second) {
+			JSONObject t = (JSONObject) transaction;
+			assertTrue("page 2 repeats transaction " + t.get("id"), ids.add(t.get("id")));
+			long timestamp = ((Number) t.get("timestamp")).longValue();
+			long cursor = ((Number) last.get("timestamp")).longValue();
+			assertTrue(timestamp < cursor || (timestamp == cursor
+					&& ((Number) t.get("id")).longValue() < ((Number) last.get("id")).longValue()));
+		}
+
+		// The cursor as strings, like the overview used to return it, gives the same page
+		JSONArray secondFromStrings = (JSONArray) call("getTransactionsOverview", overview
+				+ ",\"beforeTimestamp\":\"" + last.get("timestamp") + "\",\"beforeId\":\"" + last.get("id") + "\"}").get("result");
+		assertEquals(second, secondFromStrings);
+	}
+
+	private static JSONObject result(String method, String params) throws Exception {
+		JSONObject response = call(method, params);
+		assertNull(method + " failed: " + response, response.get("error"));
+		return (JSONObject) response.get("result");
+	}
+
+	private static JSONObject call(String method, String params) throws Exception {
+		String request = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"" + method + "\",\"params\":" + params + "}";
+		final CompletableFuture<Response> response = new CompletableFuture<>();
+		AsyncResponse asyncResponse = (AsyncResponse) Proxy.newProxyInstance(AsyncResponse.class.getClassLoader(),
+				new Class<?>[] {AsyncResponse.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method m, Object[] args) {
+						if (m.getName().equals("resume")) {
+							response.complete((Response) args[0]);
+							return true;
+						}
+						return null;
+					}
+				});
+		ServerHandler.parseJSONRequest(request, false, asyncResponse);
+		return (JSONObject) JSONValue.parse((String) response.get().getEntity());
+	}
+}
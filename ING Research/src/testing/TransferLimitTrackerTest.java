@@ -0,0 +1,174 @@
+package testing;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.Transaction;
+import accounts.TransferLimitTracker;
+import database.DataManager;
+import database.SQLiteDB;
+import server.rest.ServerModel;
+
+/**
+ * Checks the daily buckets of the <code>TransferLimitTracker</code> against the sums over the
+ * <code>transactions</code> table that the limit checks used to query.
+ */
+public class TransferLimitTrackerTest {
+	private String IBAN;
+
+	@Before
+	public void setUp() {
+		DataManager.initIfRequired();
+		IBAN = "NLTEST" + System.nanoTime();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		SQLiteDB.connectionLock.lock();
+		Connection c = SQLiteDB.openConnection();
+		try {
+			PreparedStatement s = c.prepareStatement("DELETE FROM transactions WHERE source_IBAN = ?");
+			s.setString(1, IBAN);
+			s.executeUpdate();
+			s.close();
+		} finally {
+			SQLiteDB.closeConnection(c);
+			SQLiteDB.connectionLock.unlock();
+		}
+		TransferLimitTracker.clear();
+	}
+
+	@Test
+	public void testSumsMatchQuery() throws SQLException {
+		for (int daysAgo = 0; daysAgo <= 8; daysAgo++) {
+			save(daysAgo, 10 + daysAgo, daysAgo % 2 == 0);
+		}
+		save(0, 2.5, true);
+		save(0, 1.25, false);
+		assertSums();
+
+		// The same, read from the database instead of updated transfer by transfer
+		TransferLimitTracker.clear();
+		assertSums();
+		assertEquals(10 + 11 + 12 + 13 + 14 + 15 + 16 + 2.5 + 1.25, TransferLimitTracker.getWeeklyTransferSum(IBAN), 0.001);
+		assertEquals(10 + 2.5, TransferLimitTracker.getDailyPinSum(IBAN), 0.001);
+	}
+
+	@Test
+	public void testDayRollover() throws SQLException {
+		// Seven days ago shares its bucket with today, but is no longer counted
+		save(7, 100, true);
+		assertEquals(0, TransferLimitTracker.getWeeklyTransferSum(IBAN), 0.001);
+		save(0, 5, true);
+		assertSums();
+		assertEquals(5, TransferLimitTracker.getWeeklyTransferSum(IBAN), 0.001);
+
+		// An old transfer that arrives after a newer day took its bucket is not counted either
+		save(7, 100, true);
+		save(6, 3, false);
+		assertSums();
+		assertEquals(8, TransferLimitTracker.getWeeklyTransferSum(IBAN), 0.001);
+		assertEquals(5, TransferLimitTracker.getDailyPinSum(IBAN), 0.001);
+	}
+
+	@Test
+	public void testTransfersOfTransactionCountForItsThreadOnly() throws Exception {
+		save(0, 5, true);
+		DataManager.beginTransaction();
+		try {
+			save(0, 7, true);
+			assertEquals(12, TransferLimitTracker.getWeeklyTransferSum(IBAN), 0.001);
+			assertEquals(12, TransferLimitTracker.getDailyPinSum(IBAN), 0.001);
+			assertEquals(5, sumOnOtherThread(), 0.001);
+		} finally {
+			DataManager.endTransaction(false);
+		}
+		assertEquals(5, TransferLimitTracker.getWeeklyTransferSum(IBAN), 0.001);
+		assertSums();
+
+		DataManager.beginTransaction();
+		try {
+			save(0, 7, true);
+		} finally {
+			assertTrue(DataManager.endTransaction(true));
+		}
+		assertEquals(12, sumOnOtherThread(), 0.001);
+		assertSums();
+	}
+
+	/**
+	 * Saves an outgoing transfer at noon of a day before today, or just after midnight today.
+	 */
+	private void save(int daysAgo, double amount, boolean pinTransaction) {
+		Calendar c = startOfToday();
+		c.add(Calendar.DATE, -daysAgo);
+		c.add(Calendar.HOUR_OF_DAY, daysAgo == 0 ? 0 : 12);
+		c.add(Calendar.MILLISECOND, 1);
+		Transaction t = new Transaction();
+		t.setDateTime(c.getTime().toString());
+		t.setDateTimeMilis(c.getTimeInMillis());
+		t.setSourceIBAN(IBAN);
+		t.setDestinationIBAN("NL00TEST");
+		t.setPinTransaction(pinTransaction);
+		t.setAmount(amount);
+		t.setDescription("Limit test");
+		t.saveToDB();
+	}
+
+	private void assertSums() throws SQLException {
+		Calendar weekStart = startOfToday();
+		weekStart.add(Calendar.DATE, 1 - TransferLimitTracker.DAYS);
+		assertEquals(query("SELECT SUM(amount) FROM transactions WHERE source_IBAN = ? AND date_time_milis >= ?", weekStart),
+				TransferLimitTracker.getWeeklyTransferSum(IBAN), 0.001);
+		assertEquals(query("SELECT SUM(amount) FROM transactions WHERE source_IBAN = ? AND date_time_milis >= ? AND pin_transaction = 1", startOfToday()),
+				TransferLimitTracker.getDailyPinSum(IBAN), 0.001);
+	}
+
+	private double query(String sql, Calendar since) throws SQLException {
+		Connection c = SQLiteDB.openConnection();
+		try {
+			PreparedStatement s = c.prepareStatement(sql);
+			s.setString(1, IBAN);
+			s.setLong(2, since.getTimeInMillis());
+			ResultSet rs = s.executeQuery();
+			double sum = rs.getDouble(1);
+			s.close();
+			return sum;
+		} finally {
+			SQLiteDB.closeConnection(c);
+		}
+	}
+
+	private double sumOnOtherThread() throws InterruptedException {
+		final AtomicReference<Double> sum = new AtomicReference<>();
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				sum.set(TransferLimitTracker.getWeeklyTransferSum(IBAN));
+			}
+		});
+		thread.start();
+		thread.join();
+		return sum.get();
+	}
+
+	private static Calendar startOfToday() {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(ServerModel.getServerCalendar().getTimeInMillis());
+		c.set(Calendar.HOUR_OF_DAY, 0);
+		c.set(Calendar.MINUTE, 0);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		return c;
+	}
+}